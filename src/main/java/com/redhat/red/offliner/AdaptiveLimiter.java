@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of concurrent requests to each repository (base URL) independently, adapting each limit to how
+ * the repository responds, in the manner of TCP congestion control (AIMD):
+ * <ul>
+ *     <li>While the latency of responses (up to their headers) stays within {@link #LATENCY_TOLERANCE} of the fastest
+ *     recently seen, the limit grows: by one per response at first (slow start), then by one per limit's worth of
+ *     responses.</li>
+ *     <li>When the latency grows beyond that, the limit shrinks a little, and stops growing fast.</li>
+ *     <li>A 429 or 503 response, a timeout, or a connection dropped without a response halves the limit.</li>
+ * </ul>
+ * A decrease is only applied once per round trip: outcomes of requests that were already in flight when the limit
+ * was last decreased don't decrease it again.
+ * <p>
+ * Permits are handed out in FIFO order, either blocking ({@link #acquire(String)}) or as a future
+ * ({@link #acquireAsync(String)}), so the asynchronous engine never parks an I/O thread waiting for one. A hedged
+ * request only takes a permit if one is free right away ({@link #tryAcquire(String)}), and isn't sent otherwise.
+ */
+final class AdaptiveLimiter
+{
+    static final int INITIAL_LIMIT = 4;
+
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final double BACKOFF = 0.5;
+
+    private static final double LATENCY_BACKOFF = 0.9;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+    private final int maxLimit;
+
+    /**
+     * @param maxLimit The most concurrent requests any single repository is allowed, unless lowered with
+     * {@link #setMaxLimit(String, int)}
+     */
+    AdaptiveLimiter( final int maxLimit )
+    {
+        this.maxLimit = Math.max( 1, maxLimit );
+    }
+
+    private Limit limitFor( final String baseUrl )
+    {
+        return limits.computeIfAbsent( baseUrl, ( url ) -> new Limit( url, maxLimit ) );
+    }
+
+    /**
+     * Lower (or raise, up to the limiter's own maximum) the most concurrent requests allowed to one repository.
+     */
+    void setMaxLimit( final String baseUrl, final int max )
+    {
+        limitFor( baseUrl ).setMax( Math.min( maxLimit, Math.max( 1, max ) ) );
+    }
+
+    /**
+     * Wait for a permit to send a request to the given repository.
+     */
+    Permit acquire( final String baseUrl )
+            throws InterruptedException
+    {
+        CompletableFuture<Permit> future = acquireAsync( baseUrl );
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            if ( !future.cancel( false ) )
+            {
+                // the permit was granted as we were interrupted, so hand it back.
+                future.join().release();
+            }
+            throw e;
+        }
+        catch ( ExecutionException e )
+        {
+            throw new IllegalStateException( "Permit future failed", e.getCause() );
+        }
+    }
+
+    /**
+     * @return a permit to send a request to the given repository, or null if there is none to be had without waiting
+     */
+    Permit tryAcquire( final String baseUrl )
+    {
+        return limitFor( baseUrl ).tryAcquire();
+    }
+
+    /**
+     * @return A future permit to send a request to the given repository. It may be completed on the thread releasing
+     * another permit.
+     */
+    CompletableFuture<Permit> acquireAsync( final String baseUrl )
+    {
+        return limitFor( baseUrl ).acquire();
+    }
+
+    /**
+     * @return the current concurrency limit of each repository the limiter has seen
+     */
+    Map<String, Integer> getLimits()
+    {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        limits.forEach( ( url, limit ) -> result.put( url, limit.getLimit() ) );
+        return result;
+    }
+
+    /**
+     * @return true if the given failure means the repository is (probably) overloaded
+     */
+    static boolean isOverload( final Throwable error )
+    {
+        return error instanceof SocketTimeoutException || error instanceof ConnectTimeoutException
+                || error instanceof NoHttpResponseException;
+    }
+
+    static boolean isOverload( final int statusCode )
+    {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * The right to have one request in flight to a repository. The outcome of the request should be reported through
+     * {@link #onResponse(int, long)}, {@link #onFailure(Throwable)} or {@link #onAbandoned(long)}, and the permit must be released once the
+     * response has been consumed.
+     */
+    final class Permit
+    {
+        private final Limit limit;
+
+        private final long epoch;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit( final Limit limit, final long epoch )
+        {
+            this.limit = limit;
+            this.epoch = epoch;
+        }
+
+        /**
+         * @param statusCode The status of the response
+         * @param latencyNanos The time between sending the request and receiving the response headers
+         */
+        void onResponse( final int statusCode, final long latencyNanos )
+        {
+            if ( isOverload( statusCode ) )
+            {
+                limit.backoff( epoch, BACKOFF, "HTTP " + statusCode );
+            }
+            else
+            {
+                limit.sample( epoch, latencyNanos );
+            }
+        }
+
+        /**
+         * @param latencyNanos How long the request had been waiting for its response headers when it was abandoned, for
+         * instance because a hedge answered first. It only tells that the response would have taken at least as long,
+         * so it can shrink the limit, but never grow it.
+         */
+        void onAbandoned( final long latencyNanos )
+        {
+            limit.abandoned( epoch, latencyNanos );
+        }
+
+        void onFailure( final Throwable error )
+        {
+            if ( isOverload( error ) )
+            {
+                limit.backoff( epoch, BACKOFF, error.getClass().getSimpleName() );
+            }
+        }
+
+        /**
+         * Give the permit back. Releasing it again has no effect.
+         */
+        void release()
+        {
+            if ( released.compareAndSet( false, true ) )
+            {
+                limit.release();
+            }
+        }
+    }
+
+    private final class Limit
+    {
+        private final String baseUrl;
+
+        private final Deque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+        private int max;
+
+        private double limit;
+
+        private int inFlight;
+
+        private boolean slowStart = true;
+
+        /**
+         * Incremented on every decrease, so outcomes of requests sent before it can be told apart.
+         */
+        private long epoch;
+
+        private long baselineNanos;
+
+        private Limit( final String baseUrl, final int max )
+        {
+            this.baseUrl = baseUrl;
+            this.max = max;
+            this.limit = Math.min( max, INITIAL_LIMIT );
+        }
+
+        private synchronized int getLimit()
+        {
+            return (int) limit;
+        }
+
+        private void setMax( final int max )
+        {
+            synchronized ( this )
+            {
+                this.max = max;
+                limit = Math.min( limit, max );
+            }
+            grant();
+        }
+
+        private CompletableFuture<Permit> acquire()
+        {
+            CompletableFuture<Permit> future = new CompletableFuture<>();
+            synchronized ( this )
+            {
+                Permit permit = tryAcquire();
+                if ( permit != null )
+                {
+                    future.complete( permit );
+                    return future;
+                }
+                waiters.add( future );
+            }
+            return future;
+        }
+
+        private synchronized Permit tryAcquire()
+        {
+            if ( waiters.isEmpty() && inFlight < (int) limit )
+            {
+                inFlight++;
+                return new Permit( this, epoch );
+            }
+            return null;
+        }
+
+        private void release()
+        {
+            synchronized ( this )
+            {
+                inFlight--;
+            }
+            grant();
+        }
+
+        /**
+         * Hand out permits to waiters while there is room. The futures are completed outside the lock, since whatever
+         * depends on them may start a request to another repository right away.
+         */
+        private void grant()
+        {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>();
+            long grantedEpoch;
+            synchronized ( this )
+            {
+                while ( !waiters.isEmpty() && inFlight < (int) limit )
+                {
+                    granted.add( waiters.poll() );
+                    inFlight++;
+                }
+                grantedEpoch = epoch;
+            }
+
+            for ( CompletableFuture<Permit> future : granted )
+            {
+                Permit permit = new Permit( this, grantedEpoch );
+                if ( !future.complete( permit ) )
+                {
+                    // the waiter gave up.
+                    permit.release();
+                }
+            }
+        }
+
+        private void sample( final long permitEpoch, final long latencyNanos )
+        {
+            synchronized ( this )
+            {
+                // let the baseline creep up, so it follows a repository that got slower for good.
+                baselineNanos = baselineNanos == 0 ? latencyNanos :
+                        Math.min( latencyNanos, baselineNanos + baselineNanos / 256 );
+
+                if ( latencyNanos <= baselineNanos * LATENCY_TOLERANCE )
+                {
+                    limit = Math.min( max, limit + ( slowStart ? 1 : 1 / limit ) );
+                }
+                else if ( permitEpoch == epoch )
+                {
+                    decrease( LATENCY_BACKOFF );
+                }
+            }
+            grant();
+        }
+
+        private synchronized void abandoned( final long permitEpoch, final long latencyNanos )
+        {
+            if ( baselineNanos > 0 && latencyNanos > baselineNanos * LATENCY_TOLERANCE && permitEpoch == epoch )
+            {
+                decrease( LATENCY_BACKOFF );
+            }
+        }
+
+        private void backoff( final long permitEpoch, final double factor, final String reason )
+        {
+            synchronized ( this )
+            {
+                if ( permitEpoch != epoch )
+                {
+                    return;
+                }
+                decrease( factor );
+            }
+            logger.debug( "Backing off {} to {} concurrent requests ({})", baseUrl, getLimit(), reason );
+        }
+
+        private void decrease( final double factor )
+        {
+            limit = Math.max( 1, limit * factor );
+            slowStart = false;
+            epoch++;
+        }
+    }
+}
@@ -0,0 +1,654 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import com.redhat.red.offliner.model.DownloadResult;
+import com.redhat.red.offliner.util.UrlUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.StatusLine;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import static com.redhat.red.offliner.Offliner.CONNECTION_REQUEST_TIMEOUT;
+import static com.redhat.red.offliner.Offliner.CONNECTION_TIMEOUT;
+import static com.redhat.red.offliner.Offliner.SEPARATING_LINE;
+import static com.redhat.red.offliner.Offliner.SOCKET_TIMEOUT;
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Download engine built on the non-blocking HttpAsyncClient. Each transfer is a chain of callbacks driven by a small
+ * number of I/O reactor threads, so thousands of downloads can be in flight at once without parking a thread on each
+ * of them. Repositories are tried in order, with the same success / warning / error semantics as the blocking
+ * downloader in {@link Offliner}.
+ */
+public class AsyncDownloader
+        implements Closeable
+{
+    /**
+     * Upper bound on how much of an error response body is kept for reporting.
+     */
+    private static final int MAX_ERROR_BODY = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final CloseableHttpAsyncClient client;
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+
+    private final PartFiles partFiles;
+
+    private final AdaptiveLimiter limiter;
+
+    private final NegativeLookupCache negativeCache;
+
+    private final int bufferSize;
+
+    AsyncDownloader( final OfflinerConfig config, final HttpHost proxy, final PartFiles partFiles,
+                     final AdaptiveLimiter limiter, final NegativeLookupCache negativeCache )
+    {
+        this.partFiles = partFiles;
+        this.limiter = limiter;
+        this.negativeCache = negativeCache;
+        this.bufferSize = config.getBufferSize();
+
+        final IOReactorConfig ioConfig = IOReactorConfig.custom()
+                                                        .setConnectTimeout( CONNECTION_TIMEOUT )
+                                                        .setSoTimeout( SOCKET_TIMEOUT )
+                                                        .build();
+
+        final PoolingNHttpClientConnectionManager ccm;
+        try
+        {
+            ccm = new PoolingNHttpClientConnectionManager( new DefaultConnectingIOReactor( ioConfig ) );
+        }
+        catch ( IOReactorException ex )
+        {
+            throw new IllegalStateException( "Failed to start the I/O reactor for asynchronous downloads", ex );
+        }
+
+        // there is no thread pool limiting us here, so let every connection go to a single repository if needed.
+        ccm.setMaxTotal( config.getConnections() );
+        ccm.setDefaultMaxPerRoute( config.getConnections() );
+        connectionManager = ccm;
+
+        RequestConfig rc = RequestConfig.custom()
+                                        .setConnectionRequestTimeout( CONNECTION_REQUEST_TIMEOUT )
+                                        .setConnectTimeout( CONNECTION_TIMEOUT )
+                                        .setSocketTimeout( SOCKET_TIMEOUT )
+                                        .build();
+
+        final HttpAsyncClientBuilder builder =
+                HttpAsyncClients.custom().setConnectionManager( ccm ).setDefaultRequestConfig( rc );
+
+        if ( proxy != null )
+        {
+            builder.setRoutePlanner( new DefaultProxyRoutePlanner( proxy ) );
+        }
+
+        client = builder.build();
+        client.start();
+    }
+
+    void setMaxPerRoute( final HttpRoute route, final int max )
+    {
+        connectionManager.setMaxPerRoute( route, max );
+    }
+
+    Map<HttpRoute, PoolStats> getRouteStats()
+    {
+        Map<HttpRoute, PoolStats> stats = new LinkedHashMap<>();
+        connectionManager.getRoutes().forEach( ( route ) -> stats.put( route, connectionManager.getStats( route ) ) );
+        return stats;
+    }
+
+    /**
+     * Start downloading the given path into the target file, trying each of the base URLs in turn until one of them
+     * has the content. This method returns immediately; the returned future completes when the download succeeds,
+     * fails, or runs out of repositories to try.
+     *
+     * @param target The file the content should end up in
+     * @param path The path to download, relative to each base URL
+     * @param checksum The expected checksum of the content, or null if it's not known
+     * @param baseUrls The repositories to try, in order of priority
+     * @param cookieStore Cookies shared between the downloads of the same artifact list
+     * @param journal The journal of the download directory, or null if it isn't kept
+     * @param scoreboard The scoreboard of the request the download is part of
+     * @param sidecars true if the .sha1 and .md5 files of the target should be written from the calculated digests
+     * @param revalidate true if the target exists, and should only be downloaded again if the repository says it
+     * changed. If it hasn't, the result is avoided.
+     * @return The future {@link DownloadResult}. It is never completed exceptionally.
+     */
+    public CompletableFuture<DownloadResult> download( final File target, final String path, final String checksum,
+                                                       final List<String> baseUrls, final CookieStore cookieStore,
+                                                       final DownloadJournal journal,
+                                                       final RepositoryScoreboard scoreboard, final boolean sidecars,
+                                                       final boolean revalidate )
+    {
+        final CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+
+        final File dir = target.getParentFile();
+        dir.mkdirs();
+
+        final File part = partFiles.open( target );
+        future.whenComplete( ( result, error ) -> partFiles.release( part ) );
+
+        fetch( new Transfer( target, part, path, checksum, baseUrls, cookieStore, journal, scoreboard, sidecars,
+                             revalidate, future ), 0 );
+
+        return future;
+    }
+
+    private void fetch( final Transfer transfer, final int repoIndex )
+    {
+        if ( limiter == null )
+        {
+            start( transfer, repoIndex, null );
+        }
+        else
+        {
+            limiter.acquireAsync( transfer.baseUrls.get( repoIndex ) ).whenComplete( ( permit, error ) -> {
+                if ( error == null )
+                {
+                    start( transfer, repoIndex, permit );
+                }
+                else
+                {
+                    fail( transfer, permit, error );
+                }
+            } );
+        }
+    }
+
+    /**
+     * Send the request for the given repository, making sure the transfer's future is completed even if the request
+     * can't be sent at all (for instance, because the client is closed).
+     */
+    private void start( final Transfer transfer, final int repoIndex, final AdaptiveLimiter.Permit permit )
+    {
+        try
+        {
+            fetch( transfer, repoIndex, permit );
+        }
+        catch ( final RuntimeException e )
+        {
+            fail( transfer, permit, e );
+        }
+    }
+
+    private void fail( final Transfer transfer, final AdaptiveLimiter.Permit permit, final Throwable error )
+    {
+        release( permit );
+        logger.debug( "Download of: " + transfer.path + " could not be started.", error );
+        transfer.future.complete( DownloadResult.error( transfer.path, new IOException(
+                "Download of: " + transfer.path + " could not be started.", error ) ) );
+    }
+
+    private void fetch( final Transfer transfer, final int repoIndex, final AdaptiveLimiter.Permit permit )
+    {
+        final String baseUrl = transfer.baseUrls.get( repoIndex );
+        final boolean lastRepo = repoIndex == transfer.baseUrls.size() - 1;
+        final String path = transfer.path;
+
+        final String url;
+        try
+        {
+            url = UrlUtils.buildUrl( baseUrl, path );
+        }
+        catch ( final MalformedURLException e )
+        {
+            release( permit );
+            transfer.future.complete( DownloadResult.error( path, e ) );
+            return;
+        }
+
+        logger.debug( ">>>Downloading: " + url );
+
+        final HttpClientContext context = new HttpClientContext();
+        context.setCookieStore( transfer.cookieStore );
+
+        final HttpGet request = new HttpGet( url );
+        if ( transfer.revalidate )
+        {
+            Offliner.setConditionalHeaders( request, transfer.journal == null ? null :
+                    transfer.journal.getCompletedValidator( path ), transfer.target );
+        }
+
+        final PartFileConsumer consumer = new PartFileConsumer( transfer, permit, bufferSize );
+        client.execute( HttpAsyncMethods.create( request ), consumer, context,
+                        new FutureCallback<Response>()
+                        {
+                            @Override
+                            public void completed( final Response response )
+                            {
+                                release( permit );
+                                transfer.scoreboard.onResponse( baseUrl, response.statusLine.getStatusCode(),
+                                                                response.firstByteNanos );
+                                if ( response.checksum != null )
+                                {
+                                    transfer.scoreboard.onTransfer( baseUrl, transfer.part.length(),
+                                                                    response.transferNanos );
+                                }
+                                DownloadResult result;
+                                try
+                                {
+                                    result = handleResponse( transfer, baseUrl, url, lastRepo, response );
+                                }
+                                catch ( final RuntimeException e )
+                                {
+                                    result = DownloadResult.error( path, new IOException(
+                                            "Handling the response of URL: " + url + " failed.", e ) );
+                                }
+
+                                if ( result == null )
+                                {
+                                    transfer.retries = 0;
+                                    fetch( transfer, repoIndex + 1 );
+                                }
+                                else
+                                {
+                                    transfer.future.complete( result );
+                                }
+                            }
+
+                            @Override
+                            public void failed( final Exception e )
+                            {
+                                // a local disk error says nothing about the repository.
+                                if ( !( e instanceof LocalFileException ) )
+                                {
+                                    if ( permit != null )
+                                    {
+                                        permit.onFailure( e );
+                                    }
+                                    transfer.scoreboard.onFailure( baseUrl );
+                                }
+                                release( permit );
+                                if ( consumer.statusLine == null && isRetriable( e )
+                                        && transfer.retries < Offliner.MAX_RETRIES )
+                                {
+                                    transfer.retries++;
+                                    logger.debug( e.getClass().getSimpleName() + " start to retry times:"
+                                                          + transfer.retries );
+                                    fetch( transfer, repoIndex );
+                                    return;
+                                }
+                                if ( logger.isTraceEnabled() )
+                                {
+                                    logger.error( "Download failed for: " + url, e );
+                                }
+                                transfer.future.complete(
+                                        DownloadResult.error( path, new IOException( "URL: " + url + " failed.", e ) ) );
+                            }
+
+                            @Override
+                            public void cancelled()
+                            {
+                                release( permit );
+                                transfer.future.complete( DownloadResult.error( path, new IOException(
+                                        "URL: " + url + " was cancelled." ) ) );
+                            }
+                        } );
+    }
+
+    /**
+     * Whether a request that failed before its response arrived should be sent again, like the blocking client's retry
+     * handler in {@link Offliner} does. The async client reports a connection closed before the response as a
+     * {@link ConnectionClosedException} rather than a {@link NoHttpResponseException}, and a connection pool timeout as
+     * a {@link TimeoutException} rather than a {@link ConnectionPoolTimeoutException}.
+     */
+    static boolean isRetriable( final Exception e )
+    {
+        return e instanceof NoHttpResponseException || e instanceof ConnectionClosedException
+                || e instanceof SocketTimeoutException || e instanceof ConnectionPoolTimeoutException
+                || e instanceof TimeoutException;
+    }
+
+    private static void release( final AdaptiveLimiter.Permit permit )
+    {
+        if ( permit != null )
+        {
+            permit.release();
+        }
+    }
+
+    /**
+     * Translate a completed response into a {@link DownloadResult}, or return null if the next repository should be
+     * tried.
+     */
+    private DownloadResult handleResponse( final Transfer transfer, final String baseUrl, final String url,
+                                           final boolean lastRepo, final Response response )
+    {
+        final String path = transfer.path;
+        final int statusCode = response.statusLine.getStatusCode();
+        if ( statusCode == 200 )
+        {
+            negativeCache.found( baseUrl, path );
+            final String checksum = transfer.checksum;
+            if ( checksum != null && !isBlank( checksum ) && !response.checksum.isMatch( checksum ) )
+            {
+                return DownloadResult.error( path, new IOException(
+                        "Checksum mismatch on file: " + path + " (calculated: '" + response.checksum + "'; expected: '"
+                                + checksum + "')" ) );
+            }
+
+            transfer.part.renameTo( transfer.target );
+            if ( transfer.sidecars )
+            {
+                try
+                {
+                    OfflinerUtils.writeChecksumFiles( transfer.target, response.checksum.getSha1(),
+                                                      response.checksum.getMd5() );
+                }
+                catch ( final IOException e )
+                {
+                    return DownloadResult.error( path, e );
+                }
+            }
+            if ( transfer.journal != null )
+            {
+                transfer.journal.completed( transfer.target, path, response.checksum, response.validator );
+            }
+            return DownloadResult.success( baseUrl, path );
+        }
+        else if ( statusCode == 304 && transfer.revalidate )
+        {
+            logger.debug( "<<<Not Modified: " + url );
+            negativeCache.found( baseUrl, path );
+            return DownloadResult.avoid( path, true );
+        }
+        else if ( statusCode == 404 )
+        {
+            negativeCache.missed( baseUrl, path );
+            logger.debug( "<<<Not Found: " + url );
+            if ( !lastRepo )
+            {
+                return null;
+            }
+
+            if ( path.endsWith( Offliner.MD5_SUFFIX ) || path.endsWith( Offliner.SHA_SUFFIX ) )
+            {
+                return DownloadResult.warn( path, "WARN: downloading path " + path + " was not "
+                        + "found in any of the provided repositories." );
+            }
+
+            return DownloadResult.error( path, new IOException(
+                    "Error downloading path: " + path + ". The artifact was not "
+                            + "found in any of the provided repositories." ) );
+        }
+
+        String message = String.format(
+                "Error downloading path: %s.\n%s\nServer status: %s\nServer response was:\n%s\n%s",
+                path, SEPARATING_LINE, response.statusLine, response.errorBody, SEPARATING_LINE );
+
+        if ( lastRepo )
+        {
+            return DownloadResult.error( path, new IOException( message ) );
+        }
+
+        logger.debug( "<<<" + message );
+        return null;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        client.close();
+    }
+
+    /**
+     * State shared by all attempts to download a single path.
+     */
+    private static final class Transfer
+    {
+        private final File target;
+
+        private final File part;
+
+        private final String path;
+
+        private final String checksum;
+
+        private final List<String> baseUrls;
+
+        private final CookieStore cookieStore;
+
+        private final DownloadJournal journal;
+
+        private final boolean sidecars;
+
+        private final RepositoryScoreboard scoreboard;
+
+        private final boolean revalidate;
+
+        private final CompletableFuture<DownloadResult> future;
+
+        /**
+         * How many times the request was sent again to the current repository.
+         */
+        private int retries;
+
+        private Transfer( final File target, final File part, final String path, final String checksum,
+                          final List<String> baseUrls, final CookieStore cookieStore, final DownloadJournal journal,
+                          final RepositoryScoreboard scoreboard, final boolean sidecars, final boolean revalidate,
+                          final CompletableFuture<DownloadResult> future )
+        {
+            this.target = target;
+            this.part = part;
+            this.path = path;
+            this.checksum = checksum;
+            this.baseUrls = baseUrls;
+            this.cookieStore = cookieStore;
+            this.journal = journal;
+            this.scoreboard = scoreboard;
+            this.sidecars = sidecars;
+            this.revalidate = revalidate;
+            this.future = future;
+        }
+    }
+
+    /**
+     * What we kept from a single response: its status, plus either the checksum of the content written to the part
+     * file (on 200) or the beginning of the error body (otherwise).
+     */
+    private static final class Response
+    {
+        private final StatusLine statusLine;
+
+        private final ChecksumOutputStream.Checksum checksum;
+
+        private final String errorBody;
+
+        private final String validator;
+
+        private final long firstByteNanos;
+
+        private final long transferNanos;
+
+        private Response( final StatusLine statusLine, final ChecksumOutputStream.Checksum checksum,
+                          final String errorBody, final String validator, final long firstByteNanos,
+                          final long transferNanos )
+        {
+            this.statusLine = statusLine;
+            this.checksum = checksum;
+            this.errorBody = errorBody;
+            this.validator = validator;
+            this.firstByteNanos = firstByteNanos;
+            this.transferNanos = transferNanos;
+        }
+    }
+
+    /**
+     * Streams a 200 response body into the part file, calculating checksums as the bytes arrive. The buffer the I/O
+     * reactor decodes the body into is digested and written to the part file's channel as it is, without copying it.
+     * Other responses are buffered (up to {@link #MAX_ERROR_BODY}) so they can be reported.
+     */
+    private static final class PartFileConsumer
+            extends AsyncByteConsumer<Response>
+    {
+        private final Transfer transfer;
+
+        private final AdaptiveLimiter.Permit permit;
+
+        private final long sent = System.nanoTime();
+
+        private long headers;
+
+        private StatusLine statusLine;
+
+        private String validator;
+
+        private FileChannel channel;
+
+        private ChecksumOutputStream digests;
+
+        private ByteArrayOutputStream errorBody;
+
+        private PartFileConsumer( final Transfer transfer, final AdaptiveLimiter.Permit permit, final int bufferSize )
+        {
+            super( bufferSize );
+            this.transfer = transfer;
+            this.permit = permit;
+        }
+
+        @Override
+        protected void onResponseReceived( final HttpResponse response )
+                throws IOException
+        {
+            statusLine = response.getStatusLine();
+            headers = System.nanoTime();
+            if ( permit != null )
+            {
+                permit.onResponse( statusLine.getStatusCode(), headers - sent );
+            }
+            if ( statusLine.getStatusCode() == 200 )
+            {
+                validator = Offliner.getValidator( response );
+                if ( transfer.journal != null )
+                {
+                    transfer.journal.started( transfer.path, null );
+                }
+
+                digests = ChannelCopier.newDigests(
+                        ChecksumOutputStream.algorithmsFor( transfer.checksum, transfer.sidecars ) );
+                try
+                {
+                    channel = FileChannel.open( transfer.part.toPath(), StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+                }
+                catch ( final IOException e )
+                {
+                    throw new LocalFileException( transfer.part, e );
+                }
+            }
+            else
+            {
+                errorBody = new ByteArrayOutputStream();
+            }
+        }
+
+        @Override
+        protected void onByteReceived( final ByteBuffer buf, final IOControl ioctrl )
+                throws IOException
+        {
+            if ( channel != null )
+            {
+                digests.update( buf.duplicate() );
+                try
+                {
+                    while ( buf.hasRemaining() )
+                    {
+                        channel.write( buf );
+                    }
+                }
+                catch ( final IOException e )
+                {
+                    throw new LocalFileException( transfer.part, e );
+                }
+            }
+            else
+            {
+                while ( buf.hasRemaining() && errorBody.size() < MAX_ERROR_BODY )
+                {
+                    errorBody.write( buf.get() );
+                }
+                buf.position( buf.limit() );
+            }
+        }
+
+        @Override
+        protected Response buildResult( final HttpContext context )
+                throws IOException
+        {
+            final long transferNanos = System.nanoTime() - headers;
+            if ( channel != null )
+            {
+                channel.close();
+                return new Response( statusLine, digests.getChecksum(), null, validator, headers - sent, transferNanos );
+            }
+
+            return new Response( statusLine, null,
+                                 errorBody == null ? "" : errorBody.toString( StandardCharsets.UTF_8.name() ),
+                                 null, headers - sent, transferNanos );
+        }
+
+        @Override
+        protected void releaseResources()
+        {
+            IOUtils.closeQuietly( channel );
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of heap {@link ByteBuffer}s, shared by everything a {@link ChannelCopier} streams file content through:
+ * downloads being copied, and existing files being digested. Buffers are allocated lazily up to a fixed number; once
+ * they are all in use, callers wait for one to be released, so the memory used for copying and hashing is bounded
+ * however many files are in flight.
+ * <p>
+ * Every caller must hold at most one buffer at a time, and release it before waiting on anything else that may need
+ * one, or the pool can deadlock.
+ * <p>
+ * This class is thread-safe.
+ */
+final class BufferPool
+{
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    private final int bufferSize;
+
+    private final int maxBuffers;
+
+    /**
+     * @param bufferSize The size of each buffer, or zero (or less) for {@link ChannelCopier#DEFAULT_BUFFER_SIZE}
+     * @param maxBuffers The most buffers to allocate, which is also the most callers that can hold one at a time
+     */
+    BufferPool( final int bufferSize, final int maxBuffers )
+    {
+        this.bufferSize = bufferSize > 0 ? bufferSize : ChannelCopier.DEFAULT_BUFFER_SIZE;
+        this.maxBuffers = Math.max( maxBuffers, 1 );
+        this.buffers = new ArrayBlockingQueue<>( this.maxBuffers );
+    }
+
+    /**
+     * @return a cleared buffer, allocating one if fewer than the maximum exist, or else waiting for one to be released
+     * @throws InterruptedIOException In case the thread is interrupted while waiting
+     */
+    ByteBuffer acquire()
+            throws IOException
+    {
+        ByteBuffer buf = buffers.poll();
+        if ( buf != null )
+        {
+            return buf;
+        }
+
+        int count;
+        while ( ( count = allocated.get() ) < maxBuffers )
+        {
+            if ( allocated.compareAndSet( count, count + 1 ) )
+            {
+                return ByteBuffer.allocate( bufferSize );
+            }
+        }
+
+        try
+        {
+            return buffers.take();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for a buffer." );
+        }
+    }
+
+    void release( final ByteBuffer buf )
+    {
+        buf.clear();
+        buffers.offer( buf );
+    }
+
+    int getBufferSize()
+    {
+        return bufferSize;
+    }
+}
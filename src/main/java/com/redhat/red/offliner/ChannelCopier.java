@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * Copies response bodies into part files through a {@link FileChannel}, calculating their digests from the same
+ * pooled {@link ByteBuffer} the content is written from. Any number of concurrent copies allocate at most a fixed
+ * number of buffers, so once they are all allocated, copying allocates nothing per chunk, however large the files.
+ * <p>
+ * The buffers are heap buffers on purpose: the content comes from an {@link InputStream}, so it lands in a byte array
+ * anyway. A direct buffer would only add a copy into it, and another out of it for the digests, while a heap buffer
+ * is digested in place, and written through the JDK's own cached direct buffer.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class ChannelCopier
+{
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final BufferPool buffers;
+
+    /**
+     * @param bufferSize The size of each buffer, which is the most read from the stream and written at once
+     * @param maxBuffers The most buffers to allocate, which is also the most copies that can run at the same time
+     */
+    public ChannelCopier( final int bufferSize, final int maxBuffers )
+    {
+        this( new BufferPool( bufferSize, maxBuffers ) );
+    }
+
+    /**
+     * @param buffers The pool to take buffers from
+     */
+    ChannelCopier( final BufferPool buffers )
+    {
+        this.buffers = buffers;
+    }
+
+    /**
+     * Copy a stream to the end of a part file, calculating the digests of the whole file.
+     *
+     * @param in The content to copy
+     * @param part The file to write to
+     * @param append true to keep the content already in the file, and include it in the digests; false to replace it
+     * @param algorithms The digests to calculate, out of {@link ChecksumOutputStream#ALL_ALGORITHMS}
+     * @return The digests of the file content
+     * @throws IOException In case the stream can't be read. If the file can't be read or written, it's a
+     * {@link LocalFileException}.
+     */
+    public ChecksumOutputStream.Checksum copy( final InputStream in, final File part, final boolean append,
+                                               final Set<String> algorithms )
+            throws IOException
+    {
+        final ChecksumOutputStream digests = newDigests( algorithms );
+        final OpenOption[] options = append ?
+                new OpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE } :
+                new OpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING };
+
+        final ByteBuffer buf = buffers.acquire();
+        try (FileChannel channel = open( part, options ))
+        {
+            if ( append )
+            {
+                // reading the existing content leaves the channel positioned at its end.
+                seed( part, channel, digests, buf );
+            }
+
+            final byte[] array = buf.array();
+            int read;
+            while ( ( read = in.read( array, 0, array.length ) ) != -1 )
+            {
+                buf.clear().limit( read );
+                digests.update( buf );
+                buf.flip();
+                write( part, channel, buf );
+            }
+        }
+        finally
+        {
+            buffers.release( buf );
+        }
+
+        return digests.getChecksum();
+    }
+
+    /**
+     * Copy exactly the given number of bytes from a stream into a file, at the given position.
+     *
+     * @throws EOFException In case the stream ends before all of the bytes are copied
+     */
+    public void copy( final InputStream in, final FileChannel channel, final long position, final long count )
+            throws IOException
+    {
+        final ByteBuffer buf = buffers.acquire();
+        try
+        {
+            final byte[] array = buf.array();
+            long offset = position;
+            long remaining = count;
+            while ( remaining > 0 )
+            {
+                int read = in.read( array, 0, (int) Math.min( array.length, remaining ) );
+                if ( read < 0 )
+                {
+                    throw new EOFException( "Content ended " + remaining + " bytes short of its range." );
+                }
+
+                buf.clear().limit( read );
+                while ( buf.hasRemaining() )
+                {
+                    offset += channel.write( buf, offset );
+                }
+                remaining -= read;
+            }
+        }
+        finally
+        {
+            buffers.release( buf );
+        }
+    }
+
+    /**
+     * Calculate the digests of a whole file with the given algorithms, reading it once. This is how existing files are
+     * verified, and how their missing checksum files are written.
+     *
+     * @param file The file to read
+     * @param algorithms The digests to calculate, out of {@link ChecksumOutputStream#ALL_ALGORITHMS}
+     * @return The digests of the file content. Those not calculated are null.
+     * @throws IOException In case the digests aren't available. If the file can't be read, it's a
+     * {@link LocalFileException}.
+     */
+    public ChecksumOutputStream.Checksum digest( final File file, final Set<String> algorithms )
+            throws IOException
+    {
+        final ChecksumOutputStream digests = newDigests( algorithms );
+        final ByteBuffer buf = buffers.acquire();
+        try (FileChannel channel = open( file, StandardOpenOption.READ ))
+        {
+            seed( file, channel, digests, buf );
+        }
+        finally
+        {
+            buffers.release( buf );
+        }
+
+        return digests.getChecksum();
+    }
+
+    private static FileChannel open( final File file, final OpenOption... options )
+            throws LocalFileException
+    {
+        try
+        {
+            return FileChannel.open( file.toPath(), options );
+        }
+        catch ( final IOException e )
+        {
+            throw new LocalFileException( file, e );
+        }
+    }
+
+    private static void write( final File file, final FileChannel channel, final ByteBuffer buf )
+            throws LocalFileException
+    {
+        try
+        {
+            while ( buf.hasRemaining() )
+            {
+                channel.write( buf );
+            }
+        }
+        catch ( final IOException e )
+        {
+            throw new LocalFileException( file, e );
+        }
+    }
+
+    private static void seed( final File file, final FileChannel channel, final ChecksumOutputStream digests,
+                              final ByteBuffer buf )
+            throws LocalFileException
+    {
+        buf.clear();
+        try
+        {
+            while ( channel.read( buf ) != -1 )
+            {
+                buf.flip();
+                digests.update( buf );
+                buf.clear();
+            }
+        }
+        catch ( final IOException e )
+        {
+            throw new LocalFileException( file, e );
+        }
+    }
+
+    static ChecksumOutputStream newDigests( final Set<String> algorithms )
+            throws IOException
+    {
+        try
+        {
+            return new ChecksumOutputStream( NullOutputStream.NULL_OUTPUT_STREAM, algorithms );
+        }
+        catch ( final NoSuchAlgorithmException e )
+        {
+            throw new IOException( "Cannot calculate checksums: " + algorithms, e );
+        }
+    }
+
+    public int getBufferSize()
+    {
+        return buffers.getBufferSize();
+    }
+}
@@ -20,11 +20,18 @@ import org.apache.commons.codec.binary.Hex;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
- * Calculates checksum while the stream it wraps is written to, for later verification.
+ * Calculates checksum while the stream it wraps is written to, for later verification. By default MD5, SHA-1 and
+ * SHA-256 are all calculated, but the set of algorithms can be narrowed to the ones that are actually needed. With no
+ * algorithms at all, the stream just passes writes through.
  */
 public final class ChecksumOutputStream
                 extends FilterOutputStream
@@ -35,6 +42,9 @@ public final class ChecksumOutputStream
 
     public static final String SHA_256 = "SHA-256";
 
+    public static final Set<String> ALL_ALGORITHMS =
+            Collections.unmodifiableSet( new LinkedHashSet<>( Arrays.asList( MD5, SHA_1, SHA_256 ) ) );
+
     private MessageDigest digestMD5;
 
     private MessageDigest digestSHA1;
@@ -44,11 +54,80 @@ public final class ChecksumOutputStream
     private Checksum checksum;
 
     public ChecksumOutputStream( final OutputStream out ) throws NoSuchAlgorithmException
+    {
+        this( out, ALL_ALGORITHMS );
+    }
+
+    /**
+     * @param out The stream to write through to
+     * @param algorithms The algorithms to calculate, out of {@link #ALL_ALGORITHMS}. The {@link Checksum} values of
+     *                   other algorithms will be null.
+     */
+    public ChecksumOutputStream( final OutputStream out, final Set<String> algorithms )
+            throws NoSuchAlgorithmException
     {
         super( out );
-        this.digestMD5 = MessageDigest.getInstance( MD5 );
-        this.digestSHA1 = MessageDigest.getInstance( SHA_1 );
-        this.digestSHA256 = MessageDigest.getInstance( SHA_256 );
+        this.digestMD5 = algorithms.contains( MD5 ) ? MessageDigest.getInstance( MD5 ) : null;
+        this.digestSHA1 = algorithms.contains( SHA_1 ) ? MessageDigest.getInstance( SHA_1 ) : null;
+        this.digestSHA256 = algorithms.contains( SHA_256 ) ? MessageDigest.getInstance( SHA_256 ) : null;
+    }
+
+    /**
+     * @return the name of the algorithm that produces hex-encoded checksums of the same length as the given one, or
+     * null if the length doesn't match any of {@link #ALL_ALGORITHMS}
+     */
+    public static String algorithmFor( final String checksum )
+    {
+        switch ( checksum.length() )
+        {
+            case 32:
+                return MD5;
+            case 40:
+                return SHA_1;
+            case 64:
+                return SHA_256;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the algorithms needed to verify content against the given checksum: none if it's null, just the one
+     * implied by its length if that's known, or else all of them
+     */
+    public static Set<String> algorithmsFor( final String checksum )
+    {
+        if ( checksum == null )
+        {
+            return Collections.emptySet();
+        }
+
+        String algorithm = algorithmFor( checksum );
+        return algorithm == null ? ALL_ALGORITHMS : Collections.singleton( algorithm );
+    }
+
+    /**
+     * @return the algorithms needed to verify content against the given checksum, plus MD5 and SHA-1 if the .md5 and
+     * .sha1 files of the content are going to be written from the calculated digests
+     */
+    public static Set<String> algorithmsFor( final String checksum, final boolean sidecars )
+    {
+        if ( !sidecars )
+        {
+            return algorithmsFor( checksum );
+        }
+
+        Set<String> algorithms = new LinkedHashSet<>( algorithmsFor( checksum ) );
+        algorithms.add( MD5 );
+        algorithms.add( SHA_1 );
+        return algorithms;
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        out.write( b );
+        update( new byte[] { (byte) b }, 0, 1 );
     }
 
     @Override
@@ -59,9 +138,48 @@ public final class ChecksumOutputStream
             throw new IndexOutOfBoundsException();
         }
         out.write( b, off, len );
-        digestMD5.update( b, off, len );
-        digestSHA1.update( b, off, len );
-        digestSHA256.update( b, off, len );
+        update( b, off, len );
+    }
+
+    /**
+     * Update the checksums with the remaining content of the given buffer, without writing it. The buffer's position
+     * is left at its limit, as if the content had been written from it.
+     */
+    public void update( final ByteBuffer buffer )
+    {
+        final int start = buffer.position();
+        if ( digestMD5 != null )
+        {
+            buffer.position( start );
+            digestMD5.update( buffer );
+        }
+        if ( digestSHA1 != null )
+        {
+            buffer.position( start );
+            digestSHA1.update( buffer );
+        }
+        if ( digestSHA256 != null )
+        {
+            buffer.position( start );
+            digestSHA256.update( buffer );
+        }
+        buffer.position( buffer.limit() );
+    }
+
+    private void update( byte b[], int off, int len )
+    {
+        if ( digestMD5 != null )
+        {
+            digestMD5.update( b, off, len );
+        }
+        if ( digestSHA1 != null )
+        {
+            digestSHA1.update( b, off, len );
+        }
+        if ( digestSHA256 != null )
+        {
+            digestSHA256.update( b, off, len );
+        }
     }
 
     public static final class Checksum
@@ -126,10 +244,13 @@ public final class ChecksumOutputStream
     {
         if ( checksum == null )
         {
-            checksum = new Checksum( Hex.encodeHexString( digestMD5.digest() ),
-                                     Hex.encodeHexString( digestSHA1.digest() ),
-                                     Hex.encodeHexString( digestSHA256.digest() ) );
+            checksum = new Checksum( encode( digestMD5 ), encode( digestSHA1 ), encode( digestSHA256 ) );
         }
         return checksum;
     }
+
+    private static String encode( final MessageDigest digest )
+    {
+        return digest == null ? null : Hex.encodeHexString( digest.digest() );
+    }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+/**
+ * Selects the HTTP engine {@link Offliner} uses to transfer files.
+ */
+public enum DownloadEngine
+{
+    /**
+     * Each transfer occupies a pooled thread for its whole duration, using the blocking HttpClient.
+     */
+    BLOCKING,
+
+    /**
+     * Transfers are driven by a handful of I/O reactor threads using the non-blocking HttpAsyncClient, so the number
+     * of downloads in flight is bounded by the connection pool rather than the thread pool. See
+     * {@link AsyncDownloader}.
+     */
+    ASYNC
+}
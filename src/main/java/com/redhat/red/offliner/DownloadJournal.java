@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the downloads into a single download directory, kept in {@link #JOURNAL_FILE} at its root.
+ * A line is appended when a download starts writing its part file, recording the validator (ETag or Last-Modified)
+ * of the response, and another when the file is complete, recording its size, modification time and the digests that
+ * were calculated for it, along with its validator again. When a run is restarted, the journal is replayed so that
+ * files it completed can be skipped by comparing size and modification time, without reading their content. Part
+ * files of downloads that started but never completed are kept, so they can be resumed with a range request
+ * conditional on the recorded validator. The validators of completed files let a later run revalidate them with a
+ * conditional request.
+ * <p>
+ * The journal is compacted every time it's opened, so it only grows with the number of files in the directory. Part
+ * files are swept at the same time: those the journal doesn't know about, and those that haven't been resumed for
+ * {@link #PART_TTL}, are deleted, along with the lines of parts that are gone.
+ */
+public class DownloadJournal
+        implements Closeable
+{
+    public static final String JOURNAL_FILE = ".offliner-journal";
+
+    static final String PART_SUFFIX = ".part";
+
+    private static final String START = "START";
+
+    private static final String DONE = "DONE";
+
+    private static final String NONE = "-";
+
+    /**
+     * How long a part file is kept for resuming after it was last written to.
+     */
+    static final long PART_TTL = TimeUnit.DAYS.toMillis( 7 );
+
+    /**
+     * How long a part file the journal doesn't know about is left alone, since another request may be about to start
+     * writing it.
+     */
+    static final long UNKNOWN_PART_AGE = TimeUnit.HOURS.toMillis( 1 );
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final File journalFile;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The validator fields of the part files that can be resumed, {@link #NONE} if the response had no validator.
+     */
+    private final Map<String, String> validators = new ConcurrentHashMap<>();
+
+    private Writer writer;
+
+    private DownloadJournal( final File journalFile )
+    {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Replay the journal in the given download directory (if there is one), sweep its stale part files, and open it
+     * for appending.
+     *
+     * @param downloadDir The download directory the journal belongs to
+     * @return The open journal
+     * @throws IOException In case the journal can't be read or written
+     */
+    public static DownloadJournal open( final File downloadDir )
+            throws IOException
+    {
+        downloadDir.mkdirs();
+
+        DownloadJournal journal = new DownloadJournal( new File( downloadDir, JOURNAL_FILE ) );
+        journal.replay();
+        journal.sweep( downloadDir );
+        journal.compact();
+        return journal;
+    }
+
+    /**
+     * Read the journal into {@link #entries} and {@link #validators}.
+     */
+    private void replay()
+            throws IOException
+    {
+        if ( !journalFile.exists() )
+        {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader( new FileInputStream( journalFile ), StandardCharsets.UTF_8 ) ))
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                String[] fields = line.split( "\t" );
+                if ( fields.length == 3 && START.equals( fields[0] ) )
+                {
+                    entries.remove( fields[1] );
+                    validators.remove( fields[1] );
+                    validators.put( fields[1], fields[2] );
+                }
+                else if ( fields.length == 8 && DONE.equals( fields[0] ) )
+                {
+                    try
+                    {
+                        entries.put( fields[1], new Entry( Long.parseLong( fields[2] ), Long.parseLong( fields[3] ),
+                                                           value( fields[4] ), value( fields[5] ),
+                                                           value( fields[6] ), value( fields[7] ) ) );
+                        validators.remove( fields[1] );
+                    }
+                    catch ( NumberFormatException e )
+                    {
+                        logger.debug( "Ignoring corrupt journal line: {}", line );
+                    }
+                }
+                else
+                {
+                    // most likely the last line of a run that was killed while writing it.
+                    logger.debug( "Ignoring corrupt journal line: {}", line );
+                }
+            }
+        }
+
+        logger.debug( "Replayed {} completed and {} resumable downloads from: {}", entries.size(),
+                      validators.size(), journalFile );
+    }
+
+    /**
+     * Delete the part files in the download directory that can't be resumed, and forget the ones that are gone.
+     */
+    private void sweep( final File downloadDir )
+            throws IOException
+    {
+        final long now = System.currentTimeMillis();
+        final Path root = downloadDir.toPath();
+        final Set<String> kept = new HashSet<>();
+        Files.walkFileTree( root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile( final Path file, final BasicFileAttributes attrs )
+            {
+                String relative = root.relativize( file ).toString().replace( File.separatorChar, '/' );
+                if ( !relative.endsWith( PART_SUFFIX ) )
+                {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                String path = relative.substring( 0, relative.length() - PART_SUFFIX.length() );
+                long age = now - attrs.lastModifiedTime().toMillis();
+                boolean known = validators.containsKey( path );
+                if ( known ? age < PART_TTL : age < UNKNOWN_PART_AGE )
+                {
+                    if ( known )
+                    {
+                        kept.add( path );
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                try
+                {
+                    Files.delete( file );
+                    logger.debug( "Deleted stale part file: {}", file );
+                }
+                catch ( IOException e )
+                {
+                    logger.debug( "Failed to delete stale part file: " + file, e );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed( final Path file, final IOException e )
+            {
+                logger.debug( "Cannot check for stale part files: " + file, e );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+
+        validators.keySet().retainAll( kept );
+    }
+
+    /**
+     * Rewrite the journal with just the completed entries and the validators of resumable ones, then leave it open
+     * for appending.
+     */
+    private void compact()
+            throws IOException
+    {
+        File compacted = new File( journalFile.getPath() + ".tmp" );
+        try (Writer out = newWriter( compacted, false ))
+        {
+            for ( Map.Entry<String, Entry> e : entries.entrySet() )
+            {
+                out.write( doneLine( e.getKey(), e.getValue() ) );
+            }
+            for ( Map.Entry<String, String> e : validators.entrySet() )
+            {
+                out.write( startLine( e.getKey(), value( e.getValue() ) ) );
+            }
+        }
+
+        if ( !compacted.renameTo( journalFile ) )
+        {
+            journalFile.delete();
+            if ( !compacted.renameTo( journalFile ) )
+            {
+                throw new IOException( "Cannot replace download journal: " + journalFile );
+            }
+        }
+
+        writer = newWriter( journalFile, true );
+    }
+
+    private static Writer newWriter( final File file, final boolean append )
+            throws IOException
+    {
+        return new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file, append ),
+                                                           StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Check whether the journal says the given target file was completed, and it hasn't changed since. If a checksum
+     * is given, it must also match one of the digests recorded for the file. The file content is never read.
+     *
+     * @param target The target file in the download directory
+     * @param path The path of the target file, relative to the download directory
+     * @param checksum The expected checksum of the file, or null
+     * @return true if the download of the file can be skipped
+     */
+    public boolean isVerified( final File target, final String path, final String checksum )
+    {
+        Entry entry = entries.get( path );
+        if ( entry == null || target.length() != entry.size || target.lastModified() != entry.lastModified )
+        {
+            return false;
+        }
+
+        return checksum == null || entry.matches( checksum );
+    }
+
+    /**
+     * @return the validator (ETag or Last-Modified) of the response a part file of the given path was started from,
+     * or null if it isn't known. A part file with a validator can be resumed using an If-Range request.
+     */
+    public String getValidator( final String path )
+    {
+        return value( validators.get( path ) );
+    }
+
+    /**
+     * @return the validator (ETag or Last-Modified) of the response the completed file of the given path was
+     * downloaded from, or null if it isn't known. It can be sent in a conditional request, to find out whether the
+     * file is still current without downloading it again.
+     */
+    public String getCompletedValidator( final String path )
+    {
+        Entry entry = entries.get( path );
+        return entry == null ? null : entry.validator;
+    }
+
+    /**
+     * Record that the download of the given path is starting from scratch, and its part file is about to be written.
+     *
+     * @param path The path of the target file, relative to the download directory
+     * @param validator The ETag or Last-Modified of the response, or null if the server didn't send one
+     */
+    public void started( final String path, final String validator )
+    {
+        entries.remove( path );
+        validators.put( path, field( validator ) );
+        append( startLine( path, validator ) );
+    }
+
+    /**
+     * Record that the given target file is complete and verified, along with any digests known for its content.
+     *
+     * @param target The target file in the download directory
+     * @param path The path of the target file, relative to the download directory
+     * @param md5 The MD5 of the file content, or null
+     * @param sha1 The SHA-1 of the file content, or null
+     * @param sha256 The SHA-256 of the file content, or null
+     */
+    public void completed( final File target, final String path, final String md5, final String sha1,
+                           final String sha256 )
+    {
+        completed( target, path, md5, sha1, sha256, null );
+    }
+
+    /**
+     * Record that the given target file is complete and verified, along with any digests known for its content and
+     * the validator of the response it was downloaded from.
+     *
+     * @param validator The ETag or Last-Modified of the response, or null if the server didn't send one
+     */
+    public void completed( final File target, final String path, final String md5, final String sha1,
+                           final String sha256, final String validator )
+    {
+        Entry entry = new Entry( target.length(), target.lastModified(), md5, sha1, sha256, validator );
+        entries.put( path, entry );
+        validators.remove( path );
+        append( doneLine( path, entry ) );
+    }
+
+    public void completed( final File target, final String path, final ChecksumOutputStream.Checksum checksum,
+                           final String validator )
+    {
+        completed( target, path, checksum.getMd5(), checksum.getSha1(), checksum.getSha256(), validator );
+    }
+
+    private synchronized void append( final String line )
+    {
+        if ( writer == null )
+        {
+            return;
+        }
+
+        try
+        {
+            writer.write( line );
+            // flush each line, so a killed run loses at most the line it was writing.
+            writer.flush();
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Failed to write to download journal: " + journalFile + ". Further updates are disabled.",
+                         e );
+            closeWriter();
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        closeWriter();
+    }
+
+    private void closeWriter()
+    {
+        if ( writer != null )
+        {
+            try
+            {
+                writer.close();
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "Failed to close download journal: " + journalFile, e );
+            }
+            writer = null;
+        }
+    }
+
+    private static String doneLine( final String path, final Entry entry )
+    {
+        return String.format( "%s\t%s\t%d\t%d\t%s\t%s\t%s\t%s\n", DONE, path, entry.size, entry.lastModified,
+                              field( entry.md5 ), field( entry.sha1 ), field( entry.sha256 ),
+                              field( entry.validator ) );
+    }
+
+    private static String startLine( final String path, final String validator )
+    {
+        return String.format( "%s\t%s\t%s\n", START, path, field( validator ) );
+    }
+
+    private static String field( final String value )
+    {
+        return value == null ? NONE : value;
+    }
+
+    private static String value( final String field )
+    {
+        return NONE.equals( field ) ? null : field;
+    }
+
+    private static final class Entry
+    {
+        private final long size;
+
+        private final long lastModified;
+
+        private final String md5;
+
+        private final String sha1;
+
+        private final String sha256;
+
+        private final String validator;
+
+        private Entry( final long size, final long lastModified, final String md5, final String sha1,
+                       final String sha256, final String validator )
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.md5 = md5;
+            this.sha1 = sha1;
+            this.sha256 = sha256;
+            this.validator = validator;
+        }
+
+        private boolean matches( final String checksum )
+        {
+            return checksum.equalsIgnoreCase( md5 ) || checksum.equalsIgnoreCase( sha1 )
+                    || checksum.equalsIgnoreCase( sha256 );
+        }
+    }
+}
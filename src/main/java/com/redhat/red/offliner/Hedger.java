@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Sends hedged requests for the blocking download engine: when a repository hasn't sent the response headers for a
+ * path within a percentile of the latency recently seen, the same path is also requested from the next repository.
+ * Whichever of the two answers with a 200 (or a 304, for a conditional request) first is used, and the other request
+ * is aborted. If neither does, the first repository's response is used, exactly as if the hedge had never been sent.
+ * <p>
+ * No hedge is sent until {@link #MIN_SAMPLES} responses have been timed, so the delay isn't guessed from a handful
+ * of them. Nor is one sent while the next repository has no free connection, or no free permit of the
+ * {@link AdaptiveLimiter}, so hedges stay within the limits set for it. Every download of the blocking engine sends
+ * its request through here, hedged or not, so the latency up to the response actually used can be
+ * {@link Stats#report() reported} the same way with hedging enabled and disabled, and the two compared.
+ */
+final class Hedger
+        implements Closeable
+{
+    static final int MIN_SAMPLES = 20;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final CloseableHttpClient client;
+
+    private final AdaptiveLimiter limiter;
+
+    private final Predicate<String> connectionAvailable;
+
+    private final ExecutorService executor;
+
+    private final LatencyTracker latency = new LatencyTracker();
+
+    /**
+     * @param limiter The limiter to take the permit of a hedge from, or null if concurrency isn't adaptive
+     * @param connectionAvailable Tells whether a request to the given repository would get a connection without
+     *                            waiting for one
+     * @param concurrency The most downloads that can send a request through here at the same time. Each of them runs
+     *                    at most two requests (the primary and its hedge) on this class's threads.
+     */
+    Hedger( final CloseableHttpClient client, final AdaptiveLimiter limiter,
+            final Predicate<String> connectionAvailable, final int concurrency )
+    {
+        this.client = client;
+        this.limiter = limiter;
+        this.connectionAvailable = connectionAvailable;
+        this.executor = Executors.newFixedThreadPool( 2 * Math.max( concurrency, 1 ), ( final Runnable r ) -> {
+            final Thread t = new Thread( r, "hedge" );
+            t.setDaemon( true );
+            return t;
+        } );
+    }
+
+    /**
+     * Send a request, hedging it with a second one if it's slow.
+     *
+     * @param primary The request to the first repository, with the permit it was sent under, if any
+     * @param hedge The same request to the next repository, or null if there is none to hedge with. Its permit is
+     *              taken here, if it's sent.
+     * @param cookieStore The cookies to send with either request
+     * @param percentile The percentile (0 to 100) of recent latency to wait for before sending the hedge
+     * @param stats The stats of the request the download is part of
+     * @return the response to use. If it's the hedge's, the primary request is {@link HttpGet#isAborted() aborted},
+     * and its permit released. Otherwise, the hedge's permit is. Either way, the permit of the attempt the response
+     * came from is left for the caller to report to and release.
+     */
+    CloseableHttpResponse execute( final Attempt primary, final Attempt hedge, final CookieStore cookieStore,
+                                   final double percentile, final Stats stats )
+            throws IOException, InterruptedException
+    {
+        final long start = System.nanoTime();
+        primary.sent = start;
+        // sorting the latency window to find the delay is only worth it if a hedge can actually be sent.
+        final long delay = hedge == null || latency.size() < MIN_SAMPLES ? -1 : latency.percentile( percentile );
+        if ( delay < 0 )
+        {
+            CloseableHttpResponse response = send( primary, cookieStore );
+            stats.responses.record( System.nanoTime() - start );
+            return response;
+        }
+
+        final CompletableFuture<CloseableHttpResponse> first =
+                CompletableFuture.supplyAsync( () -> sendUnchecked( primary, cookieStore ), executor );
+        try
+        {
+            CloseableHttpResponse response = first.get( delay, TimeUnit.NANOSECONDS );
+            stats.responses.record( System.nanoTime() - start );
+            return response;
+        }
+        catch ( TimeoutException e )
+        {
+            // hedge, if there is room for it.
+        }
+        catch ( ExecutionException e )
+        {
+            throw unwrap( e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            abort( primary.request, first );
+            throw e;
+        }
+
+        if ( !acquire( hedge ) )
+        {
+            logger.debug( "No response from: {} after {}ms, but no connection is free to hedge with: {}",
+                          primary.request.getURI(), TimeUnit.NANOSECONDS.toMillis( delay ), hedge.request.getURI() );
+            try
+            {
+                CloseableHttpResponse response = first.get();
+                stats.responses.record( System.nanoTime() - start );
+                return response;
+            }
+            catch ( ExecutionException e )
+            {
+                throw unwrap( e.getCause() );
+            }
+            catch ( InterruptedException e )
+            {
+                abort( primary.request, first );
+                throw e;
+            }
+        }
+
+        logger.debug( "No response from: {} after {}ms. Hedging with: {}", primary.request.getURI(),
+                      TimeUnit.NANOSECONDS.toMillis( delay ), hedge.request.getURI() );
+        stats.hedges.incrementAndGet();
+        hedge.sent = System.nanoTime();
+        final CompletableFuture<CloseableHttpResponse> second =
+                CompletableFuture.supplyAsync( () -> sendUnchecked( hedge, cookieStore ), executor );
+
+        final BlockingQueue<CompletableFuture<CloseableHttpResponse>> done = new ArrayBlockingQueue<>( 2 );
+        first.whenComplete( ( response, error ) -> done.add( first ) );
+        second.whenComplete( ( response, error ) -> done.add( second ) );
+
+        try
+        {
+            for ( int i = 0; i < 2; i++ )
+            {
+                CompletableFuture<CloseableHttpResponse> next = done.take();
+                if ( !next.isCompletedExceptionally() && isUsable( next.join() ) )
+                {
+                    stats.responses.record( System.nanoTime() - start );
+                    if ( next == second )
+                    {
+                        logger.debug( "<<<Hedge won: {}", hedge.request.getURI() );
+                        stats.hedgesWon.incrementAndGet();
+                        lose( primary, first );
+                    }
+                    else
+                    {
+                        lose( hedge, second );
+                    }
+                    return next.join();
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            abort( primary.request, first );
+            lose( hedge, second );
+            throw e;
+        }
+
+        // neither is usable, so carry on with the first repository's outcome, as if there had been no hedge.
+        lose( hedge, second );
+        stats.responses.record( System.nanoTime() - start );
+        try
+        {
+            return first.join();
+        }
+        catch ( CompletionException e )
+        {
+            throw unwrap( e.getCause() );
+        }
+    }
+
+    /**
+     * Take what the hedge needs to be sent without waiting: a free connection to its repository and, with adaptive
+     * concurrency, a permit.
+     *
+     * @return false if the hedge shouldn't be sent
+     */
+    private boolean acquire( final Attempt hedge )
+    {
+        if ( !connectionAvailable.test( hedge.baseUrl ) )
+        {
+            return false;
+        }
+        if ( limiter != null )
+        {
+            hedge.permit = limiter.tryAcquire( hedge.baseUrl );
+            return hedge.permit != null;
+        }
+        return true;
+    }
+
+    private static boolean isUsable( final CloseableHttpResponse response )
+    {
+        int statusCode = response.getStatusLine().getStatusCode();
+        return statusCode == 200 || statusCode == 304;
+    }
+
+    private CloseableHttpResponse send( final Attempt attempt, final CookieStore cookieStore )
+            throws IOException
+    {
+        final HttpClientContext context = new HttpClientContext();
+        context.setCookieStore( cookieStore );
+
+        final long sent = System.nanoTime();
+        CloseableHttpResponse response = client.execute( attempt.request, context );
+        attempt.headers = System.nanoTime();
+        latency.record( attempt.headers - sent );
+        return response;
+    }
+
+    private CloseableHttpResponse sendUnchecked( final Attempt attempt, final CookieStore cookieStore )
+    {
+        try
+        {
+            return send( attempt, cookieStore );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Abort an attempt that lost the race, telling its permit (if it has one) how far the request got before
+     * releasing it.
+     */
+    private static void lose( final Attempt loser, final CompletableFuture<CloseableHttpResponse> future )
+    {
+        final AdaptiveLimiter.Permit permit = loser.permit;
+        if ( permit != null )
+        {
+            if ( !future.isDone() )
+            {
+                permit.onAbandoned( System.nanoTime() - loser.sent );
+            }
+            else if ( future.isCompletedExceptionally() )
+            {
+                future.whenComplete( ( response, error ) -> permit.onFailure( cause( error ) ) );
+            }
+            else
+            {
+                permit.onResponse( future.join().getStatusLine().getStatusCode(), loser.headers - loser.sent );
+            }
+            permit.release();
+        }
+        abort( loser.request, future );
+    }
+
+    /**
+     * Abort a request that lost the race, and close its response if it's already arrived (or arrives anyway).
+     */
+    private static void abort( final HttpGet request, final CompletableFuture<CloseableHttpResponse> future )
+    {
+        request.abort();
+        future.thenAccept( IOUtils::closeQuietly );
+    }
+
+    private static Throwable cause( final Throwable error )
+    {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof UncheckedIOException ? cause.getCause() : cause;
+    }
+
+    private static IOException unwrap( final Throwable cause )
+    {
+        if ( cause instanceof UncheckedIOException )
+        {
+            return ( (UncheckedIOException) cause ).getCause();
+        }
+        if ( cause instanceof IOException )
+        {
+            return (IOException) cause;
+        }
+        if ( cause instanceof RuntimeException )
+        {
+            throw (RuntimeException) cause;
+        }
+        return new InterruptedIOException( String.valueOf( cause ) );
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A request to one repository, and the permit it's sent under, if any.
+     */
+    static final class Attempt
+    {
+        private final HttpGet request;
+
+        private final String baseUrl;
+
+        private AdaptiveLimiter.Permit permit;
+
+        private long sent;
+
+        private long headers;
+
+        Attempt( final HttpGet request, final String baseUrl, final AdaptiveLimiter.Permit permit )
+        {
+            this.request = request;
+            this.baseUrl = baseUrl;
+            this.permit = permit;
+        }
+
+        AdaptiveLimiter.Permit getPermit()
+        {
+            return permit;
+        }
+
+        /**
+         * @return the time ({@link System#nanoTime()}) the request was sent
+         */
+        long getSent()
+        {
+            return sent;
+        }
+    }
+
+    /**
+     * The hedging of a single {@link Offliner} request: the latency up to the response used by each of its download
+     * attempts, and how many hedges were sent and won.
+     */
+    static final class Stats
+    {
+        private final LatencyTracker responses = new LatencyTracker();
+
+        private final AtomicInteger hedges = new AtomicInteger();
+
+        private final AtomicInteger hedgesWon = new AtomicInteger();
+
+        int getHedges()
+        {
+            return hedges.get();
+        }
+
+        int getHedgesWon()
+        {
+            return hedgesWon.get();
+        }
+
+        /**
+         * @return true if any response has been timed yet
+         */
+        boolean isUsed()
+        {
+            return responses.size() > 0;
+        }
+
+        /**
+         * @return the latency up to the response used by each download attempt, and how many hedges were sent and
+         * won, for logging
+         */
+        String report()
+        {
+            return String.format( "Response latency: %s. Hedges sent: %d, won: %d", responses.summary(), getHedges(),
+                                  getHedgesWon() );
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent {@link #SAMPLES} latency samples, to estimate percentiles of the current latency. Older
+ * samples are overwritten, so the estimates follow changes in how the repositories respond.
+ * <p>
+ * This class is thread-safe.
+ */
+final class LatencyTracker
+{
+    static final int SAMPLES = 1024;
+
+    private final long[] samples = new long[SAMPLES];
+
+    private long count;
+
+    synchronized void record( final long latencyNanos )
+    {
+        samples[(int) ( count++ % SAMPLES )] = latencyNanos;
+    }
+
+    /**
+     * @return the number of samples the estimates are based on, at most {@link #SAMPLES}
+     */
+    synchronized int size()
+    {
+        return (int) Math.min( count, SAMPLES );
+    }
+
+    /**
+     * @param percentile The percentile (0 to 100) to estimate
+     * @return the latency (in nanoseconds) that the given percentile of the samples doesn't exceed, or -1 if there
+     * are no samples yet
+     */
+    long percentile( final double percentile )
+    {
+        long[] sorted;
+        synchronized ( this )
+        {
+            sorted = Arrays.copyOf( samples, size() );
+        }
+
+        if ( sorted.length == 0 )
+        {
+            return -1;
+        }
+
+        Arrays.sort( sorted );
+        int rank = (int) Math.ceil( Math.min( 100, Math.max( 0, percentile ) ) / 100 * sorted.length );
+        return sorted[Math.max( 0, rank - 1 )];
+    }
+
+    /**
+     * @return the same as {@link #percentile(double)}, rounded to milliseconds
+     */
+    long percentileMillis( final double percentile )
+    {
+        long nanos = percentile( percentile );
+        return nanos < 0 ? nanos : Math.round( nanos / Offliner.NANOS_PER_MILLISECOND );
+    }
+
+    /**
+     * @return the median, 95th and 99th percentiles in milliseconds, for logging
+     */
+    String summary()
+    {
+        return String.format( "p50=%dms p95=%dms p99=%dms (%d samples)", percentileMillis( 50 ),
+                              percentileMillis( 95 ), percentileMillis( 99 ), size() );
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An {@link IOException} reading or writing a local file (a part file, most of all) rather than talking to a
+ * repository. It says nothing about the health of the repository the content came from, so it isn't counted against
+ * it by the {@link RepositoryScoreboard} or the {@link AdaptiveLimiter}.
+ */
+final class LocalFileException
+        extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    LocalFileException( final File file, final IOException cause )
+    {
+        super( "Cannot access local file: " + file + ". Reason: " + cause.getMessage(), cause );
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers which repositories returned 404 for which parts of the Maven layout, so later lookups of paths under the
+ * same prefix try the repositories that may have them first, instead of paying a round trip for each one that
+ * doesn't. Misses are counted per repository for two prefixes of each path:
+ * <ul>
+ *     <li>the GAV directory (e.g. <code>org/foo/bar/1.0</code>), which is known to be missing from a repository after
+ *     {@link #GAV_MISSES} different paths under it were not found there;</li>
+ *     <li>the GA directory (e.g. <code>org/foo/bar</code>), which is known to be missing after {@link #GA_MISSES}
+ *     different GAVs under it were.</li>
+ * </ul>
+ * Each miss is counted once, however many times (or how concurrently) it happens: an artifact and its checksum files
+ * are a single miss of their GAV, and a GAV a single miss of its GA. Finding any path under a prefix in a repository
+ * forgets the misses recorded for it. Entries expire after a TTL, and can be kept in a file between runs. Expired
+ * entries are dropped when they're looked up, and swept every {@link #SWEEP_INTERVAL} misses and on every save, so a
+ * long-running daemon doesn't keep them forever.
+ * <p>
+ * Repositories are only ever reordered, never skipped, so a wrong guess costs priority between repositories but not
+ * correctness. This class is thread-safe.
+ */
+final class NegativeLookupCache
+{
+    static final int GAV_MISSES = 2;
+
+    static final int GA_MISSES = 3;
+
+    static final int SWEEP_INTERVAL = 4096;
+
+    private static final String SEPARATOR = "\t";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final long ttlMillis;
+
+    private final LongSupplier clock;
+
+    private final AtomicInteger missesSinceSweep = new AtomicInteger();
+
+    NegativeLookupCache( final long ttlMillis )
+    {
+        this( ttlMillis, System::currentTimeMillis );
+    }
+
+    NegativeLookupCache( final long ttlMillis, final LongSupplier clock )
+    {
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the given repositories, with the ones known to be missing the path's GAV or GA moved to the end (in
+     * their original order)
+     */
+    List<String> order( final List<String> baseUrls, final String path )
+    {
+        String gav = gavOf( path );
+        if ( gav == null || baseUrls.size() < 2 )
+        {
+            return baseUrls;
+        }
+
+        String ga = parentOf( gav );
+        List<String> likely = new ArrayList<>( baseUrls.size() );
+        List<String> unlikely = new ArrayList<>( baseUrls.size() );
+        for ( String baseUrl : baseUrls )
+        {
+            if ( isMissing( baseUrl, gav, GAV_MISSES ) || ( ga != null && isMissing( baseUrl, ga, GA_MISSES ) ) )
+            {
+                unlikely.add( baseUrl );
+            }
+            else
+            {
+                likely.add( baseUrl );
+            }
+        }
+
+        if ( unlikely.isEmpty() || likely.isEmpty() )
+        {
+            return baseUrls;
+        }
+
+        logger.debug( "Trying {} last for: {}", unlikely, path );
+        likely.addAll( unlikely );
+        return likely;
+    }
+
+    /**
+     * Record that the repository returned 404 for the path.
+     */
+    void missed( final String baseUrl, final String path )
+    {
+        String gav = gavOf( path );
+        if ( gav == null )
+        {
+            return;
+        }
+
+        long expires = clock.getAsLong() + ttlMillis;
+        Entry gavEntry = miss( key( baseUrl, gav ), fileOf( path ), expires, GAV_MISSES );
+
+        String ga = parentOf( gav );
+        if ( ga != null && gavEntry.misses >= GAV_MISSES )
+        {
+            // the GAV is missing now, which counts as one miss for its GA.
+            miss( key( baseUrl, ga ), gav, expires, GA_MISSES );
+        }
+
+        if ( missesSinceSweep.incrementAndGet() >= SWEEP_INTERVAL )
+        {
+            missesSinceSweep.set( 0 );
+            sweep();
+        }
+    }
+
+    private Entry miss( final String key, final String what, final long expires, final int threshold )
+    {
+        return entries.compute( key, ( k, e ) -> e == null || e.isExpired( clock ) ?
+                new Entry( 1, expires, Collections.singleton( what ) ) :
+                e.miss( what, expires, threshold ) );
+    }
+
+    /**
+     * Drop every expired entry.
+     */
+    void sweep()
+    {
+        entries.values().removeIf( ( entry ) -> entry.isExpired( clock ) );
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Record that the repository had the path, which clears the misses of its prefixes.
+     */
+    void found( final String baseUrl, final String path )
+    {
+        String gav = gavOf( path );
+        if ( gav == null )
+        {
+            return;
+        }
+
+        entries.remove( key( baseUrl, gav ) );
+        String ga = parentOf( gav );
+        if ( ga != null )
+        {
+            entries.remove( key( baseUrl, ga ) );
+        }
+    }
+
+    private boolean isMissing( final String baseUrl, final String prefix, final int threshold )
+    {
+        String key = key( baseUrl, prefix );
+        Entry entry = entries.get( key );
+        if ( entry != null && entry.isExpired( clock ) )
+        {
+            // unless it was replaced in the meantime.
+            entries.remove( key, entry );
+            return false;
+        }
+        return entry != null && entry.misses >= threshold;
+    }
+
+    /**
+     * Replace the cache contents with the unexpired entries of the given file, if it exists.
+     */
+    void load( final File file )
+            throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return;
+        }
+
+        entries.clear();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader( new FileInputStream( file ), StandardCharsets.UTF_8 ) ))
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                String[] fields = line.split( SEPARATOR );
+                if ( fields.length != 4 )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    // what missed isn't saved, so misses repeated after loading may be counted again.
+                    Entry entry = new Entry( Integer.parseInt( fields[2] ), Long.parseLong( fields[3] ),
+                                             Collections.emptySet() );
+                    if ( !entry.isExpired( clock ) )
+                    {
+                        entries.put( key( fields[0], fields[1] ), entry );
+                    }
+                }
+                catch ( NumberFormatException e )
+                {
+                    logger.debug( "Ignoring corrupt negative cache line: {}", line );
+                }
+            }
+        }
+        logger.debug( "Loaded {} negative lookups from: {}", entries.size(), file );
+    }
+
+    /**
+     * Write the unexpired entries to the given file, replacing it.
+     */
+    synchronized void save( final File file )
+            throws IOException
+    {
+        sweep();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = new File( dir, file.getName() + ".tmp" );
+        try (Writer out = new OutputStreamWriter( new FileOutputStream( tmp ), StandardCharsets.UTF_8 ))
+        {
+            for ( Map.Entry<String, Entry> e : entries.entrySet() )
+            {
+                Entry entry = e.getValue();
+                if ( !entry.isExpired( clock ) )
+                {
+                    out.write( e.getKey() + SEPARATOR + entry.misses + SEPARATOR + entry.expires + "\n" );
+                }
+            }
+        }
+
+        if ( !tmp.renameTo( file ) )
+        {
+            file.delete();
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Cannot replace negative lookup cache: " + file );
+            }
+        }
+    }
+
+    private static String key( final String baseUrl, final String prefix )
+    {
+        return baseUrl + SEPARATOR + prefix;
+    }
+
+    /**
+     * @return the directory of the path, which is its GAV in the Maven layout, or null if it's too shallow to be one
+     */
+    private static String gavOf( final String path )
+    {
+        String trimmed = path.startsWith( "/" ) ? path.substring( 1 ) : path;
+        String dir = parentOf( trimmed );
+        // group, artifact and version need at least three levels.
+        return dir == null || dir.chars().filter( ( c ) -> c == '/' ).count() < 2 ? null : dir;
+    }
+
+    private static String parentOf( final String path )
+    {
+        int idx = path.lastIndexOf( '/' );
+        return idx > 0 ? path.substring( 0, idx ) : null;
+    }
+
+    /**
+     * @return the artifact file a path belongs to, so that an artifact and its checksum files count as a single miss
+     */
+    private static String fileOf( final String path )
+    {
+        return OfflinerUtils.isChecksumPath( path ) ?
+                path.substring( 0, path.lastIndexOf( '.' ) ) :
+                path;
+    }
+
+    private static final class Entry
+    {
+        private final int misses;
+
+        private final long expires;
+
+        /**
+         * The distinct things (artifact files under a GAV, or GAVs under a GA) that missed, so each is counted once
+         * however many times it misses. It stops growing at the threshold, where the count no longer matters.
+         */
+        private final Set<String> missed;
+
+        private Entry( final int misses, final long expires, final Set<String> missed )
+        {
+            this.misses = misses;
+            this.expires = expires;
+            this.missed = missed;
+        }
+
+        private Entry miss( final String what, final long expires, final int threshold )
+        {
+            if ( missed.contains( what ) )
+            {
+                return this;
+            }
+            if ( misses >= threshold )
+            {
+                return new Entry( misses, expires, missed );
+            }
+
+            Set<String> next = new HashSet<>( missed );
+            next.add( what );
+            return new Entry( misses + 1, expires, next );
+        }
+
+        private boolean isExpired( final LongSupplier clock )
+        {
+            return clock.getAsLong() >= expires;
+        }
+    }
+}
@@ -17,58 +17,91 @@ package com.redhat.red.offliner;
 
 import com.redhat.red.offliner.alist.PlaintextArtifactListReader;
 import com.redhat.red.offliner.model.DownloadResult;
+import com.redhat.red.offliner.model.PathIndex;
 import com.redhat.red.offliner.util.UrlUtils;
 import com.redhat.red.offliner.alist.ArtifactListReader;
 import com.redhat.red.offliner.alist.FoloReportArtifactListReader;
 import com.redhat.red.offliner.alist.PomArtifactListReader;
+import com.redhat.red.offliner.alist.io.ManifestCompression;
 import com.redhat.red.offliner.model.ArtifactList;
+import com.redhat.red.offliner.model.ArtifactListStream;
 import io.honeycomb.beeline.DefaultBeeline;
 import io.honeycomb.beeline.tracing.Span;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.NoHttpResponseException;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.routing.HttpRoutePlanner;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
 import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.redhat.red.offliner.OfflinerUtils.*;
-import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
-import static org.apache.commons.lang.StringUtils.isBlank;
 
 /**
  * Entry point to Offliner, this class is responsible for orchestrating the entire process.
+ * <p>
+ * An Offliner is a long-lived service: its connection pool, threads and artifact list readers are shared by every
+ * {@link #copyOffline(OfflinerRequest, DefaultBeeline, Span)} call until it is {@link #close() closed}. It is
+ * thread-safe, and requests running at the same time each get a fair share of the download engine, with their own
+ * {@link OfflinerResult}. Concurrent requests should use different download directories.
  */
 public class Offliner
     implements AutoCloseable
@@ -87,37 +120,132 @@ public class Offliner
 
     public static final String HONEYCOMB_WRITE_KEY = "honeycomb.write.key";
 
-    private static final int CONNECTION_REQUEST_TIMEOUT = 30 * 1000; // 30s
+    static final int CONNECTION_REQUEST_TIMEOUT = 30 * 1000; // 30s
 
-    private static final int CONNECTION_TIMEOUT = 60 * 1000; // 60s
+    static final int CONNECTION_TIMEOUT = 60 * 1000; // 60s
 
-    private static final int SOCKET_TIMEOUT = 10 * 60 * 1000; // 10 minutes
+    static final int SOCKET_TIMEOUT = 10 * 60 * 1000; // 10 minutes
+
+    /**
+     * How many times a request is sent again after the connection failed without a response, or timed out.
+     */
+    static final int MAX_RETRIES = 3;
+
+    private static final int MAX_RESUME_ATTEMPTS = 3;
 
     private String proxyHost;
 
     private int proxyPort = 8080;
 
+    private HttpHost proxyHttpHost;
+
     private CloseableHttpClient client;
 
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private AsyncDownloader asyncDownloader;
+
+    private SegmentedDownloader segmentedDownloader;
+
+    private ChannelCopier channelCopier;
+
+    /**
+     * Adapts the concurrent requests to each repository, if {@link OfflinerConfig#isAdaptiveConcurrency()}.
+     */
+    private AdaptiveLimiter adaptiveLimiter;
+
+    private final NegativeLookupCache negativeCache;
+
+    /**
+     * The connection limits of the requests running right now, by route. It also guards {@link #repoLimits}.
+     */
+    private final SharedLimits<HttpRoute> routeLimits = new SharedLimits<>();
+
+    private final SharedLimits<String> repoLimits = new SharedLimits<>();
+
+    private final int defaultMaxPerRoute;
+
+    private final Hedger hedger;
+
+    private final RepositoryScoreboard scoreboard = new RepositoryScoreboard();
+
+    private final File negativeCacheFile;
+
+    private final PartFiles partFiles = new PartFiles();
+
+    /**
+     * Number of {@link #copyOffline(OfflinerRequest, DefaultBeeline, Span)} calls currently downloading, which share
+     * the {@link #submissionWindow} evenly.
+     */
+    private final AtomicInteger activeRequests = new AtomicInteger();
+
     private ExecutorService executorService;
 
+    /**
+     * Bounds the number of concurrent downloads when running on virtual threads, where the executor itself doesn't.
+     */
+    private Semaphore downloadPermits;
+
     private List<ArtifactListReader> artifactListReaders;
 
+    /**
+     * Opens the artifact-list files of a request concurrently, so slow readers don't hold up the downloads of lists
+     * that are ready. See {@link DownloadFeeder}.
+     */
+    private final ExecutorService artifactListExecutor = Executors.newCachedThreadPool( ( final Runnable r ) -> {
+        final Thread t = new Thread( r );
+        t.setDaemon( true );
+
+        return t;
+    } );
+
+    /**
+     * Maximum number of downloads submitted to the engine but not yet taken from the completion queue.
+     */
+    private int submissionWindow;
+
+    /**
+     * The most downloads any single request has had outstanding at once.
+     */
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
     public Offliner( final OfflinerConfig config )
     {
-        int threads = config.getThreads();
-        executorService = Executors.newFixedThreadPool( threads, ( final Runnable r ) -> {
-            //        executorService = Executors.newCachedThreadPool( ( final Runnable r ) -> {
-            final Thread t = new Thread( r );
-            t.setDaemon( true );
+        if ( config.isVirtualThreads() )
+        {
+            executorService = newVirtualThreadExecutor();
+            if ( executorService != null )
+            {
+                downloadPermits = new Semaphore( config.getConnections() );
+            }
+            else
+            {
+                logger.warn( "Virtual threads are not supported by this JVM (Java 21+ required). Falling back to a "
+                                     + "fixed thread pool." );
+            }
+        }
 
-            return t;
-        } );
+        if ( executorService == null )
+        {
+            int threads = config.getThreads();
+            executorService = Executors.newFixedThreadPool( threads, ( final Runnable r ) -> {
+                //        executorService = Executors.newCachedThreadPool( ( final Runnable r ) -> {
+                final Thread t = new Thread( r );
+                t.setDaemon( true );
+
+                return t;
+            } );
+        }
 
         final PoolingHttpClientConnectionManager ccm = new PoolingHttpClientConnectionManager();
         ccm.setMaxTotal( config.getConnections() );
+        // the default of 2 per route would serialize all downloads from a repository on two sockets. Requests can
+        // lower this per repository; see OfflinerRequest.getRepoConnectionLimits().
+        ccm.setDefaultMaxPerRoute( config.getConnections() );
+        defaultMaxPerRoute = config.getConnections();
+        connectionManager = ccm;
 
         RequestConfig rc = RequestConfig.custom()
                 .setConnectionRequestTimeout( CONNECTION_REQUEST_TIMEOUT )
@@ -128,7 +256,7 @@ public class Offliner
         final HttpClientBuilder builder = HttpClients.custom().setConnectionManager( ccm ).setDefaultRequestConfig( rc )
                 .setRetryHandler( ( exception, executionCount, context ) ->
                         {
-                            if ( executionCount > 3 ) {
+                            if ( executionCount > MAX_RETRIES ) {
                                 return false;
                             }
                             if ( exception instanceof NoHttpResponseException ) {
@@ -158,13 +286,62 @@ public class Offliner
                 proxyHost = proxy.substring( 0, portSep );
                 proxyPort = Integer.parseInt( proxy.substring( portSep + 1 ) );
             }
-            final HttpRoutePlanner planner = new DefaultProxyRoutePlanner( new HttpHost( proxyHost, proxyPort ) );
+            proxyHttpHost = new HttpHost( proxyHost, proxyPort );
+            final HttpRoutePlanner planner = new DefaultProxyRoutePlanner( proxyHttpHost );
 
             builder.setRoutePlanner( planner );
         }
 
         client = builder.build();
 
+        negativeCache = new NegativeLookupCache( config.getNegativeCacheTtl() );
+        negativeCacheFile = config.getNegativeCacheFile();
+        if ( negativeCacheFile != null )
+        {
+            try
+            {
+                negativeCache.load( negativeCacheFile );
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Cannot read negative lookup cache: " + negativeCacheFile + ". Starting empty.", e );
+            }
+        }
+
+        if ( config.isAdaptiveConcurrency() )
+        {
+            adaptiveLimiter = new AdaptiveLimiter( config.getConnections() );
+        }
+
+        // queue enough downloads to keep every thread (or connection, if threads aren't the limit) busy, but no more.
+        int concurrency = config.getDownloadEngine() == DownloadEngine.ASYNC || downloadPermits != null ?
+                config.getConnections() :
+                config.getThreads();
+        submissionWindow = 2 * Math.max( concurrency, 1 );
+        hedger = new Hedger( client, adaptiveLimiter, this::isConnectionAvailable, concurrency );
+
+        // every segment of every download may be copying at the same time, and verifications take one buffer each.
+        int segments = config.getDownloadEngine() != DownloadEngine.ASYNC && config.getSegments() > 1
+                && config.getSegmentThreshold() > 0 ? config.getSegments() : 1;
+        BufferPool bufferPool = new BufferPool( config.getBufferSize(), Math.max( concurrency, 1 ) * segments );
+        channelCopier = new ChannelCopier( bufferPool );
+
+        if ( config.getDownloadEngine() == DownloadEngine.ASYNC )
+        {
+            if ( config.getSegments() > 1 )
+            {
+                logger.warn( "The ASYNC download engine does not download in segments. Ignoring --segments." );
+            }
+            asyncDownloader =
+                    new AsyncDownloader( config, proxyHttpHost, partFiles, adaptiveLimiter, negativeCache );
+        }
+        else if ( segments > 1 )
+        {
+            segmentedDownloader =
+                    new SegmentedDownloader( client, config.getSegmentThreshold(), segments, concurrency,
+                                             channelCopier );
+        }
+
         artifactListReaders = new ArrayList<>();
         artifactListReaders.add( new FoloReportArtifactListReader() );
         artifactListReaders.add( new PlaintextArtifactListReader() );
@@ -172,10 +349,174 @@ public class Offliner
     }
 
     /**
-     * Calls {@link #download(ArtifactList, OfflinerRequest, Set, ExecutorCompletionService, DefaultBeeline)} for each input location,
-     * which spawns a bunch of new {@link Callable} instances, each responsible for downloading a single file, then
-     * returns the number of new Callables added. Then, this method retrieves the next completed download from the
-     * {@link ExecutorCompletionService} that manages the download tasks, logging results and iterating until all
+     * Cap the connections the pools will open to each repository the request has a limit for, until
+     * {@link #releaseConnectionLimits(OfflinerRequest)}. The limits are set on the route, so they are shared by every
+     * request using the same repository host while it runs, and the lowest one wins.
+     */
+    private void applyConnectionLimits( final OfflinerRequest request )
+    {
+        synchronized ( routeLimits )
+        {
+            request.getRepoConnectionLimits().forEach( ( repoUrl, limit ) -> {
+                setConnectionLimits( repoUrl, routeLimits.add( routeFor( repoUrl, proxyHttpHost ), limit ),
+                                     repoLimits.add( repoUrl, limit ) );
+            } );
+        }
+    }
+
+    /**
+     * Lift the limits of a finished request, going back to those of any other request still running with limits for
+     * the same repositories, or to the defaults of the pools.
+     */
+    private void releaseConnectionLimits( final OfflinerRequest request )
+    {
+        synchronized ( routeLimits )
+        {
+            request.getRepoConnectionLimits().forEach( ( repoUrl, limit ) -> {
+                setConnectionLimits( repoUrl, routeLimits.remove( routeFor( repoUrl, proxyHttpHost ), limit ),
+                                     repoLimits.remove( repoUrl, limit ) );
+            } );
+        }
+    }
+
+    /**
+     * @param routeLimit The most connections to the repository's route, or -1 for the pools' default
+     * @param repoLimit The most concurrent requests to the repository itself, or -1 for the adaptive limiter's default
+     */
+    private void setConnectionLimits( final String repoUrl, final int routeLimit, final int repoLimit )
+    {
+        HttpRoute route = routeFor( repoUrl, proxyHttpHost );
+        int max = routeLimit < 0 ? defaultMaxPerRoute : routeLimit;
+        logger.debug( "Limiting connections for {} to: {}", route, max );
+        connectionManager.setMaxPerRoute( route, max );
+        if ( asyncDownloader != null )
+        {
+            asyncDownloader.setMaxPerRoute( route, max );
+        }
+        if ( adaptiveLimiter != null )
+        {
+            adaptiveLimiter.setMaxLimit( repoUrl, repoLimit < 0 ? Integer.MAX_VALUE : repoLimit );
+        }
+    }
+
+    /**
+     * @return the route connections to the given repository URL are pooled under, matching the one the
+     * {@link org.apache.http.impl.conn.DefaultRoutePlanner} (or proxy route planner) would choose
+     */
+    static HttpRoute routeFor( final String repoUrl, final HttpHost proxy )
+    {
+        URI uri = URI.create( repoUrl );
+        HttpHost target = new HttpHost( uri.getHost(), uri.getPort(), uri.getScheme() );
+        if ( target.getPort() < 0 )
+        {
+            try
+            {
+                target = new HttpHost( target.getHostName(),
+                                       DefaultSchemePortResolver.INSTANCE.resolve( target ),
+                                       target.getSchemeName() );
+            }
+            catch ( UnsupportedSchemeException e )
+            {
+                throw new IllegalArgumentException( "Unsupported repository URL: " + repoUrl, e );
+            }
+        }
+
+        boolean secure = "https".equalsIgnoreCase( target.getSchemeName() );
+        return proxy == null ? new HttpRoute( target, null, secure ) : new HttpRoute( target, null, proxy, secure );
+    }
+
+    private void saveNegativeCache()
+    {
+        if ( negativeCacheFile != null )
+        {
+            try
+            {
+                negativeCache.save( negativeCacheFile );
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Cannot write negative lookup cache: " + negativeCacheFile, e );
+            }
+        }
+    }
+
+    /**
+     * @return the current concurrency limit of each repository, or an empty Map if the concurrency isn't adaptive
+     */
+    public Map<String, Integer> getConcurrencyLimits()
+    {
+        return adaptiveLimiter == null ? Collections.emptyMap() : adaptiveLimiter.getLimits();
+    }
+
+    /**
+     * @return the most downloads that requests can have submitted to the download engine but not yet completed, all
+     * together
+     */
+    public int getSubmissionWindow()
+    {
+        return submissionWindow;
+    }
+
+    /**
+     * @return the most downloads any single request has had submitted but not yet completed at once, so far. It never
+     * exceeds the {@link #getSubmissionWindow() submission window}.
+     */
+    public int getMaxOutstanding()
+    {
+        return maxOutstanding.get();
+    }
+
+    /**
+     * @return the leased, pending and available connections, and the maximum, of each route in the connection pools.
+     * Routes used by both the blocking and the asynchronous pool have their stats added up.
+     */
+    public Map<HttpRoute, PoolStats> getRouteStats()
+    {
+        Map<HttpRoute, PoolStats> stats = new LinkedHashMap<>();
+        connectionManager.getRoutes().forEach( ( route ) -> stats.put( route, connectionManager.getStats( route ) ) );
+        if ( asyncDownloader != null )
+        {
+            asyncDownloader.getRouteStats().forEach( ( route, async ) -> stats.merge(
+                    route, async, ( a, b ) -> new PoolStats( a.getLeased() + b.getLeased(),
+                                                             a.getPending() + b.getPending(),
+                                                             a.getAvailable() + b.getAvailable(),
+                                                             a.getMax() + b.getMax() ) ) );
+        }
+        return stats;
+    }
+
+    /**
+     * @return true if downloads run on virtual threads. If {@link OfflinerConfig#isVirtualThreads()} is set but the
+     * JVM doesn't support them, they run on a fixed thread pool instead, and this is false.
+     */
+    public boolean isVirtualThreads()
+    {
+        return downloadPermits != null;
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for each task. This is looked up reflectively, since we
+     * still build for Java 8.
+     * @return The executor, or null if the running JVM doesn't support virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+            return (ExecutorService) factory.invoke( null );
+        }
+        catch ( ReflectiveOperationException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Reads each input location into an {@link ArtifactList}, then feeds the paths from those lists to the download
+     * engine through a {@link DownloadFeeder}, which keeps at most this request's share of the
+     * {@link #submissionWindow} outstanding.
+     * Each time a download completes, this method logs its result and submits the next path, iterating until all
      * downloads are complete. Finally, this method orchestrates metadata generation based on the contents of the
      * target directory (including files that were there before the download began), stats reporting.
      *
@@ -184,50 +525,87 @@ public class Offliner
      */
     public OfflinerResult copyOffline( OfflinerRequest request, DefaultBeeline beeline, Span rootSpan )
             throws IOException, OfflinerException, ExecutionException, InterruptedException
+    {
+        return copyOffline( request, beeline, rootSpan, new OfflinerResult( request ) );
+    }
+
+    /**
+     * Same as {@link #copyOffline(OfflinerRequest, DefaultBeeline, Span)}, but collects the results into the given
+     * {@link OfflinerResult}, which is updated as each download completes so the caller can watch its progress.
+     */
+    public OfflinerResult copyOffline( OfflinerRequest request, DefaultBeeline beeline, Span rootSpan,
+                                       OfflinerResult runResult )
+            throws IOException, OfflinerException, ExecutionException, InterruptedException
     {
         logger.debug( "Planning download from:\n  " + StringUtils.join( request.getRepositoryUrls(), "\n  " ) );
 
-        List<ArtifactList> artifactLists = request.getArtifactLists();
+        // don't add to the request's own lists, so the request can be run again.
+        List<ArtifactList> artifactLists = new ArrayList<>( request.getArtifactLists() );
 
-        final List<String> files = request.getArtifactListFiles();
-        for ( final String filepath : files )
+        // find a reader for every file up front; the feeder reads them all concurrently.
+        Map<File, ArtifactListReader> artifactListFiles = new LinkedHashMap<>();
+        for ( final String filepath : request.getArtifactListFiles() )
         {
             File file = new File( filepath );
-            ArtifactListReader reader = getArtifactListReader( file );
-            ArtifactList artifactList = reader.readPaths( file );
-            if ( artifactList != null )
-            {
-                artifactLists.add( artifactList );
-            }
-
-            logger.debug( "Downloading up to " + artifactList.size() + " artifacts from: " + filepath );
+            artifactListFiles.put( file, getArtifactListReader( file ) );
         }
 
-        if ( artifactLists.isEmpty() )
+        if ( artifactLists.isEmpty() && artifactListFiles.isEmpty() )
         {
             logger.warn( "Nothing to do!" );
-            return OfflinerResult.noAction( request );
+            return runResult;
         }
 
+        if ( asyncDownloader != null )
+        {
+            warnUnsupportedByAsync( request );
+        }
+
+        // asynchronous downloads report into the same queue as the ones running in the executor.
+        BlockingQueue<Future<DownloadResult>> completed = new LinkedBlockingQueue<>();
         ExecutorCompletionService<DownloadResult> executor =
-                new ExecutorCompletionService<>( executorService );
+                new ExecutorCompletionService<>( executorService, completed );
 
-        OfflinerResult runResult = new OfflinerResult( request );
+        DownloadJournal journal = null;
+        DownloadFeeder feeder = null;
+        activeRequests.incrementAndGet();
+        applyConnectionLimits( request );
         try
         {
-            long start = System.nanoTime();
-            Set<String> seen = new HashSet<>();
-            int total = 0;
-            for ( final ArtifactList artifactList : artifactLists )
+            if ( request.isJournalEnabled() )
             {
-                logger.debug( "Downloading up to {} artifacts from: {}", artifactList.size(), artifactList );
-                total += download( artifactList, request, seen, executor, beeline );
+                journal = DownloadJournal.open( request.getDownloadDirectory() );
             }
-            for ( int i = 0; i < total; i++ )
+
+            long start = System.nanoTime();
+            PathIndex pathIndex = new PathIndex();
+            RepositoryScoreboard scores = scoreboard.newRequestScoreboard();
+            Hedger.Stats hedgeStats = new Hedger.Stats();
+            feeder = new DownloadFeeder( request, artifactLists, artifactListFiles, pathIndex, journal, scores,
+                                         hedgeStats, executor, completed, beeline );
+            int total = 0;
+            int outstanding = 0;
+            while ( true )
             {
-                logger.debug( "Waiting for {} downloads\n", ( total - i ) );
+                // share the window between the requests running right now, so none of them can starve the others.
+                int window = Math.max( 1, submissionWindow / Math.max( 1, activeRequests.get() ) );
+                while ( outstanding < window && feeder.submitNext() )
+                {
+                    outstanding++;
+                    total++;
+                }
+                maxOutstanding.accumulateAndGet( outstanding, Math::max );
+
+                if ( outstanding == 0 )
+                {
+                    break;
+                }
+
+                logger.debug( "Waiting for {} downloads\n", outstanding );
+
+                Future<DownloadResult> task = completed.take();
+                outstanding--;
 
-                Future<DownloadResult> task = executor.take();
                 DownloadResult result = task.get();
                 if ( result == null )
                 {
@@ -254,6 +632,25 @@ public class Offliner
                     logger.error( "<<<FAIL: {}\n", result.getPath() );
                 }
             }
+            if ( logger.isDebugEnabled() )
+            {
+                getRouteStats().forEach(
+                        ( route, stats ) -> logger.debug( "Connection pool for {}: {}", route, stats ) );
+                getConcurrencyLimits().forEach(
+                        ( repoUrl, limit ) -> logger.debug( "Concurrency limit for {}: {}", repoUrl, limit ) );
+            }
+            if ( hedgeStats.isUsed() )
+            {
+                logger.info( hedgeStats.report() );
+            }
+            runResult.setRepositoryScores( scores.getScores( feeder.getRepositories() ) );
+            runResult.getRepositoryScores().values().forEach( ( score ) -> logger.debug( "Repository {}", score ) );
+
+            pathIndex.getConflicts().forEach( ( path, conflict ) -> {
+                runResult.addChecksumConflict( path, conflict );
+                logger.warn( "<<<CONFLICT: {}\n", conflict );
+            } );
+
             if ( rootSpan != null )
             {
                 long end = System.nanoTime();
@@ -282,145 +679,577 @@ public class Offliner
         }
         finally
         {
-            IOUtils.closeQuietly( client );
+            activeRequests.decrementAndGet();
+            releaseConnectionLimits( request );
+            IOUtils.closeQuietly( feeder );
+            IOUtils.closeQuietly( journal );
+            saveNegativeCache();
         }
 
         return runResult;
     }
 
     /**
-     * Parse the given manifest file path (with the appropriate {@link ArtifactListReader}, depending on the file
-     * type. Use the resulting {@link ArtifactList} to generate a series of new download tasks, subtracting any
-     * URLs that have been added from artifact lists that have already been processed.
-     * @param artifactList The artifact list to download
-     * @param seen The list of URLs that are already slated for download (or were pre-existing in the target directory)
-     * @param executor
-     * @return The number of new download tasks added from this artifact listing
-     * @throws IOException In case the artifact list file cannot be read
-     * @throws OfflinerException In case the artifact list file is not in a valid format (won't parse)
+     * Walks the paths of the {@link ArtifactList}s and artifact-list files in a request, handing them to the download
+     * engine one at a time. All of the files are opened concurrently as soon as the feeder is created, since some
+     * readers parse (or scan) their whole file before handing over the first path. The lists are still downloaded in
+     * order, but a list that is ready doesn't wait for the ones after it. Each file is read a path at a time through
+     * its {@link ArtifactListStream}, so parsing a file overlaps with downloading its first paths. No download
+     * task exists before {@link #submitNext()} is called for it, so the number of tasks and results held in memory is
+     * bounded by the caller's submission window rather than the size of the lists. Only the de-duplicating
+     * {@link PathIndex} grows with the number of distinct paths, and it keeps them compactly encoded.
+     * <p>
+     * The checksum files of each artifact are patched in right after it. When checksum files are written locally
+     * instead, the checksum paths of a list are held back until the list is exhausted, and only downloaded if their
+     * artifact wasn't.
      */
-    private int download( final ArtifactList artifactList, final OfflinerRequest request, Set<String> seen,
-                          final ExecutorCompletionService<DownloadResult> executor, final DefaultBeeline beeline )
+    private final class DownloadFeeder
+            implements Closeable
     {
-        final List<String> paths;
-        List<String> baseUrls = request.getRepositoryUrls();
-        Map<String, String> checksums;
+        private final OfflinerRequest request;
 
-        if ( baseUrls == null || baseUrls.isEmpty() || OfflinerRequest.DEFAULT_URLS.equals( baseUrls ) )
-        {
-            baseUrls = artifactList.getRepositoryUrls();
-            if ( baseUrls == null || baseUrls.isEmpty() )
-            {
-                baseUrls = OfflinerRequest.DEFAULT_URLS;
-            }
-        }
+        private final Iterator<ArtifactList> artifactLists;
 
-        paths = artifactList.getPaths();
-        checksums = artifactList.getChecksums();
-        if ( checksums == null )
-        {
-            checksums = new HashMap<>();
-        }
+        private final List<CompletableFuture<ArtifactListStream>> openings = new ArrayList<>();
 
-        if ( paths == null || paths.isEmpty() )
-        {
-            logger.warn( "Nothing to download!" );
-            return 0;
-        }
+        private final Iterator<CompletableFuture<ArtifactListStream>> artifactListFiles;
+
+        private final ExecutorCompletionService<DownloadResult> executor;
+
+        private final BlockingQueue<Future<DownloadResult>> completed;
+
+        private final DefaultBeeline beeline;
 
-        patchPathsForDownload( paths );
+        private final PathIndex pathIndex;
 
-        int count = 0;
-        BasicCookieStore cookieStore = new BasicCookieStore();
+        private final DownloadJournal journal;
 
-        for ( final String path : paths )
+        private final RepositoryScoreboard scores;
+
+        private final Hedger.Stats hedgeStats;
+
+        private ArtifactListStream stream;
+
+        private int streamed;
+
+        /**
+         * Paths to hand over before reading the next one from the stream.
+         */
+        private final Deque<String> pending = new ArrayDeque<>();
+
+        /**
+         * Checksum paths held back until the stream is exhausted.
+         */
+        private final List<String> deferred = new ArrayList<>();
+
+        private String checksum;
+
+        private List<String> baseUrls;
+
+        private CookieStore cookieStore;
+
+        /**
+         * Every repository the downloads were planned from, in order of first use.
+         */
+        private final Set<String> repositories = new LinkedHashSet<>();
+
+        private DownloadFeeder( final OfflinerRequest request, final List<ArtifactList> artifactLists,
+                                final Map<File, ArtifactListReader> artifactListFiles, final PathIndex pathIndex,
+                                final DownloadJournal journal, final RepositoryScoreboard scores,
+                                final Hedger.Stats hedgeStats, final ExecutorCompletionService<DownloadResult> executor,
+                                final BlockingQueue<Future<DownloadResult>> completed, final DefaultBeeline beeline )
         {
-            if ( !seen.contains( path ) )
-            {
-                executor.submit( newDownloader( request, path, checksums, baseUrls, cookieStore, beeline ) );
-                count++;
-            }
+            this.request = request;
+            this.artifactLists = artifactLists.iterator();
+            artifactListFiles.forEach( ( file, reader ) -> openings.add( CompletableFuture.supplyAsync( () -> {
+                try
+                {
+                    return reader.streamPaths( file );
+                }
+                catch ( final IOException | OfflinerException e )
+                {
+                    throw new CompletionException( e );
+                }
+            }, artifactListExecutor ) ) );
+            this.artifactListFiles = openings.iterator();
+            this.pathIndex = pathIndex;
+            this.journal = journal;
+            this.scores = scores;
+            this.hedgeStats = hedgeStats;
+            this.executor = executor;
+            this.completed = completed;
+            this.beeline = beeline;
         }
-        return count;
-    }
 
-    /**
-     * Select the most appropriate {@link ArtifactListReader} for the given file. This will be used to parse the list
-     * of files to download, along with any checksum metadata that might be available (depending on the format).
-     * @param file The artifact-list file
-     * @return The {@link ArtifactListReader} that should be used to parse the file
-     * @throws OfflinerException In case there is no reader to handle the given file type
-     */
-    private ArtifactListReader getArtifactListReader( File file )
-            throws OfflinerException
-    {
-        for ( ArtifactListReader reader : artifactListReaders )
+        Set<String> getRepositories()
         {
-            if ( reader.supports( file ) )
-            {
-                return reader;
-            }
+            return repositories;
         }
-        throw new OfflinerException( "No reader supports file %s.", file.getPath() );
-    }
 
-    /**
-     * Creates a new {@link Callable} capable of downloading a single file from a path and a set of base URLs, or
-     * determining that the file has already been downloaded. If the checksums map is given, attempt to verify the
-     * checksum of the file in the target directory or the stream as it's being downloaded.
-     * @param offlinerRequest The offliner request, including list of base URLs representing the repositories from which files
-     *                should be downloaded. Each base URL will be tried in order when downloading a path, until one works.
-     * @param path The path to attempt to download from one of the repositories given in baseUrls
-     * @param checksums The map of path -> checksum to use when attempting to verify the integrity of existing files or
-     *                  the download stream
-     * @param baseUrls
-     * @param cookieStore
-     * @return The Callable that will perform the actual download. At this point it will NOT have been queued for
-     * execution.
-     */
-    private Callable<DownloadResult> newDownloader( final OfflinerRequest offlinerRequest, final String path,
-                                                    final Map<String, String> checksums, final List<String> baseUrls,
-                                                    final CookieStore cookieStore, final DefaultBeeline beeline)
-    {
-        return () -> {
-            Span downloadLatencySpan = beeline == null ? null : beeline.startSpan( "download latency" );
-            long start = System.nanoTime();
-            final String name = Thread.currentThread().getName();
-            Thread.currentThread().setName( "download--" + path );
-            try
+        /**
+         * Submit the download of the next path that isn't in the {@link PathIndex} yet. Paths that are already in the
+         * index only contribute their checksum to it.
+         * @return false if there are no more paths to download
+         * @throws IOException In case an artifact-list file can't be read
+         * @throws OfflinerException In case an artifact-list file can't be parsed
+         */
+        boolean submitNext()
+                throws IOException, OfflinerException
+        {
+            String path;
+            while ( ( path = nextPath() ) != null )
             {
-                final File target = new File( offlinerRequest.getDownloadDirectory(), path );
-
-                if ( target.exists() )
+                if ( pathIndex.add( path, checksum ) )
                 {
-                    if ( null == checksums || checksums.isEmpty() || !checksums.containsKey( path ) || null == checksums
-                            .get( path ) )
+                    if ( asyncDownloader != null )
                     {
-                        markLatency( start, downloadLatencySpan, "download_latency_nano" );
-                        return DownloadResult.avoid( path, true );
+                        submitAsync( request, path, pathIndex, journal, scores, baseUrls, cookieStore, beeline,
+                                     completed );
                     }
-
-                    byte[] b = FileUtils.readFileToByteArray( target );
-                    String original = checksums.get( path );
-                    String current = sha256Hex( b );
-
-                    if ( original.equals( current ) )
+                    else
                     {
-                        markLatency( start, downloadLatencySpan, "download_latency_nano" );
-                        return DownloadResult.avoid( path, true );
+                        executor.submit( newDownloader( request, path, pathIndex, journal, scores, hedgeStats,
+                                                        baseUrls, cookieStore, beeline ) );
                     }
+                    return true;
                 }
+            }
 
-                final File dir = target.getParentFile();
-                dir.mkdirs();
-
-                final File part = new File( dir, target.getName() + ".part" );
-                part.deleteOnExit();
+            return false;
+        }
 
-                int reposRemaining = baseUrls.size();
-                for ( String baseUrl : baseUrls )
+        /**
+         * @return the next path to download (setting {@link #checksum} to its checksum), or null if there are none
+         */
+        private String nextPath()
+                throws IOException, OfflinerException
+        {
+            while ( true )
+            {
+                if ( !pending.isEmpty() )
                 {
-                    reposRemaining--;
+                    checksum = null;
+                    return pending.poll();
+                }
+
+                if ( stream == null && !nextStream() )
+                {
+                    return null;
+                }
+
+                final String path = stream.nextPath();
+                if ( path == null )
+                {
+                    endStream();
+                    continue;
+                }
+
+                streamed++;
+                if ( request.isLocalChecksums() )
+                {
+                    if ( isChecksumPath( path ) )
+                    {
+                        deferred.add( path );
+                        continue;
+                    }
+                }
+                else if ( !isChecksumPath( path ) )
+                {
+                    pending.add( path + SHA_SUFFIX );
+                    pending.add( path + MD5_SUFFIX );
+                }
+
+                checksum = stream.getChecksum();
+                return path;
+            }
+        }
+
+        /**
+         * Open the next {@link ArtifactListStream}, and select the repositories to download its paths from.
+         * @return false if there are no more lists
+         */
+        private boolean nextStream()
+                throws IOException, OfflinerException
+        {
+            while ( stream == null )
+            {
+                if ( artifactLists.hasNext() )
+                {
+                    stream = ArtifactListStream.of( artifactLists.next() );
+                }
+                else if ( artifactListFiles.hasNext() )
+                {
+                    stream = await( artifactListFiles.next() );
+                }
+                else
+                {
+                    return false;
+                }
+            }
+
+            logger.debug( "Downloading artifacts from: {}", stream );
+
+            baseUrls = request.getRepositoryUrls();
+            if ( baseUrls == null || baseUrls.isEmpty() || OfflinerRequest.DEFAULT_URLS.equals( baseUrls ) )
+            {
+                baseUrls = stream.getRepositoryUrls();
+                if ( baseUrls == null || baseUrls.isEmpty() )
+                {
+                    baseUrls = OfflinerRequest.DEFAULT_URLS;
+                }
+            }
+            repositories.addAll( baseUrls );
+
+            cookieStore = new BasicCookieStore();
+            streamed = 0;
+            return true;
+        }
+
+        /**
+         * Close the exhausted stream, and queue the checksum paths it held back whose artifact wasn't downloaded.
+         */
+        private void endStream()
+                throws IOException
+        {
+            if ( streamed == 0 )
+            {
+                logger.warn( "Nothing to download!" );
+            }
+
+            stream.close();
+            stream = null;
+            deferred.forEach( ( path ) -> {
+                if ( !pathIndex.contains( getChecksumBase( path ) ) )
+                {
+                    pending.add( path );
+                }
+            } );
+            deferred.clear();
+        }
+
+        private ArtifactListStream await( final CompletableFuture<ArtifactListStream> opening )
+                throws IOException, OfflinerException
+        {
+            try
+            {
+                return opening.get();
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while reading artifact lists." );
+            }
+            catch ( final ExecutionException e )
+            {
+                if ( e.getCause() instanceof IOException )
+                {
+                    throw (IOException) e.getCause();
+                }
+                if ( e.getCause() instanceof OfflinerException )
+                {
+                    throw (OfflinerException) e.getCause();
+                }
+                throw new IOException( "Failed to read artifact list.", e.getCause() );
+            }
+        }
+
+        /**
+         * Close the current stream, and every stream opened for a list that wasn't reached, once it's open.
+         */
+        @Override
+        public void close()
+                throws IOException
+        {
+            openings.forEach( ( opening ) -> opening.thenAccept( IOUtils::closeQuietly ) );
+            if ( stream != null )
+            {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Hand a single path over to the {@link AsyncDownloader}. The check for an existing target file may have to read
+     * the whole file to verify its checksum, so it runs on the executor rather than the calling thread; if the
+     * download can't be avoided the transfer continues on the I/O reactor. The finished download is added to the
+     * completed queue.
+     */
+    private void submitAsync( final OfflinerRequest offlinerRequest, final String path,
+                              final PathIndex pathIndex, final DownloadJournal journal,
+                              final RepositoryScoreboard scores, final List<String> baseUrls, final CookieStore cookieStore,
+                              final DefaultBeeline beeline,
+                              final BlockingQueue<Future<DownloadResult>> completed )
+    {
+        final File target = new File( offlinerRequest.getDownloadDirectory(), path );
+        final boolean sidecars = offlinerRequest.isLocalChecksums() && !isChecksumPath( path );
+        final Span downloadLatencySpan = beeline == null ? null : beeline.startSpan( "download latency" );
+        final long start = System.nanoTime();
+        final boolean revalidate = isRevalidated( offlinerRequest, target, pathIndex.getChecksum( path ) );
+
+        final CompletableFuture<DownloadResult> future = CompletableFuture.supplyAsync( () -> {
+            try
+            {
+                return !revalidate && isAvoidable( target, path, pathIndex.getChecksum( path ), journal, sidecars ) ?
+                        DownloadResult.avoid( path, true ) :
+                        null;
+            }
+            catch ( final IOException e )
+            {
+                return DownloadResult.error( path, e );
+            }
+        }, executorService ).thenCompose( ( result ) -> result != null ?
+                CompletableFuture.completedFuture( result ) :
+                asyncDownloader.download( target, path, pathIndex.getChecksum( path ),
+                                          orderRepositories( baseUrls, path ), cookieStore, journal, scores,
+                                          sidecars, revalidate )
+                               .thenApplyAsync( ( downloaded ) -> {
+                                   // a 304 leaves the target alone, so its checksum files may still be missing.
+                                   if ( downloaded.isAvoided() )
+                                   {
+                                       try
+                                       {
+                                           writeMissingChecksumFiles( target, sidecars );
+                                       }
+                                       catch ( final IOException e )
+                                       {
+                                           return DownloadResult.error( path, e );
+                                       }
+                                   }
+                                   return downloaded;
+                               }, executorService ) );
+
+        future.whenComplete( ( result, error ) -> {
+            markLatency( start, downloadLatencySpan, "download_latency_nano" );
+            completed.add( future );
+        } );
+    }
+
+    /**
+     * Determine whether downloading the given path can be avoided, because the target file already exists and either
+     * the journal says it was completed and hasn't changed since, there is no checksum to verify it against, or its
+     * digest matches the expected checksum. The file is read at most once, streaming it through a pooled buffer, to
+     * compute the algorithm implied by the checksum's length along with any digests its missing .sha1 or .md5 files
+     * (if sidecars are requested) need. A file verified by checksum is recorded in the journal, so the next run won't
+     * have to read it again.
+     */
+    private boolean isAvoidable( final File target, final String path, final String checksum,
+                                 final DownloadJournal journal, final boolean sidecars )
+            throws IOException
+    {
+        if ( !target.exists() )
+        {
+            return false;
+        }
+
+        String algorithm = null;
+        if ( checksum != null && ( journal == null || !journal.isVerified( target, path, checksum ) ) )
+        {
+            algorithm = ChecksumOutputStream.algorithmFor( checksum );
+            if ( algorithm == null )
+            {
+                logger.debug( "Cannot tell the algorithm of checksum: {} for: {}. Downloading it again.", checksum,
+                              path );
+                return false;
+            }
+        }
+
+        Set<String> algorithms = getMissingChecksumAlgorithms( target, sidecars );
+        if ( algorithm == null && algorithms.isEmpty() )
+        {
+            return true;
+        }
+
+        if ( algorithm != null )
+        {
+            algorithms.add( algorithm );
+        }
+
+        ChecksumOutputStream.Checksum current = channelCopier.digest( target, algorithms );
+        if ( algorithm != null )
+        {
+            if ( !current.isMatch( checksum ) )
+            {
+                return false;
+            }
+
+            if ( journal != null )
+            {
+                journal.completed( target, path, current.getMd5(), current.getSha1(), current.getSha256() );
+            }
+        }
+
+        writeMissingChecksumFiles( target, current );
+        return true;
+    }
+
+    /**
+     * Write any missing .sha1 or .md5 file of the given target, if sidecars are requested, reading the target once.
+     */
+    private void writeMissingChecksumFiles( final File target, final boolean sidecars )
+            throws LocalFileException
+    {
+        Set<String> algorithms = getMissingChecksumAlgorithms( target, sidecars );
+        if ( !algorithms.isEmpty() )
+        {
+            try
+            {
+                writeMissingChecksumFiles( target, channelCopier.digest( target, algorithms ) );
+            }
+            catch ( final LocalFileException e )
+            {
+                throw e;
+            }
+            catch ( final IOException e )
+            {
+                throw new LocalFileException( target, e );
+            }
+        }
+    }
+
+    /**
+     * @return the algorithms of the .sha1 and .md5 files of the given target that are missing, if sidecars are
+     * requested. The Set is mutable.
+     */
+    private static Set<String> getMissingChecksumAlgorithms( final File target, final boolean sidecars )
+    {
+        Set<String> algorithms = new LinkedHashSet<>();
+        if ( sidecars )
+        {
+            if ( !new File( target.getPath() + Offliner.SHA_SUFFIX ).exists() )
+            {
+                algorithms.add( ChecksumOutputStream.SHA_1 );
+            }
+            if ( !new File( target.getPath() + Offliner.MD5_SUFFIX ).exists() )
+            {
+                algorithms.add( ChecksumOutputStream.MD5 );
+            }
+        }
+        return algorithms;
+    }
+
+    /**
+     * Write the .sha1 and .md5 files of the given target from whichever of those digests were calculated.
+     */
+    private static void writeMissingChecksumFiles( final File target, final ChecksumOutputStream.Checksum digests )
+            throws IOException
+    {
+        if ( digests.getSha1() != null )
+        {
+            FileUtils.write( new File( target.getPath() + Offliner.SHA_SUFFIX ), digests.getSha1(),
+                             StandardCharsets.US_ASCII );
+        }
+        if ( digests.getMd5() != null )
+        {
+            FileUtils.write( new File( target.getPath() + Offliner.MD5_SUFFIX ), digests.getMd5(),
+                             StandardCharsets.US_ASCII );
+        }
+    }
+
+    /**
+     * Select the most appropriate {@link ArtifactListReader} for the given file. This will be used to parse the list
+     * of files to download, along with any checksum metadata that might be available (depending on the format). A
+     * file compressed in one of the {@link ManifestCompression} formats (going by its magic bytes, not its name) is
+     * only handed to a reader that can decode it.
+     * @param file The artifact-list file
+     * @return The {@link ArtifactListReader} that should be used to parse the file
+     * @throws OfflinerException In case there is no reader to handle the given file type
+     */
+    private ArtifactListReader getArtifactListReader( File file )
+            throws OfflinerException
+    {
+        ManifestCompression compression = ManifestCompression.NONE;
+        try
+        {
+            compression = ManifestCompression.detect( file );
+        }
+        catch ( IOException e )
+        {
+            // the reader will fail to read it as well, and report why.
+            logger.debug( "Cannot detect compression of: " + file, e );
+        }
+
+        for ( ArtifactListReader reader : artifactListReaders )
+        {
+            if ( ( compression == ManifestCompression.NONE || reader.isCompressionSupported() )
+                    && reader.supports( file ) )
+            {
+                logger.debug( "Reading {} ({} compression) with: {}", file, compression, reader );
+                return reader;
+            }
+        }
+        throw new OfflinerException( "No reader supports file %s.", file.getPath() );
+    }
+
+    /**
+     * Creates a new {@link Callable} capable of downloading a single file from a path and a set of base URLs, or
+     * determining that the file has already been downloaded. If the path index has a checksum for the path, attempt to
+     * verify the checksum of the file in the target directory or the stream as it's being downloaded.
+     * @param offlinerRequest The offliner request, including list of base URLs representing the repositories from which files
+     *                should be downloaded. Each base URL will be tried in order when downloading a path, until one works.
+     * @param path The path to attempt to download from one of the repositories given in baseUrls
+     * @param pathIndex The index of paths in this run, holding the checksum to use when attempting to verify the
+     *                  integrity of existing files or the download stream
+     * @param journal The journal of the download directory, or null if it isn't kept
+     * @param scores The scoreboard of the request the download is part of
+     * @param hedgeStats The hedging stats of the request the download is part of
+     * @param baseUrls
+     * @param cookieStore
+     * @return The Callable that will perform the actual download. At this point it will NOT have been queued for
+     * execution.
+     */
+    private Callable<DownloadResult> newDownloader( final OfflinerRequest offlinerRequest, final String path,
+                                                    final PathIndex pathIndex, final DownloadJournal journal,
+                                                    final RepositoryScoreboard scores, final Hedger.Stats hedgeStats,
+                                                    final List<String> baseUrls, final CookieStore cookieStore,
+                                                    final DefaultBeeline beeline )
+    {
+        return () -> {
+            Span downloadLatencySpan = beeline == null ? null : beeline.startSpan( "download latency" );
+            long start = System.nanoTime();
+            if ( downloadPermits != null )
+            {
+                downloadPermits.acquire();
+            }
+
+            final String name = Thread.currentThread().getName();
+            Thread.currentThread().setName( "download--" + path );
+            File partFile = null;
+            try
+            {
+                final File target = new File( offlinerRequest.getDownloadDirectory(), path );
+                final String checksum = pathIndex.getChecksum( path );
+                final boolean sidecars = offlinerRequest.isLocalChecksums() && !isChecksumPath( path );
+                final boolean revalidate = isRevalidated( offlinerRequest, target, checksum );
+
+                if ( !revalidate && isAvoidable( target, path, checksum, journal, sidecars ) )
+                {
+                    markLatency( start, downloadLatencySpan, "download_latency_nano" );
+                    return DownloadResult.avoid( path, true );
+                }
+
+                final File dir = target.getParentFile();
+                dir.mkdirs();
+
+                // only calculate the digests needed to verify the download.
+                final Set<String> algorithms = ChecksumOutputStream.algorithmsFor( checksum, sidecars );
+
+                final File part = partFiles.open( target );
+                partFile = part;
+
+                String validator = journal == null ? null : journal.getValidator( path );
+                if ( part.exists() && validator == null && checksum == null )
+                {
+                    // without a validator or a checksum, there's no telling whether the part file is still current.
+                    part.delete();
+                }
+                // only the journal can tell a later run to resume the part file, or sweep it once it's stale.
+                partFiles.keep( part, journal != null && ( validator != null || checksum != null ) );
+
+                final List<String> repos = new ArrayList<>( orderRepositories( baseUrls, path ) );
+                for ( int r = 0; r < repos.size(); r++ )
+                {
+                    final int reposRemaining = repos.size() - r - 1;
+                    String baseUrl = repos.get( r );
                     String url;
                     try
                     {
@@ -432,111 +1261,478 @@ public class Offliner
                         return DownloadResult.error( path, e );
                     }
 
-                    logger.debug( ">>>Downloading: " + url );
+                    int resumeAttempts = 0;
+                    boolean unsegmented = segmentedDownloader == null;
+                    boolean retry;
+                    do
+                    {
+                        retry = false;
 
-                    final HttpClientContext context = new HttpClientContext();
-                    context.setCookieStore( cookieStore );
+                        final long offset = part.length();
+                        final HttpGet request = new HttpGet( url );
+                        if ( offset > 0 )
+                        {
+                            logger.debug( ">>>Resuming: " + url + " from byte: " + offset );
+                            request.setHeader( HttpHeaders.RANGE, "bytes=" + offset + "-" );
+                            if ( validator != null )
+                            {
+                                request.setHeader( HttpHeaders.IF_RANGE, validator );
+                            }
+                        }
+                        else if ( revalidate )
+                        {
+                            logger.debug( ">>>Revalidating: " + url );
+                            setConditionalHeaders( request, journal == null ? null :
+                                    journal.getCompletedValidator( path ), target );
+                        }
+                        else
+                        {
+                            logger.debug( ">>>Downloading: " + url );
+                        }
 
-                    final HttpGet request = new HttpGet( url );
-                    try (CloseableHttpResponse response = client.execute( request, context ))
-                    {
-                        int statusCode = response.getStatusLine().getStatusCode();
-                        if ( statusCode == 200 )
+                        // a resumed download has to come from the repository its part file came from.
+                        final HttpGet hedgeRequest =
+                                offlinerRequest.isHedging() && reposRemaining > 0 && offset == 0 ?
+                                        newHedge( request, repos.get( r + 1 ), path ) :
+                                        null;
+
+                        boolean resumable = false;
+                        AdaptiveLimiter.Permit permit =
+                                adaptiveLimiter == null ? null : adaptiveLimiter.acquire( baseUrl );
+                        Hedger.Attempt attempt = new Hedger.Attempt( request, baseUrl, permit );
+                        final Hedger.Attempt hedge = hedgeRequest == null ? null :
+                                new Hedger.Attempt( hedgeRequest, repos.get( r + 1 ), null );
+                        try (CloseableHttpResponse response = hedger.execute( attempt, hedge, cookieStore,
+                                                                              offlinerRequest.getHedgePercentile(),
+                                                                              hedgeStats ))
                         {
-                            try (ChecksumOutputStream out = new ChecksumOutputStream( new FileOutputStream( part )))
+                            if ( request.isAborted() )
+                            {
+                                // the hedge won, so carry on as if the next repository had been tried first. The
+                                // one that lost goes after it, in case this download fails anyway.
+                                Collections.swap( repos, r, r + 1 );
+                                baseUrl = repos.get( r );
+                                url = hedgeRequest.getURI().toString();
+                                attempt = hedge;
+                                permit = hedge.getPermit();
+                            }
+
+                            final long headers = System.nanoTime();
+                            int statusCode = response.getStatusLine().getStatusCode();
+                            scores.onResponse( baseUrl, statusCode, headers - attempt.getSent() );
+                            if ( permit != null )
+                            {
+                                permit.onResponse( statusCode, headers - attempt.getSent() );
+                            }
+                            boolean append = statusCode == 206 && offset > 0 && isRangeFrom( response, offset );
+                            if ( statusCode == 200 || append )
                             {
-                                long startChecksum = System.nanoTime();
-                                IOUtils.copy( response.getEntity().getContent(), out );
-                                markLatency( startChecksum, downloadLatencySpan, "checksum_latency_nano" );
-                                if ( checksums != null )
+                                negativeCache.found( baseUrl, path );
+                                resumable = append || isRangeSupported( response );
+                                if ( !append )
+                                {
+                                    validator = getValidator( response );
+                                    partFiles.keep( part, journal != null
+                                            && ( validator != null || checksum != null ) );
+                                    if ( journal != null )
+                                    {
+                                        journal.started( path, validator );
+                                    }
+                                }
+
+                                final ChecksumOutputStream.Checksum downloaded;
+                                if ( !append && !unsegmented && segmentedDownloader.isEligible( response ) )
                                 {
-                                    String checksum = checksums.get( path );
-                                    if ( checksum != null && !isBlank( checksum ) && !out.getChecksum().isMatch( checksum ) )
+                                    // a part file with holes in it can't be resumed.
+                                    partFiles.keep( part, false );
+                                    try
                                     {
+                                        long startChecksum = System.nanoTime();
+                                        downloaded = segmentedDownloader.download( response, url, validator, part,
+                                                                                   algorithms, cookieStore );
+                                        markLatency( startChecksum, downloadLatencySpan, "checksum_latency_nano" );
+                                    }
+                                    catch ( final IOException e )
+                                    {
+                                        logger.debug( "<<<Segmented download failed: " + url
+                                                              + ". Retrying over a single connection.", e );
+                                        part.delete();
+                                        unsegmented = true;
+                                        retry = true;
+                                        continue;
+                                    }
+                                }
+                                else
+                                {
+                                    long startChecksum = System.nanoTime();
+                                    downloaded = channelCopier.copy( response.getEntity().getContent(), part, append,
+                                                                     algorithms );
+                                    markLatency( startChecksum, downloadLatencySpan, "checksum_latency_nano" );
+                                }
+
+                                scores.onTransfer( baseUrl, part.length() - ( append ? offset : 0 ),
+                                                   System.nanoTime() - headers );
+
+                                if ( checksum != null && !downloaded.isMatch( checksum ) )
+                                {
+                                    // don't resume from a part file that can't be trusted.
+                                    part.delete();
+                                    markLatency( start, downloadLatencySpan, "download_latency_nano" );
+                                    return DownloadResult.error( path, new IOException(
+                                            "Checksum mismatch on file: " + path + " (calculated: '" + downloaded + "'; expected: '" + checksum + "')" ) );
+                                }
+                                if ( sidecars )
+                                {
+                                    String mismatch = crossVerify( offlinerRequest, baseUrl, path, downloaded,
+                                                                   cookieStore );
+                                    if ( mismatch != null )
+                                    {
+                                        part.delete();
                                         markLatency( start, downloadLatencySpan, "download_latency_nano" );
-                                        return DownloadResult.error( path, new IOException(
-                                                "Checksum mismatch on file: " + path + " (calculated: '" + out.getChecksum() + "'; expected: '" + checksum + "')" ) );
+                                        return DownloadResult.error( path, new IOException( mismatch ) );
+                                    }
+                                }
+                                part.renameTo( target );
+                                if ( sidecars )
+                                {
+                                    try
+                                    {
+                                        writeChecksumFiles( target, downloaded.getSha1(), downloaded.getMd5() );
+                                    }
+                                    catch ( final IOException e )
+                                    {
+                                        throw new LocalFileException( target, e );
                                     }
                                 }
+                                if ( journal != null )
+                                {
+                                    journal.completed( target, path, downloaded, validator );
+                                }
+                                markLatency( start, downloadLatencySpan, "download_latency_nano" );
+                                return DownloadResult.success( baseUrl, path );
                             }
-                            part.renameTo( target );
-                            markLatency( start, downloadLatencySpan, "download_latency_nano" );
-                            return DownloadResult.success( baseUrl, path );
-                        }
-                        else if ( statusCode == 404 )
-                        {
-                            if ( path.endsWith( Offliner.MD5_SUFFIX ) || path.endsWith( Offliner.SHA_SUFFIX ) )
+                            else if ( statusCode == 304 && revalidate )
+                            {
+                                logger.debug( "<<<Not Modified: " + url );
+                                negativeCache.found( baseUrl, path );
+                                writeMissingChecksumFiles( target, sidecars );
+                                markLatency( start, downloadLatencySpan, "download_latency_nano" );
+                                return DownloadResult.avoid( path, true );
+                            }
+                            else if ( ( statusCode == 206 || statusCode == 416 )
+                                    && resumeAttempts++ < MAX_RESUME_ATTEMPTS )
                             {
+                                // the server can't continue from where the part file ends, so start over.
+                                logger.debug( "<<<Cannot resume: " + url + " (" + response.getStatusLine() + ")" );
+                                part.delete();
+                                retry = true;
+                            }
+                            else if ( statusCode == 404 )
+                            {
+                                negativeCache.missed( baseUrl, path );
+                                if ( path.endsWith( Offliner.MD5_SUFFIX ) || path.endsWith( Offliner.SHA_SUFFIX ) )
+                                {
+                                    logger.debug( "<<<Not Found: " + url );
+                                    if ( reposRemaining == 0 )
+                                    {
+                                        markLatency( start, downloadLatencySpan, "download_latency_nano" );
+                                        return DownloadResult.warn( path, "WARN: downloading path " + path + " was not "
+                                                        + "found in any of the provided repositories." );
+                                    }
+                                }
                                 logger.debug( "<<<Not Found: " + url );
                                 if ( reposRemaining == 0 )
                                 {
                                     markLatency( start, downloadLatencySpan, "download_latency_nano" );
-                                    return DownloadResult.warn( path, "WARN: downloading path " + path + " was not "
-                                                    + "found in any of the provided repositories." );
+                                    return DownloadResult.error( path, new IOException(
+                                            "Error downloading path: " + path + ". The artifact was not "
+                                                    + "found in any of the provided repositories." ) );
                                 }
                             }
-                            logger.debug( "<<<Not Found: " + url );
-                            if ( reposRemaining == 0 )
+                            else
                             {
-                                markLatency( start, downloadLatencySpan, "download_latency_nano" );
-                                return DownloadResult.error( path, new IOException(
-                                        "Error downloading path: " + path + ". The artifact was not "
-                                                + "found in any of the provided repositories." ) );
+                                final String serverError = IOUtils.toString( response.getEntity().getContent() );
+
+                                String message = String.format(
+                                        "Error downloading path: %s.\n%s\nServer status: %s\nServer response was:\n%s\n%s",
+                                        path, SEPARATING_LINE, response.getStatusLine(), serverError, SEPARATING_LINE );
+
+                                if ( reposRemaining == 0 )
+                                {
+                                    markLatency( start, downloadLatencySpan, "download_latency_nano" );
+                                    return DownloadResult.error( path, new IOException( message ) );
+                                }
+                                else
+                                {
+                                    logger.debug( "<<<" + message );
+                                }
                             }
+
                         }
-                        else
+                        catch ( final LocalFileException e )
                         {
-                            final String serverError = IOUtils.toString( response.getEntity().getContent() );
-
-                            String message = String.format(
-                                    "Error downloading path: %s.\n%s\nServer status: %s\nServer response was:\n%s\n%s",
-                                    path, SEPARATING_LINE, response.getStatusLine(), serverError, SEPARATING_LINE );
+                            // a local disk error says nothing about the repository, and won't go away by retrying.
+                            logger.debug( "Download failed writing: " + part, e );
+                            markLatency( start, downloadLatencySpan, "download_latency_nano" );
+                            return DownloadResult.error( path, e );
+                        }
+                        catch ( final IOException e )
+                        {
+                            if ( permit != null )
+                            {
+                                permit.onFailure( e );
+                            }
+                            scores.onFailure( baseUrl );
 
-                            if ( reposRemaining == 0 )
+                            if ( resumable && part.length() > offset && resumeAttempts++ < MAX_RESUME_ATTEMPTS )
                             {
-                                markLatency( start, downloadLatencySpan, "download_latency_nano" );
-                                return DownloadResult.error( path, new IOException( message ) );
+                                // the part file has grown, so it's worth resuming from where it ends now.
+                                logger.debug( "<<<Interrupted: " + url + ". Resuming from byte: " + part.length(), e );
+                                retry = true;
                             }
                             else
                             {
-                                logger.debug( "<<<" + message );
+                                if ( logger.isTraceEnabled() )
+                                {
+                                    logger.error( "Download failed for: " + url, e );
+                                }
+                                markLatency( start, downloadLatencySpan, "download_latency_nano" );
+                                return DownloadResult.error( path, new IOException( "URL: " + url + " failed.", e ) );
                             }
                         }
-
-                    }
-                    catch ( final IOException e )
-                    {
-                        if ( logger.isTraceEnabled() )
+                        finally
                         {
-                            logger.error( "Download failed for: " + url, e );
+                            request.releaseConnection();
+                            request.reset();
+                            if ( permit != null )
+                            {
+                                permit.release();
+                            }
                         }
-                        markLatency( start, downloadLatencySpan, "download_latency_nano" );
-                        return DownloadResult.error( path, new IOException( "URL: " + url + " failed.", e ) );
-                    }
-                    finally
-                    {
-                        request.releaseConnection();
-                        request.reset();
                     }
+                    while ( retry );
                 }
             }
             finally
             {
+                if ( partFile != null )
+                {
+                    partFiles.release( partFile );
+                }
                 Thread.currentThread().setName( name );
+                if ( downloadPermits != null )
+                {
+                    downloadPermits.release();
+                }
             }
             markLatency( start, downloadLatencySpan, "download_latency_nano" );
             return null;
         };
     }
 
+    /**
+     * @return the repositories to try for the given path: those known to lack the path's GA or GAV go last, and so do
+     * those ejected by the {@link RepositoryScoreboard}
+     */
+    private List<String> orderRepositories( final List<String> baseUrls, final String path )
+    {
+        return scoreboard.order( negativeCache.order( baseUrls, path ) );
+    }
+
+    /**
+     * @return true if a request to the given repository would get a pooled connection without waiting for one
+     */
+    private boolean isConnectionAvailable( final String baseUrl )
+    {
+        PoolStats stats = connectionManager.getStats( routeFor( baseUrl, proxyHttpHost ) );
+        return stats.getLeased() + stats.getPending() < stats.getMax();
+    }
+
+    /**
+     * @return the request for the given path to a repository to hedge the given request with, carrying the same
+     * headers, or null if its URL can't be built
+     */
+    private HttpGet newHedge( final HttpGet request, final String baseUrl, final String path )
+    {
+        try
+        {
+            HttpGet hedge = new HttpGet( UrlUtils.buildUrl( baseUrl, path ) );
+            hedge.setHeaders( request.getAllHeaders() );
+            return hedge;
+        }
+        catch ( final Exception e )
+        {
+            logger.debug( "Cannot hedge with: " + baseUrl, e );
+            return null;
+        }
+    }
+
+    /**
+     * The {@link AsyncDownloader} only tries the repositories in order, and always downloads whole files. Say so
+     * instead of silently ignoring the options of the request that need the blocking engine.
+     */
+    private void warnUnsupportedByAsync( final OfflinerRequest request )
+    {
+        if ( request.isHedging() )
+        {
+            logger.warn( "The ASYNC download engine does not hedge requests. Ignoring --hedge." );
+        }
+        if ( request.isLocalChecksums() && request.getRemoteChecksumSample() > 0 )
+        {
+            logger.warn( "The ASYNC download engine does not cross-verify checksums. Ignoring "
+                                 + "--remote-checksum-sample." );
+        }
+        if ( request.isJournalEnabled() )
+        {
+            logger.warn( "The ASYNC download engine does not resume partial downloads. They will be downloaded "
+                                 + "again from the start." );
+        }
+    }
+
+    /**
+     * For a sample of downloads (see {@link OfflinerRequest#getRemoteChecksumSample()}), fetch the remote .sha1 file of
+     * the path and compare it to the SHA-1 calculated while downloading.
+     *
+     * @return a description of the mismatch, or null if the digests match, the download wasn't sampled, or the remote
+     * checksum isn't available
+     */
+    private String crossVerify( final OfflinerRequest offlinerRequest, final String baseUrl, final String path,
+                                final ChecksumOutputStream.Checksum downloaded, final CookieStore cookieStore )
+    {
+        double sample = offlinerRequest.getRemoteChecksumSample();
+        if ( sample <= 0 || ( sample < 1 && ThreadLocalRandom.current().nextDouble() >= sample ) )
+        {
+            return null;
+        }
+
+        HttpGet request = null;
+        try
+        {
+            request = new HttpGet( UrlUtils.buildUrl( baseUrl, path + SHA_SUFFIX ) );
+
+            final HttpClientContext context = new HttpClientContext();
+            context.setCookieStore( cookieStore );
+
+            try (CloseableHttpResponse response = client.execute( request, context ))
+            {
+                if ( response.getStatusLine().getStatusCode() != 200 )
+                {
+                    logger.debug( "<<<Cannot cross-verify: {} ({})", path, response.getStatusLine() );
+                    return null;
+                }
+
+                // some repositories append the file name to the checksum.
+                String remote = IOUtils.toString( response.getEntity().getContent(), StandardCharsets.US_ASCII )
+                                       .trim()
+                                       .split( "\\s+" )[0];
+                if ( !remote.equalsIgnoreCase( downloaded.getSha1() ) )
+                {
+                    return "Checksum mismatch on file: " + path + " (calculated SHA-1: '" + downloaded.getSha1()
+                            + "'; remote " + SHA_SUFFIX + ": '" + remote + "')";
+                }
+
+                logger.debug( "<<<Cross-verified: {}", path );
+                return null;
+            }
+        }
+        catch ( final IOException e )
+        {
+            logger.debug( "Cannot cross-verify: " + path, e );
+            return null;
+        }
+        finally
+        {
+            if ( request != null )
+            {
+                request.releaseConnection();
+            }
+        }
+    }
+
+    static boolean isRangeSupported( final HttpResponse response )
+    {
+        Header header = response.getFirstHeader( HttpHeaders.ACCEPT_RANGES );
+        return header != null && "bytes".equalsIgnoreCase( header.getValue().trim() );
+    }
+
+    static boolean isRangeFrom( final HttpResponse response, final long offset )
+    {
+        Header header = response.getFirstHeader( HttpHeaders.CONTENT_RANGE );
+        return header != null && header.getValue().trim().startsWith( "bytes " + offset + "-" );
+    }
+
+    /**
+     * @return the validator to send in If-Range when resuming the given response's content. That's the ETag, unless
+     * it's weak (which If-Range doesn't allow), or else the Last-Modified date, or null if neither is available.
+     */
+    static String getValidator( final HttpResponse response )
+    {
+        Header etag = response.getFirstHeader( HttpHeaders.ETAG );
+        if ( etag != null && !etag.getValue().startsWith( "W/" ) )
+        {
+            return etag.getValue();
+        }
+
+        Header lastModified = response.getFirstHeader( HttpHeaders.LAST_MODIFIED );
+        return lastModified == null ? null : lastModified.getValue();
+    }
+
+    /**
+     * @return true if the given target should be revalidated with a conditional request, because the request asks for
+     * it, the target exists, and there's no checksum to tell whether it's still current
+     */
+    private static boolean isRevalidated( final OfflinerRequest offlinerRequest, final File target,
+                                          final String checksum )
+    {
+        return offlinerRequest.isRevalidate() && checksum == null && target.exists();
+    }
+
+    /**
+     * Make the given request conditional on the existing target having changed: If-None-Match if the validator the
+     * target was downloaded with is an ETag, or else If-Modified-Since the validator's date. Without a validator, the
+     * modification time of the target is used, which is when it was downloaded, so it's never earlier than the
+     * Last-Modified date of the content.
+     */
+    static void setConditionalHeaders( final HttpRequest request, final String validator, final File target )
+    {
+        if ( validator != null && ( validator.startsWith( "\"" ) || validator.startsWith( "W/" ) ) )
+        {
+            request.setHeader( HttpHeaders.IF_NONE_MATCH, validator );
+        }
+        else if ( validator != null )
+        {
+            request.setHeader( HttpHeaders.IF_MODIFIED_SINCE, validator );
+        }
+        else
+        {
+            request.setHeader( HttpHeaders.IF_MODIFIED_SINCE, DateUtils.formatDate( new Date( target.lastModified() ) ) );
+        }
+    }
+
+    /**
+     * Shut down the download threads and connection pools. Requests still running when this is called will fail.
+     */
     @Override
     public void close()
-            throws Exception
     {
         if ( executorService != null )
         {
             executorService.shutdown();
-            executorService.awaitTermination( 30, TimeUnit.SECONDS );
+            try
+            {
+                executorService.awaitTermination( 30, TimeUnit.SECONDS );
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
         }
+
+        artifactListExecutor.shutdownNow();
+        IOUtils.closeQuietly( hedger );
+        IOUtils.closeQuietly( client );
+        IOUtils.closeQuietly( asyncDownloader );
+        IOUtils.closeQuietly( segmentedDownloader );
+        partFiles.close();
     }
 }
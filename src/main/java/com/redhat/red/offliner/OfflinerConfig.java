@@ -18,6 +18,7 @@ package com.redhat.red.offliner;
 import com.redhat.red.offliner.cli.Options;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 public class OfflinerConfig
 {
@@ -31,14 +32,41 @@ public class OfflinerConfig
 
     private String proxy;
 
+    private DownloadEngine downloadEngine;
+
+    private boolean virtualThreads;
+
+    private int segments;
+
+    private long segmentThreshold;
+
+    private boolean adaptiveConcurrency;
+
+    private File negativeCacheFile;
+
+    private long negativeCacheTtl;
+
+    private int bufferSize;
+
     private OfflinerConfig( final File mavenSettingsXml, final String mavenTypeMapping, final int threads,
-                           final int connections, final String proxy )
+                           final int connections, final String proxy, final DownloadEngine downloadEngine,
+                           final boolean virtualThreads, final int segments, final long segmentThreshold,
+                           final boolean adaptiveConcurrency, final File negativeCacheFile,
+                           final long negativeCacheTtl, final int bufferSize )
     {
         this.mavenSettingsXml = mavenSettingsXml;
         this.mavenTypeMapping = mavenTypeMapping;
         this.threads = threads;
         this.connections = connections;
         this.proxy = proxy;
+        this.downloadEngine = downloadEngine;
+        this.virtualThreads = virtualThreads;
+        this.segments = segments;
+        this.segmentThreshold = segmentThreshold;
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        this.negativeCacheFile = negativeCacheFile;
+        this.negativeCacheTtl = negativeCacheTtl;
+        this.bufferSize = bufferSize;
     }
 
     public static Builder builder()
@@ -71,6 +99,73 @@ public class OfflinerConfig
         return mavenTypeMapping;
     }
 
+    public DownloadEngine getDownloadEngine()
+    {
+        return downloadEngine;
+    }
+
+    /**
+     * @return true if each download should run on its own virtual thread (when the JVM supports them), with
+     * concurrency bounded by {@link #getConnections()} instead of {@link #getThreads()}
+     */
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    /**
+     * @return the number of byte ranges to fetch concurrently when downloading a file of at least
+     * {@link #getSegmentThreshold()} bytes. A value below 2 disables segmented downloads, which is the default, since
+     * each segment takes its own connection to the repository.
+     */
+    public int getSegments()
+    {
+        return segments;
+    }
+
+    /**
+     * @return the minimum size (in bytes) of files that are downloaded in {@link #getSegments()} segments (default:
+     * 64MB)
+     */
+    public long getSegmentThreshold()
+    {
+        return segmentThreshold;
+    }
+
+    /**
+     * @return true if the number of concurrent requests to each repository should adapt to its observed latency and
+     * errors, within {@link #getConnections()}. See {@link AdaptiveLimiter}.
+     */
+    public boolean isAdaptiveConcurrency()
+    {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * @return the file to keep the repositories' 404s in between runs, or null to only remember them in memory. See
+     * {@link NegativeLookupCache}.
+     */
+    public File getNegativeCacheFile()
+    {
+        return negativeCacheFile;
+    }
+
+    /**
+     * @return how long (in milliseconds) a 404 is remembered
+     */
+    public long getNegativeCacheTtl()
+    {
+        return negativeCacheTtl;
+    }
+
+    /**
+     * @return the size (in bytes) of the buffers that downloads are written to disk from. See {@link ChannelCopier}.
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
     public static class Builder
     {
         private File mavenSettingsXml;
@@ -83,6 +178,22 @@ public class OfflinerConfig
 
         private String proxy;
 
+        private DownloadEngine downloadEngine = DownloadEngine.BLOCKING;
+
+        private boolean virtualThreads;
+
+        private int segments = 1;
+
+        private long segmentThreshold = 64L * 1024L * 1024L;
+
+        private boolean adaptiveConcurrency;
+
+        private File negativeCacheFile;
+
+        private long negativeCacheTtl = TimeUnit.HOURS.toMillis( 24 );
+
+        private int bufferSize = ChannelCopier.DEFAULT_BUFFER_SIZE;
+
         private Builder()
         {
         }
@@ -117,9 +228,59 @@ public class OfflinerConfig
             return this;
         }
 
+        public Builder withDownloadEngine( final DownloadEngine downloadEngine )
+        {
+            this.downloadEngine = downloadEngine;
+            return this;
+        }
+
+        public Builder withVirtualThreads( final boolean virtualThreads )
+        {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public Builder withSegments( final int segments )
+        {
+            this.segments = segments;
+            return this;
+        }
+
+        public Builder withSegmentThreshold( final long segmentThreshold )
+        {
+            this.segmentThreshold = segmentThreshold;
+            return this;
+        }
+
+        public Builder withAdaptiveConcurrency( final boolean adaptiveConcurrency )
+        {
+            this.adaptiveConcurrency = adaptiveConcurrency;
+            return this;
+        }
+
+        public Builder withNegativeCacheFile( final File negativeCacheFile )
+        {
+            this.negativeCacheFile = negativeCacheFile;
+            return this;
+        }
+
+        public Builder withNegativeCacheTtl( final long negativeCacheTtl )
+        {
+            this.negativeCacheTtl = negativeCacheTtl;
+            return this;
+        }
+
+        public Builder withBufferSize( final int bufferSize )
+        {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
         public OfflinerConfig build()
         {
-            return new OfflinerConfig( mavenSettingsXml, mavenTypeMapping, threads, connections, proxy );
+            return new OfflinerConfig( mavenSettingsXml, mavenTypeMapping, threads, connections, proxy,
+                                       downloadEngine, virtualThreads, segments, segmentThreshold,
+                                       adaptiveConcurrency, negativeCacheFile, negativeCacheTtl, bufferSize );
         }
 
         public Builder fromOptions( final Options opts )
@@ -129,6 +290,14 @@ public class OfflinerConfig
             this.threads = opts.getThreads();
             this.connections = opts.getConnections();
             this.proxy = opts.getProxy();
+            this.downloadEngine = opts.getEngine();
+            this.virtualThreads = opts.isVirtualThreads();
+            this.segments = opts.getSegments();
+            this.segmentThreshold = opts.getSegmentThreshold() * 1024L * 1024L;
+            this.adaptiveConcurrency = opts.isAdaptiveConcurrency();
+            this.negativeCacheFile = opts.getNegativeCacheFile();
+            this.negativeCacheTtl = TimeUnit.HOURS.toMillis( opts.getNegativeCacheTtl() );
+            this.bufferSize = opts.getBufferSize() * 1024;
 
             return this;
         }
@@ -21,7 +21,10 @@ import com.redhat.red.offliner.model.ArtifactList;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class OfflinerRequest
 {
@@ -42,14 +45,35 @@ public class OfflinerRequest
 
     private List<String> repoUrls;
 
+    private boolean journalEnabled;
+
+    private boolean localChecksums;
+
+    private double remoteChecksumSample;
+
+    private Map<String, Integer> repoConnectionLimits;
+
+    private double hedgePercentile;
+
+    private boolean revalidate;
+
     private OfflinerRequest( final List<ArtifactList> artifactLists, List<String> artifacttListFiles, File downloadDir,
-                             boolean metadataSkipped, final List<String> repoUrls )
+                             boolean metadataSkipped, final List<String> repoUrls, final boolean journalEnabled,
+                             final boolean localChecksums, final double remoteChecksumSample,
+                             final Map<String, Integer> repoConnectionLimits, final double hedgePercentile,
+                             final boolean revalidate )
     {
         this.artifactLists = artifactLists;
         this.artifacttListFiles = artifacttListFiles;
         this.downloadDir = downloadDir;
         this.metadataSkipped = metadataSkipped;
         this.repoUrls = repoUrls;
+        this.journalEnabled = journalEnabled;
+        this.localChecksums = localChecksums;
+        this.remoteChecksumSample = remoteChecksumSample;
+        this.repoConnectionLimits = Collections.unmodifiableMap( repoConnectionLimits );
+        this.hedgePercentile = hedgePercentile;
+        this.revalidate = revalidate;
     }
 
     public List<String> getArtifactListFiles()
@@ -77,6 +101,69 @@ public class OfflinerRequest
         return artifactLists;
     }
 
+    /**
+     * @return true if completed downloads should be recorded in the {@link com.redhat.red.offliner.DownloadJournal} of
+     * the download directory, so a restarted run can skip them without reading them, and resume interrupted ones.
+     * It's off by default, since the journal is a file in the download directory.
+     */
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+    /**
+     * @return true if the .sha1 and .md5 files of each artifact should be written from the digests calculated while
+     * downloading (or verifying) it, instead of being downloaded themselves
+     */
+    public boolean isLocalChecksums()
+    {
+        return localChecksums;
+    }
+
+    /**
+     * @return the fraction (0 to 1) of artifacts whose remote .sha1 file is still fetched when using
+     * {@link #isLocalChecksums()}, to cross-verify the local digest against it
+     */
+    public double getRemoteChecksumSample()
+    {
+        return remoteChecksumSample;
+    }
+
+    /**
+     * @return the Map of repository URLs to the maximum number of connections to open to each of them at once.
+     * Repositories that aren't in the Map can use all of the configured connections. The limits only hold while the
+     * request runs; if other requests to the same repository host run at the same time, the lowest limit applies.
+     */
+    public Map<String, Integer> getRepoConnectionLimits()
+    {
+        return repoConnectionLimits;
+    }
+
+    /**
+     * @return the percentile (0 to 100) of repository response latency after which a download that is still waiting
+     * for the response headers of one repository is also requested from the next one, treating the repositories as
+     * equivalent mirrors. The first 200 response is used, and the other request is cancelled. 0 disables hedging.
+     */
+    public double getHedgePercentile()
+    {
+        return hedgePercentile;
+    }
+
+    public boolean isHedging()
+    {
+        return hedgePercentile > 0;
+    }
+
+    /**
+     * @return true if existing files without a checksum to verify them should be revalidated with a conditional
+     * request (If-None-Match or If-Modified-Since), instead of being assumed current. Only a 200 response replaces
+     * them; a 304 leaves them alone.
+     */
+    public boolean isRevalidate()
+    {
+        return revalidate;
+    }
+
     public static class Builder
     {
         private List<ArtifactList> artifactLists = new ArrayList<>();
@@ -89,6 +176,18 @@ public class OfflinerRequest
 
         private List<String> repoUrls = new ArrayList<>();
 
+        private boolean journalEnabled;
+
+        private boolean localChecksums;
+
+        private double remoteChecksumSample;
+
+        private Map<String, Integer> repoConnectionLimits = new LinkedHashMap<>();
+
+        private double hedgePercentile;
+
+        private boolean revalidate;
+
         private Builder(){}
 
         public OfflinerRequest build()
@@ -98,7 +197,10 @@ public class OfflinerRequest
                 repoUrls = DEFAULT_URLS;
             }
 
-            return new OfflinerRequest( artifactLists, artifactListFiles, downloadDir, metadataSkipped, repoUrls );
+            return new OfflinerRequest( artifactLists, artifactListFiles, downloadDir, metadataSkipped, repoUrls,
+                                        journalEnabled, localChecksums, remoteChecksumSample,
+                                        new LinkedHashMap<>( repoConnectionLimits ), hedgePercentile,
+                                        revalidate );
         }
 
         public Builder withRepoUrl( String repoUrl )
@@ -119,6 +221,54 @@ public class OfflinerRequest
             return this;
         }
 
+        public Builder withJournal()
+        {
+            this.journalEnabled = true;
+            return this;
+        }
+
+        public Builder withoutJournal()
+        {
+            this.journalEnabled = false;
+            return this;
+        }
+
+        public Builder withLocalChecksums()
+        {
+            this.localChecksums = true;
+            return this;
+        }
+
+        public Builder withRemoteChecksums()
+        {
+            this.localChecksums = false;
+            return this;
+        }
+
+        public Builder withRemoteChecksumSample( final double remoteChecksumSample )
+        {
+            this.remoteChecksumSample = remoteChecksumSample;
+            return this;
+        }
+
+        public Builder withRepoConnectionLimit( final String repoUrl, final int maxConnections )
+        {
+            this.repoConnectionLimits.put( repoUrl, maxConnections );
+            return this;
+        }
+
+        public Builder withHedging( final double hedgePercentile )
+        {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        public Builder withRevalidation()
+        {
+            this.revalidate = true;
+            return this;
+        }
+
         public Builder withDownloadDir( File downloadDir )
         {
             this.downloadDir = downloadDir;
@@ -143,6 +293,12 @@ public class OfflinerRequest
             this.downloadDir = opts.getDownloads();
             this.metadataSkipped = opts.isSkipMetadata();
             this.repoUrls = opts.getBaseUrls();
+            this.journalEnabled = opts.isJournal();
+            this.localChecksums = opts.isLocalChecksums();
+            this.remoteChecksumSample = opts.getRemoteChecksumSample();
+            this.repoConnectionLimits.putAll( opts.getRepoConnectionLimits() );
+            this.hedgePercentile = opts.getHedgePercentile();
+            this.revalidate = opts.isRevalidate();
             return this;
         }
     }
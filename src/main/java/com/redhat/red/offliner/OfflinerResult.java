@@ -15,6 +15,7 @@
  */
 package com.redhat.red.offliner;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -33,6 +34,10 @@ public class OfflinerResult
 
     private Map<String, String> warns = new ConcurrentHashMap<>();
 
+    private Map<String, String> checksumConflicts = new ConcurrentHashMap<>();
+
+    private Map<String, RepositoryScore> repositoryScores = Collections.emptyMap();
+
     public OfflinerResult( final OfflinerRequest request )
     {
         this.request = request;
@@ -117,4 +122,32 @@ public class OfflinerResult
     {
         this.warns.put(path, warn);
     }
+
+    /**
+     * @return the Map of paths that were given different checksums by different artifact lists, to a description of
+     * the conflict
+     */
+    public Map<String, String> getChecksumConflicts()
+    {
+        return checksumConflicts;
+    }
+
+    public void addChecksumConflict( final String path, final String conflict )
+    {
+        this.checksumConflicts.put( path, conflict );
+    }
+
+    /**
+     * @return the Map of the request's repository URLs (in order of priority) to how each of them has responded,
+     * as of the end of the request. The scores also cover earlier requests to the same {@link Offliner}.
+     */
+    public Map<String, RepositoryScore> getRepositoryScores()
+    {
+        return repositoryScores;
+    }
+
+    public void setRepositoryScores( final Map<String, RepositoryScore> repositoryScores )
+    {
+        this.repositoryScores = repositoryScores;
+    }
 }
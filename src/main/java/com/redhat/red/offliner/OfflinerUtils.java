@@ -15,6 +15,7 @@
  */
 package com.redhat.red.offliner;
 
+import com.redhat.red.offliner.alist.io.ManifestCompression;
 import com.redhat.red.offliner.cli.Main;
 import com.redhat.red.offliner.cli.Options;
 import com.redhat.red.offliner.model.ArtifactList;
@@ -33,8 +34,11 @@ import org.kohsuke.args4j.CmdLineException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.*;
 
@@ -97,6 +101,45 @@ public class OfflinerUtils
         } );
     }
 
+    /**
+     * @return true if the path is a checksum (sha or md5) file
+     */
+    public static boolean isChecksumPath( String path )
+    {
+        return path.endsWith( Offliner.SHA_SUFFIX ) || path.endsWith( Offliner.MD5_SUFFIX );
+    }
+
+    /**
+     * @return the path of the file a checksum (sha or md5) path belongs to, or null if the path isn't a checksum
+     */
+    public static String getChecksumBase( String path )
+    {
+        if ( path.endsWith( Offliner.SHA_SUFFIX ) )
+        {
+            return path.substring( 0, path.length() - Offliner.SHA_SUFFIX.length() );
+        }
+        if ( path.endsWith( Offliner.MD5_SUFFIX ) )
+        {
+            return path.substring( 0, path.length() - Offliner.MD5_SUFFIX.length() );
+        }
+        return null;
+    }
+
+    /**
+     * Write the checksum files (sha and md5) of the given file.
+     *
+     * @param target The file the checksums belong to
+     * @param sha1 The SHA-1 of the file content
+     * @param md5 The MD5 of the file content
+     * @throws IOException In case a checksum file can't be written
+     */
+    public static void writeChecksumFiles( File target, String sha1, String md5 )
+            throws IOException
+    {
+        FileUtils.write( new File( target.getPath() + Offliner.SHA_SUFFIX ), sha1, StandardCharsets.US_ASCII );
+        FileUtils.write( new File( target.getPath() + Offliner.MD5_SUFFIX ), md5, StandardCharsets.US_ASCII );
+    }
+
     /**
      * Scan the download target directory for Maven POM files, which will be used to generate maven-metadata.xml
      * (Maven repository metadata) files.
@@ -203,11 +246,9 @@ public class OfflinerUtils
         List<String> headerArgs = new ArrayList<>();
         for ( String manifest : manifests )
         {
-            File file = new File( manifest );
-            List<String> contents = new ArrayList<>();
             try
             {
-                contents = FileUtils.readLines( file );
+                readHeaderArgs( new File( manifest ), headerArgs );
             }
             catch ( IOException e )
             {
@@ -215,11 +256,29 @@ public class OfflinerUtils
                 System.err.println( "Failed to read header in manifest file." );
                 System.exit( 1 );
             }
-            if ( null == contents || contents.isEmpty() || !contents.get(0).equals( HEADER_START ) )
+        }
+        String[] headerArgsArr = headerArgs.toArray( new String[ headerArgs.size() ] );
+        String[] newArgs = (String[]) ArrayUtils.addAll( headerArgsArr, args );
+        return newArgs;
+    }
+
+    /**
+     * Read the options in the header of a manifest file into the given list. Only the lines up to the end of the
+     * header are read, so this costs next to nothing for large manifests, and for manifests without a header.
+     */
+    private static void readHeaderArgs( File file, List<String> headerArgs )
+            throws IOException
+    {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader( ManifestCompression.open( file ), StandardCharsets.UTF_8 ) ))
+        {
+            String c = reader.readLine();
+            if ( !HEADER_START.equals( c ) )
             {
-                continue;
+                return;
             }
-            for ( String c : contents )
+
+            while ( ( c = reader.readLine() ) != null )
             {
                 if ( c.equals( HEADER_START ) )
                 {
@@ -245,9 +304,6 @@ public class OfflinerUtils
                 }
             }
         }
-        String[] headerArgsArr = headerArgs.toArray( new String[ headerArgs.size() ] );
-        String[] newArgs = (String[]) ArrayUtils.addAll( headerArgsArr, args );
-        return newArgs;
     }
 
     /**
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the part files of in-flight downloads, so they can be cleaned up when a download fails, when the
+ * {@link Offliner} is closed, or when the JVM shuts down. Unlike {@link File#deleteOnExit()}, a part file is forgotten
+ * as soon as its download is over, so this only ever holds as many entries as there are downloads in flight.
+ * <p>
+ * Part files that can be resumed by a later run are marked with {@link #keep(File, boolean)}, and are left in place.
+ * <p>
+ * This class is thread-safe.
+ */
+final class PartFiles
+        implements Closeable
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    /**
+     * In-flight part files, mapped to whether they should be kept for resuming.
+     */
+    private final Map<File, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    private final Thread shutdownHook = new Thread( this::cleanup, "offliner-part-files" );
+
+    PartFiles()
+    {
+        Runtime.getRuntime().addShutdownHook( shutdownHook );
+    }
+
+    /**
+     * Start tracking the part file of the given target. It isn't created here.
+     *
+     * @param target The file the download will end up in
+     * @return The part file to download into
+     */
+    File open( final File target )
+    {
+        final File part = new File( target.getParentFile(), target.getName() + DownloadJournal.PART_SUFFIX );
+        inFlight.put( part, Boolean.FALSE );
+        return part;
+    }
+
+    /**
+     * Set whether the given part file should be kept for resuming if its download doesn't complete.
+     */
+    void keep( final File part, final boolean keep )
+    {
+        inFlight.replace( part, keep );
+    }
+
+    /**
+     * Stop tracking the given part file, because its download is over. If it's still there (the download failed) and
+     * isn't to be kept, it's deleted.
+     */
+    void release( final File part )
+    {
+        Boolean keep = inFlight.remove( part );
+        if ( Boolean.FALSE.equals( keep ) && part.delete() )
+        {
+            logger.debug( "Deleted part file: {}", part );
+        }
+    }
+
+    private void cleanup()
+    {
+        inFlight.keySet().forEach( this::release );
+    }
+
+    /**
+     * Clean up the part files of downloads that are still in flight, and stop watching for JVM shutdown.
+     */
+    @Override
+    public void close()
+    {
+        cleanup();
+        try
+        {
+            Runtime.getRuntime().removeShutdownHook( shutdownHook );
+        }
+        catch ( final IllegalStateException e )
+        {
+            // already shutting down, and the hook will run (or is running) anyway.
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+/**
+ * Snapshot of how one repository has been responding to the downloads of an {@link Offliner}, as kept by its
+ * scoreboard. Every download attempt counts once, whether it's answered (see {@link #getSuccesses()} and
+ * {@link #getNotFound()}) or fails (see {@link #getFailures()}).
+ */
+public class RepositoryScore
+{
+    /**
+     * State of the repository's circuit breaker.
+     */
+    public enum Circuit
+    {
+        /**
+         * The repository is healthy, and tried in its configured order.
+         */
+        CLOSED,
+        /**
+         * The repository failed too many times in a row, so it's tried only after all the others for a while.
+         */
+        OPEN,
+        /**
+         * The repository was ejected, but the next attempts will tell whether it has recovered.
+         */
+        HALF_OPEN
+    }
+
+    private final String repositoryUrl;
+
+    private final long requests;
+
+    private final long successes;
+
+    private final long notFound;
+
+    private final long failures;
+
+    private final long firstByteP50Millis;
+
+    private final long firstByteP99Millis;
+
+    private final double throughput;
+
+    private final Circuit circuit;
+
+    public RepositoryScore( final String repositoryUrl, final long requests, final long successes,
+                            final long notFound, final long failures, final long firstByteP50Millis,
+                            final long firstByteP99Millis, final double throughput, final Circuit circuit )
+    {
+        this.repositoryUrl = repositoryUrl;
+        this.requests = requests;
+        this.successes = successes;
+        this.notFound = notFound;
+        this.failures = failures;
+        this.firstByteP50Millis = firstByteP50Millis;
+        this.firstByteP99Millis = firstByteP99Millis;
+        this.throughput = throughput;
+        this.circuit = circuit;
+    }
+
+    public String getRepositoryUrl()
+    {
+        return repositoryUrl;
+    }
+
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * @return the number of requests answered with content (2xx), or confirming the content is current (304)
+     */
+    public long getSuccesses()
+    {
+        return successes;
+    }
+
+    /**
+     * @return the number of requests answered with 404
+     */
+    public long getNotFound()
+    {
+        return notFound;
+    }
+
+    /**
+     * @return the number of requests that got no response, or a 5xx or 429 one
+     */
+    public long getFailures()
+    {
+        return failures;
+    }
+
+    public double getSuccessRate()
+    {
+        return requests == 0 ? 0 : (double) successes / requests;
+    }
+
+    public double getNotFoundRate()
+    {
+        return requests == 0 ? 0 : (double) notFound / requests;
+    }
+
+    /**
+     * @return the median time to the response headers, in milliseconds, or -1 if nothing was answered
+     */
+    public long getFirstByteP50Millis()
+    {
+        return firstByteP50Millis;
+    }
+
+    /**
+     * @return the 99th percentile of the time to the response headers, in milliseconds, or -1 if nothing was answered
+     */
+    public long getFirstByteP99Millis()
+    {
+        return firstByteP99Millis;
+    }
+
+    /**
+     * @return the bytes per second transferred in response bodies, excluding the time to the headers
+     */
+    public double getThroughput()
+    {
+        return throughput;
+    }
+
+    public Circuit getCircuit()
+    {
+        return circuit;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s: %d requests, %.1f%% successful, %.1f%% not found, %d failed, first byte p50=%dms "
+                                      + "p99=%dms, %.0f bytes/s, circuit %s", repositoryUrl, requests,
+                              100 * getSuccessRate(), 100 * getNotFoundRate(), failures, firstByteP50Millis,
+                              firstByteP99Millis, throughput, circuit );
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import com.redhat.red.offliner.RepositoryScore.Circuit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps score of how each repository (base URL) responds during a run: success and 404 rates, time to the response
+ * headers, and throughput. It also acts as a circuit breaker per repository. After {@link #FAILURE_THRESHOLD}
+ * failures in a row (no response, or a 5xx or 429 one), the repository is ejected: it goes after all the others in
+ * {@link #order(List)} for {@link #OPEN_MILLIS}, doubling every time it's ejected again, up to
+ * {@link #MAX_OPEN_MILLIS}. Then it goes back to its place (half-open), and the next response it gives decides
+ * whether it stays there or is ejected again.
+ * <p>
+ * Healthy repositories are never reordered among themselves, however slow, so content that exists in several of them
+ * is still taken from the one with the highest priority. An ejected repository is still tried last rather than
+ * skipped, so content that only it has can still be downloaded.
+ * <p>
+ * An {@link Offliner} keeps a single scoreboard for circuit breaking, shared by every request it runs. Each request
+ * records into its own {@link #newRequestScoreboard() request scoreboard}, which passes everything on to the shared
+ * one, so the scores reported for a request only count its own downloads.
+ */
+final class RepositoryScoreboard
+{
+    static final int FAILURE_THRESHOLD = 5;
+
+    static final long OPEN_MILLIS = 30 * 1000;
+
+    static final long MAX_OPEN_MILLIS = 10 * 60 * 1000;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Map<String, Score> scores = new ConcurrentHashMap<>();
+
+    private final LongSupplier clock;
+
+    /**
+     * The scoreboard that decides which repositories are ejected, or null if this is it.
+     */
+    private final RepositoryScoreboard shared;
+
+    RepositoryScoreboard()
+    {
+        this( System::currentTimeMillis );
+    }
+
+    /**
+     * @param clock The source of the current time in milliseconds
+     */
+    RepositoryScoreboard( final LongSupplier clock )
+    {
+        this( clock, null );
+    }
+
+    private RepositoryScoreboard( final LongSupplier clock, final RepositoryScoreboard shared )
+    {
+        this.clock = clock;
+        this.shared = shared;
+    }
+
+    /**
+     * @return a scoreboard that keeps the scores of a single request, and passes everything it records on to this
+     * one. Its repositories are ordered, and their circuits reported, by this one.
+     */
+    RepositoryScoreboard newRequestScoreboard()
+    {
+        return new RepositoryScoreboard( clock, this );
+    }
+
+    private Score scoreFor( final String baseUrl )
+    {
+        return scores.computeIfAbsent( baseUrl, ( url ) -> new Score() );
+    }
+
+    /**
+     * @return the given repositories with those currently ejected moved to the end, otherwise in the same order. The
+     * given List is returned as is if none are ejected.
+     */
+    List<String> order( final List<String> baseUrls )
+    {
+        if ( shared != null )
+        {
+            return shared.order( baseUrls );
+        }
+
+        final long now = clock.getAsLong();
+        List<String> healthy = null;
+        List<String> ejected = null;
+        for ( int i = 0; i < baseUrls.size(); i++ )
+        {
+            String baseUrl = baseUrls.get( i );
+            Score score = scores.get( baseUrl );
+            if ( score != null && score.isOpen( now ) )
+            {
+                if ( ejected == null )
+                {
+                    healthy = new ArrayList<>( baseUrls.subList( 0, i ) );
+                    ejected = new ArrayList<>();
+                }
+                ejected.add( baseUrl );
+            }
+            else if ( healthy != null )
+            {
+                healthy.add( baseUrl );
+            }
+        }
+
+        if ( ejected == null )
+        {
+            return baseUrls;
+        }
+
+        healthy.addAll( ejected );
+        return healthy;
+    }
+
+    /**
+     * Record the response headers the repository sent for a request.
+     *
+     * @param firstByteNanos The time from sending the request to receiving the headers
+     */
+    void onResponse( final String baseUrl, final int statusCode, final long firstByteNanos )
+    {
+        Score score = scoreFor( baseUrl );
+        score.firstByte.record( firstByteNanos );
+        if ( statusCode >= 500 || statusCode == 429 )
+        {
+            failed( baseUrl, score );
+        }
+        else
+        {
+            score.answered( statusCode );
+        }
+
+        if ( shared != null )
+        {
+            shared.onResponse( baseUrl, statusCode, firstByteNanos );
+        }
+    }
+
+    /**
+     * Record a request to the repository that got no response.
+     */
+    void onFailure( final String baseUrl )
+    {
+        failed( baseUrl, scoreFor( baseUrl ) );
+        if ( shared != null )
+        {
+            shared.onFailure( baseUrl );
+        }
+    }
+
+    /**
+     * Record a response body downloaded from the repository.
+     *
+     * @param bytes The size of the body
+     * @param nanos The time from receiving the headers to the end of the body
+     */
+    void onTransfer( final String baseUrl, final long bytes, final long nanos )
+    {
+        scoreFor( baseUrl ).transferred( bytes, nanos );
+        if ( shared != null )
+        {
+            shared.onTransfer( baseUrl, bytes, nanos );
+        }
+    }
+
+    private void failed( final String baseUrl, final Score score )
+    {
+        long openUntil = score.failed( clock.getAsLong() );
+        // only the shared scoreboard's circuits count, so only it warns about them.
+        if ( openUntil > 0 && shared == null )
+        {
+            logger.warn( "Repository {} failed {} times in a row. Trying it last for the next {}s.", baseUrl,
+                         FAILURE_THRESHOLD, ( openUntil - clock.getAsLong() ) / 1000 );
+        }
+    }
+
+    /**
+     * @return the scores of the given repositories (in the same order), including those that weren't used yet
+     */
+    Map<String, RepositoryScore> getScores( final Collection<String> baseUrls )
+    {
+        final long now = clock.getAsLong();
+        Map<String, RepositoryScore> result = new LinkedHashMap<>();
+        baseUrls.forEach( ( baseUrl ) -> {
+            Circuit circuit = circuitOf( baseUrl, now );
+            result.put( baseUrl, scoreFor( baseUrl ).snapshot( baseUrl, circuit ) );
+        } );
+        return result;
+    }
+
+    private Circuit circuitOf( final String baseUrl, final long now )
+    {
+        if ( shared != null )
+        {
+            return shared.circuitOf( baseUrl, now );
+        }
+
+        Score score = scores.get( baseUrl );
+        return score == null ? Circuit.CLOSED : score.circuit( now );
+    }
+
+    private static final class Score
+    {
+        private final LatencyTracker firstByte = new LatencyTracker();
+
+        private long requests;
+
+        private long successes;
+
+        private long notFound;
+
+        private long failures;
+
+        private long bytes;
+
+        private long transferNanos;
+
+        private int consecutiveFailures;
+
+        private int ejections;
+
+        private long openUntil;
+
+        private synchronized void answered( final int statusCode )
+        {
+            requests++;
+            if ( ( statusCode >= 200 && statusCode < 300 ) || statusCode == 304 )
+            {
+                successes++;
+            }
+            else if ( statusCode == 404 )
+            {
+                notFound++;
+            }
+
+            consecutiveFailures = 0;
+            ejections = 0;
+            openUntil = 0;
+        }
+
+        /**
+         * @return the time the repository is ejected until, if this failure ejected it, or 0
+         */
+        private synchronized long failed( final long now )
+        {
+            requests++;
+            failures++;
+            if ( ++consecutiveFailures < FAILURE_THRESHOLD || now < openUntil )
+            {
+                // requests that were already in flight when it was ejected don't eject it again.
+                return 0;
+            }
+
+            long open = Math.min( MAX_OPEN_MILLIS, OPEN_MILLIS << Math.min( ejections, 20 ) );
+            ejections++;
+            openUntil = now + open;
+            return openUntil;
+        }
+
+        private synchronized void transferred( final long bytes, final long nanos )
+        {
+            this.bytes += bytes;
+            this.transferNanos += nanos;
+        }
+
+        private synchronized boolean isOpen( final long now )
+        {
+            return now < openUntil;
+        }
+
+        private synchronized Circuit circuit( final long now )
+        {
+            return now < openUntil ? Circuit.OPEN : openUntil > 0 ? Circuit.HALF_OPEN : Circuit.CLOSED;
+        }
+
+        private synchronized RepositoryScore snapshot( final String baseUrl, final Circuit circuit )
+        {
+            double throughput = transferNanos == 0 ? 0 : bytes / ( transferNanos / 1E9 );
+            return new RepositoryScore( baseUrl, requests, successes, notFound, failures,
+                                        firstByte.percentileMillis( 50 ), firstByte.percentileMillis( 99 ),
+                                        throughput, circuit );
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads large files as a number of byte ranges, fetched concurrently and written at their offsets into a
+ * preallocated part file. The first range is read from the response that revealed the file is large, so that request
+ * isn't wasted; the rest are fetched with range requests on their own threads. Once every range is in place, the part
+ * file is hashed from start to end, so it can be verified like any other download.
+ * <p>
+ * Segment threads only ever wait for connections, never for each other, so they can't starve the download threads.
+ */
+final class SegmentedDownloader
+        implements Closeable
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final CloseableHttpClient client;
+
+    private final long threshold;
+
+    private final int segments;
+
+    private final ExecutorService executor;
+
+    private final ChannelCopier copier;
+
+    /**
+     * @param concurrency The most downloads that can run at the same time, each of which may fetch all of its
+     *                    segments at once. Together with the segments, this bounds the segment threads.
+     */
+    SegmentedDownloader( final CloseableHttpClient client, final long threshold, final int segments,
+                         final int concurrency, final ChannelCopier copier )
+    {
+        this.client = client;
+        this.copier = copier;
+        this.threshold = threshold;
+        this.segments = segments;
+        this.executor = Executors.newFixedThreadPool( Math.max( concurrency, 1 ) * segments, ( final Runnable r ) -> {
+            final Thread t = new Thread( r );
+            t.setDaemon( true );
+
+            return t;
+        } );
+    }
+
+    /**
+     * @return true if the content of the given (200) response is large enough to be split, and the server says it
+     * supports range requests for it
+     */
+    boolean isEligible( final HttpResponse response )
+    {
+        return response.getEntity() != null && response.getEntity().getContentLength() >= threshold
+                && Offliner.isRangeSupported( response );
+    }
+
+    /**
+     * Download the content of the given response into the part file, reading its first segment from the response
+     * itself and fetching the others concurrently. The response is closed without reading past the first segment.
+     *
+     * @param response The (200) response of a plain GET of the url
+     * @param url The URL to fetch the other segments from
+     * @param validator The ETag or Last-Modified of the response, used to make sure all segments are of the same
+     *                  content, or null
+     * @param part The part file to write into
+     * @param algorithms The digest algorithms to calculate
+     * @param cookieStore Cookies shared between the downloads of the same artifact list
+     * @return The checksums of the complete part file
+     * @throws IOException In case any segment fails, including when the server doesn't honor a range request. The part
+     * file is left incomplete.
+     */
+    ChecksumOutputStream.Checksum download( final CloseableHttpResponse response, final String url,
+                                            final String validator, final File part, final Set<String> algorithms,
+                                            final CookieStore cookieStore )
+            throws IOException
+    {
+        final long length = response.getEntity().getContentLength();
+        final long size = ( length + segments - 1 ) / segments;
+
+        logger.debug( ">>>Downloading: {} in {} segments of {} bytes", url, segments, size );
+
+        try (RandomAccessFile file = new RandomAccessFile( part, "rw" ); FileChannel channel = file.getChannel())
+        {
+            file.setLength( length );
+
+            final List<Future<?>> fetches = new ArrayList<>();
+            boolean complete = false;
+            try
+            {
+                for ( long from = size; from < length; from += size )
+                {
+                    final long start = from;
+                    final long end = Math.min( from + size, length ) - 1;
+                    fetches.add( executor.submit( () -> {
+                        fetchRange( url, validator, cookieStore, channel, start, end );
+                        return null;
+                    } ) );
+                }
+
+                try
+                {
+                    copier.copy( response.getEntity().getContent(), channel, 0, Math.min( size, length ) );
+                }
+                finally
+                {
+                    // closing the response (rather than its content) drops the connection instead of draining it.
+                    response.close();
+                }
+
+                for ( Future<?> fetch : fetches )
+                {
+                    fetch.get();
+                }
+                complete = true;
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while downloading: " + url );
+            }
+            catch ( final ExecutionException e )
+            {
+                throw new IOException( "Segmented download of: " + url + " failed.", e.getCause() );
+            }
+            finally
+            {
+                if ( !complete )
+                {
+                    fetches.forEach( fetch -> fetch.cancel( true ) );
+                }
+            }
+        }
+
+        return copier.digest( part, algorithms );
+    }
+
+    private void fetchRange( final String url, final String validator, final CookieStore cookieStore,
+                             final FileChannel channel, final long start, final long end )
+            throws IOException
+    {
+        final HttpGet request = new HttpGet( url );
+        request.setHeader( HttpHeaders.RANGE, "bytes=" + start + "-" + end );
+        if ( validator != null )
+        {
+            request.setHeader( HttpHeaders.IF_RANGE, validator );
+        }
+
+        final HttpClientContext context = new HttpClientContext();
+        context.setCookieStore( cookieStore );
+
+        try (CloseableHttpResponse response = client.execute( request, context ))
+        {
+            if ( response.getStatusLine().getStatusCode() != 206 || !Offliner.isRangeFrom( response, start ) )
+            {
+                throw new IOException(
+                        "Range " + start + "-" + end + " of: " + url + " was not served (" + response.getStatusLine()
+                                + ")" );
+            }
+
+            copier.copy( response.getEntity().getContent(), channel, start, end - start + 1 );
+        }
+        finally
+        {
+            request.releaseConnection();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The limits that the requests running at the same time have set for one key (a connection route, or a repository),
+ * so a request's limit holds for as long as it runs, and is lifted when the last request that set one finishes. While
+ * requests with different limits for the same key overlap, the lowest of them applies.
+ * <p>
+ * This class is NOT thread-safe.
+ */
+final class SharedLimits<K>
+{
+    private final Map<K, List<Integer>> limits = new HashMap<>();
+
+    /**
+     * Add a request's limit for the given key.
+     *
+     * @return the limit that applies to the key now
+     */
+    int add( final K key, final int limit )
+    {
+        List<Integer> keyLimits = limits.computeIfAbsent( key, ( k ) -> new ArrayList<>() );
+        keyLimits.add( limit );
+        return Collections.min( keyLimits );
+    }
+
+    /**
+     * Remove a request's limit for the given key, once the request is over.
+     *
+     * @return the limit that applies to the key now, or -1 if no running request has one
+     */
+    int remove( final K key, final int limit )
+    {
+        List<Integer> keyLimits = limits.get( key );
+        if ( keyLimits == null || !keyLimits.remove( Integer.valueOf( limit ) ) )
+        {
+            throw new IllegalStateException( "No limit of " + limit + " was added for: " + key );
+        }
+
+        if ( keyLimits.isEmpty() )
+        {
+            limits.remove( key );
+            return -1;
+        }
+        return Collections.min( keyLimits );
+    }
+}
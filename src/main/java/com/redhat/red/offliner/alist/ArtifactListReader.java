@@ -17,6 +17,7 @@ package com.redhat.red.offliner.alist;
 
 import com.redhat.red.offliner.OfflinerException;
 import com.redhat.red.offliner.model.ArtifactList;
+import com.redhat.red.offliner.model.ArtifactListStream;
 
 import java.io.File;
 import java.io.IOException;
@@ -36,6 +37,31 @@ public interface ArtifactListReader
     ArtifactList readPaths( File file )
             throws IOException, OfflinerException;
 
+    /**
+     * Reads the relative paths in a source file one at a time, so they can be downloaded while the rest of the file
+     * is still being read. Readers that can't parse their format incrementally read the whole list up front, which is
+     * what this default does.
+     *
+     * @param file source file
+     * @return stream of the downloadable files along with list of repositories, or null if the file has no content.
+     * The caller must close it.
+     */
+    default ArtifactListStream streamPaths( File file )
+            throws IOException, OfflinerException
+    {
+        ArtifactList artifactList = readPaths( file );
+        return artifactList == null ? null : ArtifactListStream.of( artifactList );
+    }
+
+    /**
+     * @return true if this reader decodes files compressed in one of the
+     * {@link com.redhat.red.offliner.alist.io.ManifestCompression} formats as it reads them
+     */
+    default boolean isCompressionSupported()
+    {
+        return false;
+    }
+
     /**
      * CHecks if the given file is supported by this paths reader. The check is performed based on the file contents
      * and/or on the filename. It depends only on the sorce format of a concrete paths reader what is possible to check.
@@ -15,107 +15,282 @@
  */
 package com.redhat.red.offliner.alist;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.MapperFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.redhat.red.offliner.alist.io.FoloSerializerModule;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.redhat.red.offliner.alist.io.ManifestCompression;
 import com.redhat.red.offliner.model.ArtifactList;
-import org.apache.commons.io.FileUtils;
-import org.commonjava.indy.folo.dto.TrackedContentDTO;
-import org.commonjava.indy.folo.dto.TrackedContentEntryDTO;
+import com.redhat.red.offliner.model.ArtifactListStream;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
  * {@link ArtifactListReader} implementation that parses JSON report files from the Indy Maven repository manager's Folo
  * add-on, which does content activity tracking on a per-session basis. See:
  * <a href="https://commonjava.github.io/indy/user/addons/folo/index.html">https://commonjava.github.io/indy/user/addons/folo/index.html</a>
+ * <p>
+ * Reports can run to hundreds of megabytes, so they're never bound to a {@code TrackedContentDTO}. Only the
+ * {@code downloads} array is walked, token by token, reading just the {@code path}, {@code originUrl},
+ * {@code localUrl} and {@code sha256} of each entry and skipping everything else. The repositories a report's paths
+ * are downloaded from are only known once the whole report is read, so a stream from {@link #streamPaths(File)}
+ * scans the report for them separately, and only if it's asked for them; a request that names its own repositories
+ * reads the report once. Reports compressed with gzip, xz or zstd are decoded as they're read; see
+ * {@link ManifestCompression}.
  * Created by jdcasey on 11/20/15.
  */
 @Deprecated
 public class FoloReportArtifactListReader
     implements ArtifactListReader
 {
+    private static final String DOWNLOADS = "downloads";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     @Override
     public ArtifactList readPaths( File file )
             throws IOException
     {
-        String json = FileUtils.readFileToString( file );
-        ObjectMapper mapper = newObjectMapper();
+        ArtifactList result = new ArtifactList();
+        Set<String> repositories = new LinkedHashSet<>();
+        try (FoloStream stream = new FoloStream( file ))
+        {
+            String path;
+            while ( ( path = stream.nextPath() ) != null )
+            {
+                result.addPath( path );
+                repositories.add( stream.getRepositoryUrl() );
+                if ( stream.getChecksum() != null )
+                {
+                    result.getChecksums().put( path, stream.getChecksum() );
+                }
+            }
+        }
+
+        repositories.forEach( result::addRepositoryUrl );
+        return result;
+    }
+
+    @Override
+    public ArtifactListStream streamPaths( File file )
+            throws IOException
+    {
+        return new FoloStream( file );
+    }
+
+    @Override
+    public boolean isCompressionSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean supports( File file )
+    {
+        boolean result = ManifestCompression.getUncompressedName( file ).endsWith( ".json" );
+        if ( result )
+        {
+            System.out.println( "WARN: Folo manifest-file format is deprecated and will be removed in future." );
+        }
+        return result;
+    }
+
+    /**
+     * Walks the {@code downloads} array of a report, one entry per {@link #nextPath()}. Entries for metadata files,
+     * and entries with neither an origin nor a local URL, are skipped. The repositories are collected by a separate
+     * pass over the report, the first time {@link #getRepositoryUrls()} is called.
+     */
+    private static final class FoloStream
+            implements ArtifactListStream
+    {
+        private final File file;
+
+        private List<String> repositoryUrls;
+
+        private final JsonParser parser;
+
+        private boolean inDownloads;
+
+        private boolean done;
+
+        private String path;
+
+        private String url;
+
+        private String checksum;
+
+        private FoloStream( final File file )
+                throws IOException
+        {
+            this.file = file;
+            this.parser = JSON_FACTORY.createParser( ManifestCompression.open( file ) );
+        }
+
+        @Override
+        public synchronized List<String> getRepositoryUrls()
+                throws IOException
+        {
+            if ( repositoryUrls == null )
+            {
+                Set<String> repositories = new LinkedHashSet<>();
+                try (FoloStream scan = new FoloStream( file ))
+                {
+                    while ( scan.nextPath() != null )
+                    {
+                        repositories.add( scan.getRepositoryUrl() );
+                    }
+                }
+                repositoryUrls = new ArrayList<>( repositories );
+            }
 
-        TrackedContentDTO report = mapper.readValue( json, TrackedContentDTO.class );
-        Set<TrackedContentEntryDTO> downloads = report.getDownloads();
+            return repositoryUrls;
+        }
 
-        Set<String> repositories = new HashSet<>();
-        List<String> paths = new ArrayList<>();
-        Map<String, String> checksums = new HashMap<String, String>();
-        if ( downloads != null )
+        @Override
+        public String nextPath()
+                throws IOException
         {
-            for ( TrackedContentEntryDTO download : downloads )
+            while ( nextEntry() )
             {
-                String path = download.getPath();
-                if ( path.contains( "maven-metadata.xml" ) )
+                if ( path == null || url == null || path.contains( "maven-metadata.xml" ) )
                 {
                     continue;
                 }
 
-                String url = download.getOriginUrl();
-                if ( url == null )
+                return path;
+            }
+
+            path = null;
+            url = null;
+            checksum = null;
+            return null;
+        }
+
+        @Override
+        public String getChecksum()
+        {
+            return checksum;
+        }
+
+        /**
+         * @return the URL of the repository the last path returned by {@link #nextPath()} was downloaded from
+         */
+        private String getRepositoryUrl()
+        {
+            return url.substring( 0, url.length() - path.length() );
+        }
+
+        /**
+         * Read the next entry of the downloads array into {@link #path}, {@link #url} and {@link #checksum}.
+         * @return false if there are no more entries
+         */
+        private boolean nextEntry()
+                throws IOException
+        {
+            if ( !inDownloads && !findDownloads() )
+            {
+                return false;
+            }
+
+            JsonToken token = parser.nextToken();
+            if ( token != JsonToken.START_OBJECT )
+            {
+                // the end of the array; there's only one downloads array, so there is nothing else to read.
+                inDownloads = false;
+                done = true;
+                return false;
+            }
+
+            path = null;
+            checksum = null;
+            String originUrl = null;
+            String localUrl = null;
+            while ( parser.nextToken() == JsonToken.FIELD_NAME )
+            {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ( value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY )
                 {
-                    url = download.getLocalUrl();
+                    parser.skipChildren();
+                    continue;
                 }
 
-                if ( url != null )
+                switch ( field )
                 {
-                    paths.add( path );
-                    repositories.add( url.substring( 0, url.length() - path.length() ) );
-                    String checksum = download.getSha256();
-                    if ( null != checksum && !checksum.isEmpty() )
-                    {
-                        checksums.put( path, checksum );
-                    }
+                    case "path":
+                        path = parser.getValueAsString();
+                        break;
+                    case "originUrl":
+                        originUrl = parser.getValueAsString();
+                        break;
+                    case "localUrl":
+                        localUrl = parser.getValueAsString();
+                        break;
+                    case "sha256":
+                        checksum = parser.getValueAsString();
+                        break;
+                    default:
+                        // not needed for downloading.
                 }
             }
-        }
 
-        return new ArtifactList( paths, new ArrayList<>( repositories ), checksums );
-    }
-
-    private ObjectMapper newObjectMapper()
-    {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.setSerializationInclusion( JsonInclude.Include.NON_EMPTY );
-        mapper.configure( JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT, true );
+            url = originUrl == null ? localUrl : originUrl;
+            if ( checksum != null && checksum.isEmpty() )
+            {
+                checksum = null;
+            }
+            return true;
+        }
 
-        mapper.enable( SerializationFeature.INDENT_OUTPUT, SerializationFeature.USE_EQUALITY_FOR_OBJECT_ID );
+        /**
+         * Advance the parser to the first entry of the top-level downloads array, skipping anything before it.
+         * @return false if the report has no downloads
+         */
+        private boolean findDownloads()
+                throws IOException
+        {
+            if ( done )
+            {
+                return false;
+            }
 
-        mapper.enable( MapperFeature.AUTO_DETECT_FIELDS );
+            if ( parser.getCurrentToken() == null && parser.nextToken() != JsonToken.START_OBJECT )
+            {
+                done = true;
+                return false;
+            }
 
-        mapper.disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
+            while ( parser.nextToken() == JsonToken.FIELD_NAME )
+            {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ( DOWNLOADS.equals( field ) && value == JsonToken.START_ARRAY )
+                {
+                    inDownloads = true;
+                    return true;
+                }
+                parser.skipChildren();
+            }
 
-        mapper.registerModule( new FoloSerializerModule() );
+            done = true;
+            return false;
+        }
 
-        return mapper;
-    }
+        @Override
+        public void close()
+                throws IOException
+        {
+            parser.close();
+        }
 
-    @Override
-    public boolean supports( File file )
-    {
-        boolean result = file.getName().endsWith( ".json" );
-        if ( result )
+        @Override
+        public String toString()
         {
-            System.out.println( "WARN: Folo manifest-file format is deprecated and will be removed in future." );
+            return file.getPath();
         }
-        return result;
     }
 }
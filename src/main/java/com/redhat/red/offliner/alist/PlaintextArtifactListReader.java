@@ -15,90 +15,195 @@
  */
 package com.redhat.red.offliner.alist;
 
+import com.redhat.red.offliner.alist.io.ManifestCompression;
 import com.redhat.red.offliner.model.ArtifactList;
-import org.apache.commons.io.FileUtils;
+import com.redhat.red.offliner.model.ArtifactListStream;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.regex.Pattern;
 
 import static com.redhat.red.offliner.cli.Options.HEADER_BREAK_REGEX;
 import static com.redhat.red.offliner.cli.Options.HEADER_START;
 
 /**
  * Artifact list paths reader which reads the paths from a plaintext file. On each line a relative path to the
- * repository root is expected. The reader simply reads the lines and returns them. The lines are not trimmed in any way
- * and empty lines are returned along with standard lines which can cause subsequent problems.
+ * repository root is expected, optionally preceded by its checksum and a comma. Whitespace around the fields is
+ * trimmed, and blank lines and comments are skipped. A header (starting with {@link
+ * com.redhat.red.offliner.cli.Options#HEADER_START} and ending with a line matching {@link
+ * com.redhat.red.offliner.cli.Options#HEADER_BREAK_REGEX}) at the top of the file is skipped too.
+ * <p>
+ * {@link #streamPaths(File)} parses the file a line at a time, so manifests with millions of lines never have to be
+ * held in memory. Files compressed with gzip, xz or zstd are decoded as they're read; see {@link ManifestCompression}.
  *
- * Supported files cannot end with .xml or .pom. This is simply to exclude pom files and may be changed in the future.
+ * Supported files cannot end with .xml or .pom (once any compression suffix is removed). This is simply to exclude pom files and may be changed in the future.
  */
 public class PlaintextArtifactListReader implements ArtifactListReader
 {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern HEADER_BREAK = Pattern.compile( HEADER_BREAK_REGEX );
 
     @Override
     public ArtifactList readPaths( final File file ) throws IOException
     {
-        List<String> paths = new ArrayList<>();
-        Map<String, String> checksums = new HashMap<String, String>();
-        List<String> contents = FileUtils.readLines( file );
+        try (ArtifactListStream stream = streamPaths( file ))
+        {
+            if ( stream == null )
+            {
+                return null;
+            }
+
+            ArtifactList result = new ArtifactList();
+            String path;
+            while ( ( path = stream.nextPath() ) != null )
+            {
+                result.getPaths().add( path );
+                if ( stream.getChecksum() != null )
+                {
+                    result.getChecksums().put( path, stream.getChecksum() );
+                }
+            }
+
+            return result;
+        }
+    }
 
-        if ( null == contents || contents.isEmpty() )
+    @Override
+    public ArtifactListStream streamPaths( final File file ) throws IOException
+    {
+        if ( file.length() == 0 )
         {
             return null;
         }
 
-        if ( contents.get(0).equals( HEADER_START ) )
+        return new PlaintextStream( file );
+    }
+
+    @Override
+    public boolean isCompressionSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean supports( final File file )
+    {
+        String filename = ManifestCompression.getUncompressedName( file );
+        // TODO think of a better way how to check if the file is supported by this reader
+        return !filename.endsWith(".json") && !filename.endsWith( ".xml" ) && !filename.endsWith( ".pom" );
+    }
+
+    private static final class PlaintextStream
+            implements ArtifactListStream
+    {
+        private final File file;
+
+        private final BufferedReader reader;
+
+        private boolean started;
+
+        private String checksum;
+
+        private PlaintextStream( final File file )
+                throws IOException
         {
-            List<String> headers = new ArrayList<>();
-            for ( String c : contents )
+            this.file = file;
+            this.reader = new BufferedReader(
+                    new InputStreamReader( ManifestCompression.open( file ), StandardCharsets.UTF_8 ), BUFFER_SIZE );
+        }
+
+        @Override
+        public List<String> getRepositoryUrls()
+        {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String nextPath()
+                throws IOException
+        {
+            String line = reader.readLine();
+            if ( !started )
+            {
+                started = true;
+                if ( HEADER_START.equals( line ) )
+                {
+                    while ( line != null && !HEADER_BREAK.matcher( line ).matches() )
+                    {
+                        line = reader.readLine();
+                    }
+                    line = line == null ? null : reader.readLine();
+                }
+            }
+
+            for ( ; line != null; line = reader.readLine() )
             {
-                headers.add( c );
-                if ( c.matches( HEADER_BREAK_REGEX ) )
+                String path = parse( line.trim() );
+                if ( path != null )
                 {
-                    break;
+                    return path;
                 }
             }
-            contents.removeAll( headers );
+
+            checksum = null;
+            return null;
         }
 
-        for ( String c : contents )
+        /**
+         * Parse a trimmed line of the form {@code [checksum,]path[,...]}, setting {@link #checksum}.
+         * @return the path, or null if the line is blank or a comment
+         */
+        private String parse( final String line )
         {
-            c = c.trim();
-            if ( c.startsWith( "#" ) || c.startsWith( "//" ) || c.startsWith( ";" ) )
+            if ( line.isEmpty() || line.startsWith( "#" ) || line.startsWith( "//" ) || line.startsWith( ";" ) )
             {
                 //common comment types.
-                continue;
-            }
-            // handle potential for spaces around the comma.
-            String[] cArr = c.split( "\\s*,\\s*" );
-            if ( cArr.length == 0 )
-            {
-                continue;
+                return null;
             }
-            else if ( cArr.length == 1 )
+
+            int comma = line.indexOf( ',' );
+            if ( comma < 0 )
             {
-                paths.add(cArr[0]);
+                checksum = null;
+                return line;
             }
-            else
+
+            int end = line.indexOf( ',', comma + 1 );
+            String path = line.substring( comma + 1, end < 0 ? line.length() : end ).trim();
+            String first = line.substring( 0, comma ).trim();
+            if ( path.isEmpty() )
             {
-                paths.add( cArr[1] );
-                checksums.put( cArr[1], cArr[0] );
+                checksum = null;
+                return first.isEmpty() ? null : first;
             }
+
+            checksum = first.isEmpty() ? null : first;
+            return path;
         }
 
-        ArtifactList result = new ArtifactList( paths, Collections.emptyList(), checksums );
-        return result;
-    }
+        @Override
+        public String getChecksum()
+        {
+            return checksum;
+        }
 
-    @Override
-    public boolean supports( final File file )
-    {
-        String filename = file.getName();
-        // TODO think of a better way how to check if the file is supported by this reader
-        return !filename.endsWith(".json") && !filename.endsWith( ".xml" ) && !filename.endsWith( ".pom" );
+        @Override
+        public void close()
+                throws IOException
+        {
+            reader.close();
+        }
+
+        @Override
+        public String toString()
+        {
+            return file.getPath();
+        }
     }
 }
@@ -200,7 +200,9 @@ public class PomArtifactListReader
 
         }
 
-        ArtifactList result = new ArtifactList( new ArrayList<String>( paths ), repoUrls, null );
+        ArtifactList result = new ArtifactList();
+        paths.forEach( result.getPaths()::add );
+        repoUrls.forEach( result::addRepositoryUrl );
         return result;
     }
 
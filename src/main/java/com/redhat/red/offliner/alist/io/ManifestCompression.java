@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.alist.io;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compression formats that manifest files can be given in, detected by their magic bytes rather than their names.
+ * Manifests are decoded as they're read, so they never have to be decompressed to disk first.
+ */
+public enum ManifestCompression
+{
+    NONE( "" ),
+    GZIP( ".gz", 0x1f, 0x8b ),
+    XZ( ".xz", 0xfd, '7', 'z', 'X', 'Z', 0x00 ),
+    ZSTD( ".zst", 0x28, 0xb5, 0x2f, 0xfd );
+
+    private static final int MAX_MAGIC = 6;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String suffix;
+
+    private final int[] magic;
+
+    ManifestCompression( final String suffix, final int... magic )
+    {
+        this.suffix = suffix;
+        this.magic = magic;
+    }
+
+    /**
+     * @return the file name suffix this compression is usually given, such as ".gz"
+     */
+    public String getSuffix()
+    {
+        return suffix;
+    }
+
+    /**
+     * Detect the compression of a file from its first bytes.
+     *
+     * @throws IOException In case the file can't be read
+     */
+    public static ManifestCompression detect( final File file )
+            throws IOException
+    {
+        try (InputStream in = new FileInputStream( file ))
+        {
+            return detect( in );
+        }
+    }
+
+    /**
+     * Open a manifest file, decoding it if it's compressed.
+     *
+     * @return a buffered stream of the manifest's uncompressed content
+     * @throws IOException In case the file can't be read
+     */
+    public static InputStream open( final File file )
+            throws IOException
+    {
+        final InputStream in = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
+        try
+        {
+            in.mark( MAX_MAGIC );
+            final ManifestCompression compression = detect( in );
+            in.reset();
+
+            switch ( compression )
+            {
+                case GZIP:
+                    // manifests are sometimes concatenated from gzipped parts.
+                    return new BufferedInputStream( new GzipCompressorInputStream( in, true ), BUFFER_SIZE );
+                case XZ:
+                    return new BufferedInputStream( new XZCompressorInputStream( in, true ), BUFFER_SIZE );
+                case ZSTD:
+                    return new BufferedInputStream( new ZstdCompressorInputStream( in ), BUFFER_SIZE );
+                default:
+                    return in;
+            }
+        }
+        catch ( final IOException | RuntimeException | LinkageError e )
+        {
+            in.close();
+            throw e instanceof IOException ?
+                    (IOException) e :
+                    new IOException( "Cannot decompress manifest: " + file, e );
+        }
+    }
+
+    /**
+     * @return the name of the file without the suffix of a compression format, so readers can tell the format of
+     * the manifest inside: "folo.json.gz" is read as "folo.json"
+     */
+    public static String getUncompressedName( final File file )
+    {
+        final String name = file.getName();
+        for ( final ManifestCompression compression : values() )
+        {
+            if ( compression != NONE && name.endsWith( compression.suffix ) )
+            {
+                return name.substring( 0, name.length() - compression.suffix.length() );
+            }
+        }
+
+        return name.endsWith( ".zstd" ) ? name.substring( 0, name.length() - ".zstd".length() ) : name;
+    }
+
+    private static ManifestCompression detect( final InputStream in )
+            throws IOException
+    {
+        final int[] header = new int[MAX_MAGIC];
+        int read = 0;
+        int b;
+        while ( read < MAX_MAGIC && ( b = in.read() ) != -1 )
+        {
+            header[read++] = b;
+        }
+
+        for ( final ManifestCompression compression : values() )
+        {
+            if ( compression.matches( header, read ) )
+            {
+                return compression;
+            }
+        }
+
+        return NONE;
+    }
+
+    private boolean matches( final int[] header, final int length )
+    {
+        if ( magic.length == 0 || magic.length > length )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < magic.length; i++ )
+        {
+            if ( header[i] != magic[i] )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
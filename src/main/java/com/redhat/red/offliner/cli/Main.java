@@ -20,6 +20,10 @@ import com.redhat.red.offliner.Offliner;
 import com.redhat.red.offliner.OfflinerException;
 import com.redhat.red.offliner.OfflinerRequest;
 import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.daemon.DaemonClient;
+import com.redhat.red.offliner.daemon.JobRequest;
+import com.redhat.red.offliner.daemon.JobStatus;
+import com.redhat.red.offliner.daemon.OfflinerDaemon;
 import io.honeycomb.beeline.DefaultBeeline;
 import io.honeycomb.beeline.tracing.Span;
 import org.kohsuke.args4j.CmdLineException;
@@ -30,6 +34,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 
 import static com.redhat.red.offliner.Offliner.*;
 import static com.redhat.red.offliner.OfflinerUtils.parseArgsWithHeader;
@@ -63,7 +68,19 @@ public class Main
             System.exit( 1 );
         }
 
-        if ( start )
+        if ( start && opts.isDaemon() )
+        {
+            runDaemon( opts );
+        }
+        else if ( start && opts.isStopDaemon() )
+        {
+            stopDaemon( opts );
+        }
+        else if ( start && !opts.isNoDaemon() && runInDaemon( opts ) )
+        {
+            // the daemon did the work.
+        }
+        else if ( start )
         {
             try
             {
@@ -101,6 +118,120 @@ public class Main
         }
     }
 
+    /**
+     * Serve download jobs until asked to stop, keeping a single {@link Offliner} configured from the given options.
+     */
+    private static void runDaemon( final Options opts )
+    {
+        try (Offliner offliner = new Offliner( OfflinerConfig.builder().fromOptions( opts ).build() );
+             OfflinerDaemon daemon = new OfflinerDaemon( offliner, JobRequest.settingsOf( opts ), opts.getDaemonFile(),
+                                                         opts.getDaemonPort() ))
+        {
+            // a signal shouldn't wait for running jobs the way POST /shutdown does.
+            Runtime.getRuntime().addShutdownHook( new Thread( daemon::stopNow ) );
+            int port = daemon.start();
+            System.out.printf( "Offliner daemon listening on port %d (see: %s).\n", port, opts.getDaemonFile() );
+            daemon.awaitShutdown();
+        }
+        catch ( final IOException e )
+        {
+            e.printStackTrace();
+            System.err.println( "Cannot start daemon. See error output above." );
+            System.exit( 2 );
+        }
+        catch ( final InterruptedException e )
+        {
+            System.err.println( "Interrupted waiting for daemon to shutdown." );
+        }
+    }
+
+    private static void stopDaemon( final Options opts )
+    {
+        try (DaemonClient client = DaemonClient.find( opts.getDaemonFile() ))
+        {
+            if ( client == null )
+            {
+                System.err.println( "No offliner daemon is running." );
+                return;
+            }
+            client.shutdown();
+            System.out.println( "Offliner daemon is stopping." );
+        }
+        catch ( final IOException e )
+        {
+            System.err.println( "Cannot reach offliner daemon: " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Hand the run over to a running daemon, if there is one, and report its progress and results. The daemon
+     * rejects the job if it was started with other Offliner settings than these options give, and Honeycomb tracing
+     * only works in this process, so either way the run stays local.
+     *
+     * @return false if no daemon accepted the job, so it has to run in this process
+     */
+    private static boolean runInDaemon( final Options opts )
+    {
+        try (DaemonClient client = DaemonClient.find( opts.getDaemonFile() ))
+        {
+            if ( client == null )
+            {
+                return false;
+            }
+
+            String honeycomb = System.getProperty( "honeycomb" );
+            if ( honeycomb != null && !honeycomb.trim().isEmpty() )
+            {
+                System.err.println( "Honeycomb tracing isn't available through the offliner daemon, running locally." );
+                return false;
+            }
+
+            JobStatus status;
+            try
+            {
+                status = client.submit( JobRequest.fromOptions( opts ) );
+            }
+            catch ( final IOException e )
+            {
+                System.err.println( "Cannot reach offliner daemon (" + e.getMessage() + "), running locally." );
+                return false;
+            }
+
+            if ( status.getState() == JobStatus.State.REJECTED )
+            {
+                System.err.println( "Offliner daemon was started with other settings (" + status.getMessage()
+                                            + "), running locally. Restart it with these options to use it." );
+                return false;
+            }
+
+            System.out.printf( "Submitted job %s to offliner daemon.\n", status.getId() );
+            status = client.await( status.getId(), ( s ) -> System.out.printf(
+                    "\r%d downloaded, %d avoided, %d failed...", s.getDownloaded(), s.getAvoided(),
+                    s.getErrorCount() ) );
+            System.out.println();
+
+            if ( status.getState() == JobStatus.State.FAILED )
+            {
+                System.err.println( "Offliner daemon job failed: " + status.getMessage() );
+            }
+            printSummary( status.getDownloaded(), status.getAvoided(), status.getWarnCount(), status.getErrorCount(),
+                          status.getChecksumConflicts() );
+            writeErrorLog( status.getErrors(), ( writer, stackTrace ) -> writer.print( stackTrace ) );
+            return true;
+        }
+        catch ( final IOException e )
+        {
+            e.printStackTrace();
+            System.err.println( "Lost connection to offliner daemon. See error output above." );
+            return true;
+        }
+        catch ( final InterruptedException e )
+        {
+            System.err.println( "Interrupted waiting for offliner daemon job." );
+            return true;
+        }
+    }
+
     public Main(Options opts)
             throws MalformedURLException {
         this.opts = opts;
@@ -112,7 +243,15 @@ public class Main
     {
         long start = System.nanoTime();
         Span rootSpan = beeline == null ? null : beeline.startSpan( "root" );
-        this.result = offliner.copyOffline( OfflinerRequest.builder().fromOptions( opts ).build(), beeline, rootSpan );
+        try
+        {
+            this.result =
+                    offliner.copyOffline( OfflinerRequest.builder().fromOptions( opts ).build(), beeline, rootSpan );
+        }
+        finally
+        {
+            offliner.close();
+        }
         long startLogErr = System.nanoTime();
         logErrors();
         if ( rootSpan != null )
@@ -132,14 +271,32 @@ public class Main
      */
     private void logErrors()
     {
-        int downloaded = getDownloaded();
-        int avoided = getAvoided();
         Map<String, Throwable> errors = getErrors();
-        Map<String, String> warns = getWarns();
 
+        printSummary( getDownloaded(), getAvoided(), getWarns().size(), errors.size(),
+                      result == null ? Collections.emptyMap() : result.getChecksumConflicts() );
+        writeErrorLog( errors, ( writer, error ) -> error.printStackTrace( writer ) );
+    }
+
+    private static void printSummary( final int downloaded, final int avoided, final int warned, final int failed,
+                                      final Map<String, String> conflicts )
+    {
         System.out.printf( "%d downloads succeeded.\n%d downloads avoided.\n%d downloads warned.\n%d downloads failed.\n\n", downloaded,
-                           avoided, warns.size(), errors.size() );
+                           avoided, warned, failed );
 
+        if ( !conflicts.isEmpty() )
+        {
+            System.err.printf( "%d paths were given conflicting checksums:\n", conflicts.size() );
+            conflicts.values().forEach( ( conflict ) -> System.err.println( "  " + conflict ) );
+            System.err.println();
+        }
+    }
+
+    /**
+     * Write the details of each download error to {@link Options#ERROR_LOG}.
+     */
+    private static <T> void writeErrorLog( final Map<String, T> errors, final BiConsumer<PrintWriter, T> details )
+    {
         if ( !errors.isEmpty() )
         {
             System.err.printf( "See %s for details.", Options.ERROR_LOG );
@@ -147,10 +304,10 @@ public class Main
             final File errorLog = new File( Options.ERROR_LOG );
             try (PrintWriter writer = new PrintWriter( new FileWriter( errorLog ) ))
             {
-                for ( final Map.Entry<String, Throwable> entry : errors.entrySet() )
+                for ( final Map.Entry<String, T> entry : errors.entrySet() )
                 {
                     writer.printf( "Path: %s\n%s\n", entry.getKey(), SEPARATING_LINE );
-                    entry.getValue().printStackTrace( writer );
+                    details.accept( writer, entry.getValue() );
                     writer.printf( "\n%s\n\n", SEPARATING_LINE );
                 }
             }
@@ -15,14 +15,20 @@
  */
 package com.redhat.red.offliner.cli;
 
+import com.redhat.red.offliner.DownloadEngine;
+import com.redhat.red.offliner.DownloadJournal;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.ParserProperties;
+import org.kohsuke.args4j.spi.MapOptionHandler;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Command-line option specification, along with utility methods to parse arguments and print usage.
@@ -46,10 +52,37 @@ public class Options
 
     private static final Integer DEFAULT_THREADS = 4 * Runtime.getRuntime().availableProcessors();
 
+    private static final int DEFAULT_SEGMENTS = 1;
+
+    private static final int DEFAULT_SEGMENT_THRESHOLD = 64;
+
+    private static final int DEFAULT_NEGATIVE_CACHE_TTL = 24;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64;
+
+    private static final File DEFAULT_DAEMON_FILE =
+            new File( System.getProperty( "user.home" ), ".offliner" + File.separator + "daemon.properties" );
+
     @Option( name = "-M", aliases = { "--no-metadata" },
              usage = "Do NOT generate maven-metadata.xml files for downloaded content" )
     private boolean skipMetadata;
 
+    @Option( name = "-J", aliases = { "--journal" },
+             usage = "Keep a journal of completed downloads in the download directory (" + DownloadJournal.JOURNAL_FILE
+                     + "), so a restarted run can skip them without re-reading them, and resume interrupted downloads "
+                     + "from their part files. Remove it before shipping the directory as a repository" )
+    private boolean journal;
+
+    @Option( name = "-L", aliases = { "--local-checksums" },
+             usage = "Write the .sha1 and .md5 files of each artifact from the digests calculated while downloading "
+                     + "it, instead of downloading them" )
+    private boolean localChecksums;
+
+    @Option( name = "-R", aliases = { "--remote-checksum-sample" }, metaVar = "FRACTION",
+             usage = "With --local-checksums, the fraction (0 to 1) of artifacts whose remote .sha1 file is still "
+                     + "fetched to cross-verify the local digest (default: 0)" )
+    private double remoteChecksumSample;
+
     @Option( name = "-r", aliases = { "--url", "--repo-url", "--base-url" }, metaVar = "REPO-URL",
              usage = "Alternative URL for resolving repository artifacts (eg. repository manager URL for proxy of maven.repository.redhat.com)" )
     private List<String> baseUrls;
@@ -73,6 +106,23 @@ public class Options
              usage = "Password for authenticating to a proxy" )
     private String proxyPassword;
 
+    @Option( name = "-C", aliases = { "--repo-connections" }, metaVar = "REPO-URL=INT", handler = MapOptionHandler.class,
+             usage = "Maximum concurrent connections to one repository. May be given once per repository "
+                     + "(default: --connections)" )
+    private Map<String, String> repoConnections;
+
+    @Option( name = "-H", aliases = { "--hedge" }, metaVar = "PERCENTILE",
+             usage = "Treat the repositories as equivalent mirrors: when a repository hasn't answered within this "
+                     + "percentile (eg. 95) of response latency, also request the path from the next one and use "
+                     + "whichever answers first (default: 0, disabled)" )
+    private double hedgePercentile;
+
+    @Option( name = "--revalidate",
+             usage = "Check existing files that have no checksum against the repository with a conditional request, "
+                     + "downloading them again only if they changed. Their ETags are only known with --journal, "
+                     + "otherwise their modification time is sent (default: assume they are current)" )
+    private boolean revalidate;
+
     @Option( name = "-c", aliases = { "--connections" }, metaVar = "INT",
              usage = "Number of concurrent connections to allow for downloads (default: 200)" )
     private Integer connections;
@@ -95,6 +145,68 @@ public class Options
              usage = "Number of concurrent threads to allow for downloads (default: 4xCPU)" )
     private Integer threads;
 
+    @Option( name = "-E", aliases = { "--engine" }, metaVar = "ENGINE",
+             usage = "Download engine: BLOCKING uses one thread per transfer, ASYNC keeps up to --connections "
+                     + "transfers in flight on a few non-blocking I/O threads, but ignores --hedge, --segments, "
+                     + "--remote-checksum-sample and doesn't resume partial downloads (default: BLOCKING)" )
+    private DownloadEngine engine;
+
+    @Option( name = "-V", aliases = { "--virtual-threads" },
+             usage = "Run each download on its own virtual thread (Java 21+), limited only by --connections. "
+                     + "Falls back to --threads platform threads on older JVMs" )
+    private boolean virtualThreads;
+
+    @Option( name = "-A", aliases = { "--adaptive-concurrency" },
+             usage = "Adapt the number of concurrent requests to each repository to its latency and errors: grow it "
+                     + "while responses stay as fast, and back off on 429/503 responses and timeouts. --connections "
+                     + "and --repo-connections are still the upper bounds" )
+    private boolean adaptiveConcurrency;
+
+    @Option( name = "-n", aliases = { "--negative-cache" }, metaVar = "FILE",
+             usage = "File to remember which repositories returned 404 for which groupIds / artifactIds in, across "
+                     + "runs. Repositories that are known to lack a path's GA or GAV are tried last. Without it, "
+                     + "404s are only remembered in memory" )
+    private File negativeCacheFile;
+
+    @Option( name = "--negative-cache-ttl", metaVar = "HOURS",
+             usage = "How long a 404 is remembered (default: 24)" )
+    private Integer negativeCacheTtl;
+
+    @Option( name = "-g", aliases = { "--segments" }, metaVar = "INT",
+             usage = "Number of byte ranges to fetch concurrently for files over --segment-threshold, when the "
+                     + "repository supports range requests (default: 1, which disables segmented downloads)" )
+    private Integer segments;
+
+    @Option( name = "-G", aliases = { "--segment-threshold" }, metaVar = "MB",
+             usage = "Minimum size in megabytes of files to download in --segments byte ranges (default: 64)" )
+    private Integer segmentThreshold;
+
+    @Option( name = "-b", aliases = { "--buffer-size" }, metaVar = "KB",
+             usage = "Size in kilobytes of the buffers that downloads are written to disk from (default: 64)" )
+    private Integer bufferSize;
+
+    @Option( name = "-D", aliases = { "--daemon" },
+             usage = "Run as a daemon, keeping connections and threads warm between runs, and accepting download "
+                     + "jobs from the offliner command on the loopback interface. Only --daemon-* options and "
+                     + "options that configure connections and threads apply; the rest are given with each job" )
+    private boolean daemon;
+
+    @Option( name = "-N", aliases = { "--no-daemon" },
+             usage = "Run the downloads in this process, even if an offliner daemon is running" )
+    private boolean noDaemon;
+
+    @Option( name = "--stop-daemon", usage = "Ask the running offliner daemon to stop, once its jobs are finished" )
+    private boolean stopDaemon;
+
+    @Option( name = "--daemon-port", metaVar = "PORT",
+             usage = "Port for the daemon to listen on (default: any free port)" )
+    private Integer daemonPort;
+
+    @Option( name = "--daemon-file", metaVar = "FILE",
+             usage = "File where a running daemon publishes its port and access token "
+                     + "(default: ~/.offliner/daemon.properties)" )
+    private File daemonFile;
+
     @Option( name = "-h", aliases = { "--help" }, help = true, usage = "Print this help screen and exit" )
     private boolean help;
 
@@ -240,6 +352,43 @@ public class Options
         this.connections = connections;
     }
 
+    /**
+     * @return the Map of repository URLs to their connection limit, parsed from the --repo-connections options
+     * @throws IllegalArgumentException if one of the limits isn't a positive number
+     */
+    public Map<String, Integer> getRepoConnectionLimits()
+    {
+        if ( repoConnections == null )
+        {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Integer> limits = new LinkedHashMap<>();
+        repoConnections.forEach( ( repoUrl, limit ) -> {
+            int max;
+            try
+            {
+                max = Integer.parseInt( limit.trim() );
+            }
+            catch ( NumberFormatException e )
+            {
+                max = 0;
+            }
+
+            if ( max < 1 )
+            {
+                throw new IllegalArgumentException( "Invalid connection limit for " + repoUrl + ": " + limit );
+            }
+            limits.put( repoUrl, max );
+        } );
+        return limits;
+    }
+
+    public void setRepoConnections( final Map<String, String> repoConnections )
+    {
+        this.repoConnections = repoConnections;
+    }
+
     public File getDownloads()
     {
         return downloads == null ? DEFAULT_DOWNLOADS : downloads;
@@ -280,6 +429,186 @@ public class Options
         this.threads = threads;
     }
 
+    public DownloadEngine getEngine()
+    {
+        return engine == null ? DownloadEngine.BLOCKING : engine;
+    }
+
+    public void setEngine( final DownloadEngine engine )
+    {
+        this.engine = engine;
+    }
+
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads( final boolean virtualThreads )
+    {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isAdaptiveConcurrency()
+    {
+        return adaptiveConcurrency;
+    }
+
+    public void setAdaptiveConcurrency( final boolean adaptiveConcurrency )
+    {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public File getNegativeCacheFile()
+    {
+        return negativeCacheFile;
+    }
+
+    public void setNegativeCacheFile( final File negativeCacheFile )
+    {
+        this.negativeCacheFile = negativeCacheFile;
+    }
+
+    public Integer getNegativeCacheTtl()
+    {
+        return negativeCacheTtl == null ? DEFAULT_NEGATIVE_CACHE_TTL : negativeCacheTtl;
+    }
+
+    public void setNegativeCacheTtl( final Integer negativeCacheTtl )
+    {
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    public Integer getSegments()
+    {
+        return segments == null ? DEFAULT_SEGMENTS : segments;
+    }
+
+    public void setSegments( final Integer segments )
+    {
+        this.segments = segments;
+    }
+
+    public Integer getSegmentThreshold()
+    {
+        return segmentThreshold == null ? DEFAULT_SEGMENT_THRESHOLD : segmentThreshold;
+    }
+
+    public void setSegmentThreshold( final Integer segmentThreshold )
+    {
+        this.segmentThreshold = segmentThreshold;
+    }
+
+    public Integer getBufferSize()
+    {
+        return bufferSize == null ? DEFAULT_BUFFER_SIZE : bufferSize;
+    }
+
+    public void setBufferSize( final Integer bufferSize )
+    {
+        this.bufferSize = bufferSize;
+    }
+
+    public boolean isLocalChecksums()
+    {
+        return localChecksums;
+    }
+
+    public void setLocalChecksums( final boolean localChecksums )
+    {
+        this.localChecksums = localChecksums;
+    }
+
+    public double getRemoteChecksumSample()
+    {
+        return remoteChecksumSample;
+    }
+
+    public void setRemoteChecksumSample( final double remoteChecksumSample )
+    {
+        this.remoteChecksumSample = remoteChecksumSample;
+    }
+
+    public double getHedgePercentile()
+    {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile( final double hedgePercentile )
+    {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public boolean isRevalidate()
+    {
+        return revalidate;
+    }
+
+    public void setRevalidate( final boolean revalidate )
+    {
+        this.revalidate = revalidate;
+    }
+
+    public boolean isJournal()
+    {
+        return journal;
+    }
+
+    public void setJournal( final boolean journal )
+    {
+        this.journal = journal;
+    }
+
+    public boolean isDaemon()
+    {
+        return daemon;
+    }
+
+    public void setDaemon( final boolean daemon )
+    {
+        this.daemon = daemon;
+    }
+
+    public boolean isNoDaemon()
+    {
+        return noDaemon;
+    }
+
+    public void setNoDaemon( final boolean noDaemon )
+    {
+        this.noDaemon = noDaemon;
+    }
+
+    public boolean isStopDaemon()
+    {
+        return stopDaemon;
+    }
+
+    public void setStopDaemon( final boolean stopDaemon )
+    {
+        this.stopDaemon = stopDaemon;
+    }
+
+    public Integer getDaemonPort()
+    {
+        return daemonPort == null ? 0 : daemonPort;
+    }
+
+    public void setDaemonPort( final Integer daemonPort )
+    {
+        this.daemonPort = daemonPort;
+    }
+
+    public File getDaemonFile()
+    {
+        return daemonFile == null ? DEFAULT_DAEMON_FILE : daemonFile;
+    }
+
+    public void setDaemonFile( final File daemonFile )
+    {
+        this.daemonFile = daemonFile;
+    }
+
     public boolean isSkipMetadata()
     {
         return skipMetadata;
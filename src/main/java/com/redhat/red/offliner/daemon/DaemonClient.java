@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.daemon;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+/**
+ * Thin client of a running {@link OfflinerDaemon}, found through its daemon file.
+ */
+public class DaemonClient
+        implements Closeable
+{
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    private static final long POLL_INTERVAL = 500;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final CloseableHttpClient client;
+
+    private final String baseUrl;
+
+    private final String token;
+
+    private DaemonClient( final int port, final String token )
+    {
+        this.baseUrl = "http://127.0.0.1:" + port;
+        this.token = token;
+        this.client = HttpClients.custom()
+                                 .setDefaultRequestConfig( RequestConfig.custom()
+                                                                        .setConnectTimeout( CONNECT_TIMEOUT )
+                                                                        .build() )
+                                 .build();
+    }
+
+    /**
+     * @param daemonFile The file published by a running daemon
+     * @return A client of the daemon, or null if there is no (readable) daemon file. The daemon might still be gone,
+     * if it was killed without removing the file.
+     */
+    public static DaemonClient find( final File daemonFile )
+    {
+        if ( daemonFile == null || !daemonFile.isFile() )
+        {
+            return null;
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream( daemonFile ))
+        {
+            props.load( in );
+            String token = props.getProperty( OfflinerDaemon.TOKEN_PROPERTY );
+            if ( token == null )
+            {
+                return null;
+            }
+            return new DaemonClient( Integer.parseInt( props.getProperty( OfflinerDaemon.PORT_PROPERTY ) ), token );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return The initial status of the job, {@link JobStatus.State#REJECTED} if the daemon was started with other
+     * settings than the job was sent with
+     */
+    public JobStatus submit( final JobRequest job )
+            throws IOException
+    {
+        HttpPost post = new HttpPost( baseUrl + OfflinerDaemon.JOBS_PATH );
+        post.setEntity( new ByteArrayEntity( mapper.writeValueAsBytes( job ), ContentType.APPLICATION_JSON ) );
+        return execute( post, JobStatus.class );
+    }
+
+    public JobStatus getStatus( final String id )
+            throws IOException
+    {
+        return execute( new HttpGet( baseUrl + OfflinerDaemon.JOBS_PATH + "/" + id ), JobStatus.class );
+    }
+
+    /**
+     * Poll the status of a job until it's finished.
+     *
+     * @param id The id of the job
+     * @param progress Called with every status polled while the job is running, which only has the counts filled
+     * in, may be null
+     * @return The final status of the job, with the errors, warnings and checksum conflicts themselves
+     */
+    public JobStatus await( final String id, final Consumer<JobStatus> progress )
+            throws IOException, InterruptedException
+    {
+        JobStatus status = getStatus( id );
+        while ( status.getState() == JobStatus.State.RUNNING )
+        {
+            if ( progress != null )
+            {
+                progress.accept( status );
+            }
+            Thread.sleep( POLL_INTERVAL );
+            status = getStatus( id );
+        }
+        return status;
+    }
+
+    public void shutdown()
+            throws IOException
+    {
+        execute( new HttpPost( baseUrl + OfflinerDaemon.SHUTDOWN_PATH ), null );
+    }
+
+    private <T> T execute( final HttpRequestBase request, final Class<T> type )
+            throws IOException
+    {
+        request.setHeader( "Authorization", "Bearer " + token );
+        try (CloseableHttpResponse response = client.execute( request ))
+        {
+            int status = response.getStatusLine().getStatusCode();
+            // a rejected job is still answered with its status.
+            if ( status != HttpStatus.SC_OK && status != HttpStatus.SC_ACCEPTED && status != HttpStatus.SC_CONFLICT )
+            {
+                throw new IOException( "Offliner daemon answered " + request.getURI() + " with: "
+                                               + response.getStatusLine() );
+            }
+
+            if ( type == null || response.getEntity() == null )
+            {
+                return null;
+            }
+            return mapper.readValue( response.getEntity().getContent(), type );
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        client.close();
+    }
+}
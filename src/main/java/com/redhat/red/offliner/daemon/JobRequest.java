@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.daemon;
+
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.cli.Options;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link OfflinerRequest} as it's sent to an {@link OfflinerDaemon}, in the form of a JSON bean. Paths are made
+ * absolute by the client, since the daemon doesn't share its working directory.
+ * <p>
+ * The settings that configure the {@link com.redhat.red.offliner.Offliner} itself (threads, connections, proxy and so
+ * on) can't change per job, so they're sent along only for the daemon to check that it was started with the same
+ * ones. See {@link #settingsOf(Options)}.
+ */
+public class JobRequest
+{
+    private List<String> artifactListFiles = new ArrayList<>();
+
+    private String downloadDir;
+
+    private boolean metadataSkipped;
+
+    private List<String> repoUrls = new ArrayList<>();
+
+    private boolean journalEnabled;
+
+    private boolean localChecksums;
+
+    private double remoteChecksumSample;
+
+    private Map<String, Integer> repoConnectionLimits = new LinkedHashMap<>();
+
+    private double hedgePercentile;
+
+    private boolean revalidate;
+
+    private Map<String, String> settings = new TreeMap<>();
+
+    public static JobRequest fromOptions( final Options opts )
+    {
+        JobRequest job = new JobRequest();
+        if ( opts.getLocations() != null )
+        {
+            opts.getLocations().forEach( ( location ) -> job.artifactListFiles.add( absolute( location ) ) );
+        }
+        job.downloadDir = opts.getDownloads().getAbsolutePath();
+        job.metadataSkipped = opts.isSkipMetadata();
+        if ( opts.getBaseUrls() != null )
+        {
+            job.repoUrls.addAll( opts.getBaseUrls() );
+        }
+        job.journalEnabled = opts.isJournal();
+        job.localChecksums = opts.isLocalChecksums();
+        job.remoteChecksumSample = opts.getRemoteChecksumSample();
+        job.repoConnectionLimits.putAll( opts.getRepoConnectionLimits() );
+        job.hedgePercentile = opts.getHedgePercentile();
+        job.revalidate = opts.isRevalidate();
+        job.settings.putAll( settingsOf( opts ) );
+        return job;
+    }
+
+    /**
+     * @return The options that go into the {@link com.redhat.red.offliner.OfflinerConfig} rather than the request,
+     * by their long option name, with defaults filled in and files made absolute.
+     */
+    public static Map<String, String> settingsOf( final Options opts )
+    {
+        Map<String, String> settings = new TreeMap<>();
+        settings.put( "threads", String.valueOf( opts.getThreads() ) );
+        settings.put( "connections", String.valueOf( opts.getConnections() ) );
+        settings.put( "proxy", opts.getProxy() );
+        settings.put( "engine", String.valueOf( opts.getEngine() ) );
+        settings.put( "virtual-threads", String.valueOf( opts.isVirtualThreads() ) );
+        settings.put( "adaptive-concurrency", String.valueOf( opts.isAdaptiveConcurrency() ) );
+        settings.put( "negative-cache", absolute( opts.getNegativeCacheFile() ) );
+        settings.put( "negative-cache-ttl", String.valueOf( opts.getNegativeCacheTtl() ) );
+        settings.put( "segments", String.valueOf( opts.getSegments() ) );
+        settings.put( "segment-threshold", String.valueOf( opts.getSegmentThreshold() ) );
+        settings.put( "buffer-size", String.valueOf( opts.getBufferSize() ) );
+        settings.put( "mavensettings", absolute( opts.getSettingsXml() ) );
+        settings.put( "maventypemapping", opts.getTypeMapping() );
+        return settings;
+    }
+
+    private static String absolute( final File file )
+    {
+        return file == null ? null : file.getAbsolutePath();
+    }
+
+    private static String absolute( final String path )
+    {
+        return new File( path ).getAbsolutePath();
+    }
+
+    public OfflinerRequest toOfflinerRequest()
+    {
+        OfflinerRequest.Builder builder = OfflinerRequest.builder()
+                                                         .withDownloadDir( new File( downloadDir ) )
+                                                         .withRemoteChecksumSample( remoteChecksumSample )
+                                                         .withHedging( hedgePercentile );
+        artifactListFiles.forEach( builder::withArtifactList );
+        repoUrls.forEach( builder::withRepoUrl );
+        repoConnectionLimits.forEach( builder::withRepoConnectionLimit );
+        if ( metadataSkipped )
+        {
+            builder.withoutMetadata();
+        }
+        if ( journalEnabled )
+        {
+            builder.withJournal();
+        }
+        if ( localChecksums )
+        {
+            builder.withLocalChecksums();
+        }
+        if ( revalidate )
+        {
+            builder.withRevalidation();
+        }
+        return builder.build();
+    }
+
+    public List<String> getArtifactListFiles()
+    {
+        return artifactListFiles;
+    }
+
+    public void setArtifactListFiles( final List<String> artifactListFiles )
+    {
+        this.artifactListFiles = artifactListFiles;
+    }
+
+    public String getDownloadDir()
+    {
+        return downloadDir;
+    }
+
+    public void setDownloadDir( final String downloadDir )
+    {
+        this.downloadDir = downloadDir;
+    }
+
+    public boolean isMetadataSkipped()
+    {
+        return metadataSkipped;
+    }
+
+    public void setMetadataSkipped( final boolean metadataSkipped )
+    {
+        this.metadataSkipped = metadataSkipped;
+    }
+
+    public List<String> getRepoUrls()
+    {
+        return repoUrls;
+    }
+
+    public void setRepoUrls( final List<String> repoUrls )
+    {
+        this.repoUrls = repoUrls;
+    }
+
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+    public void setJournalEnabled( final boolean journalEnabled )
+    {
+        this.journalEnabled = journalEnabled;
+    }
+
+    public boolean isLocalChecksums()
+    {
+        return localChecksums;
+    }
+
+    public void setLocalChecksums( final boolean localChecksums )
+    {
+        this.localChecksums = localChecksums;
+    }
+
+    public double getRemoteChecksumSample()
+    {
+        return remoteChecksumSample;
+    }
+
+    public void setRemoteChecksumSample( final double remoteChecksumSample )
+    {
+        this.remoteChecksumSample = remoteChecksumSample;
+    }
+
+    public Map<String, Integer> getRepoConnectionLimits()
+    {
+        return repoConnectionLimits;
+    }
+
+    public void setRepoConnectionLimits( final Map<String, Integer> repoConnectionLimits )
+    {
+        this.repoConnectionLimits = repoConnectionLimits;
+    }
+
+    public double getHedgePercentile()
+    {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile( final double hedgePercentile )
+    {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public boolean isRevalidate()
+    {
+        return revalidate;
+    }
+
+    public void setRevalidate( final boolean revalidate )
+    {
+        this.revalidate = revalidate;
+    }
+
+    public Map<String, String> getSettings()
+    {
+        return settings;
+    }
+
+    public void setSettings( final Map<String, String> settings )
+    {
+        this.settings = settings;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.daemon;
+
+import com.redhat.red.offliner.OfflinerResult;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Progress, and eventually the outcome, of a job submitted to an {@link OfflinerDaemon}, in the form of a JSON bean.
+ * While the job is running only the counts are filled in, since the client polls for them. The warnings, checksum
+ * conflicts and errors themselves are only sent once the job is finished, each error as its full stack trace
+ * (causes included) for the client to write to its error log.
+ */
+public class JobStatus
+{
+    public enum State
+    {
+        RUNNING, DONE, FAILED,
+
+        /**
+         * The job wasn't started, since it was sent with settings the daemon wasn't started with. See
+         * {@link JobRequest#settingsOf(com.redhat.red.offliner.cli.Options)}.
+         */
+        REJECTED
+    }
+
+    private String id;
+
+    private State state;
+
+    private String message;
+
+    private int downloaded;
+
+    private int avoided;
+
+    private int warnCount;
+
+    private int errorCount;
+
+    private Map<String, String> warns = new HashMap<>();
+
+    private Map<String, String> errors = new HashMap<>();
+
+    private Map<String, String> checksumConflicts = new HashMap<>();
+
+    public static JobStatus of( final String id, final State state, final String message, final OfflinerResult result )
+    {
+        JobStatus status = new JobStatus();
+        status.id = id;
+        status.state = state;
+        status.message = message;
+        status.downloaded = result.getDownloaded();
+        status.avoided = result.getAvoided();
+        status.warnCount = result.getWarns().size();
+        status.errorCount = result.getErrors().size();
+        if ( state != State.RUNNING )
+        {
+            status.warns.putAll( result.getWarns() );
+            result.getErrors().forEach( ( path, error ) -> status.errors.put( path, stackTraceOf( error ) ) );
+            status.checksumConflicts.putAll( result.getChecksumConflicts() );
+        }
+        return status;
+    }
+
+    public static JobStatus rejected( final String message )
+    {
+        JobStatus status = new JobStatus();
+        status.state = State.REJECTED;
+        status.message = message;
+        return status;
+    }
+
+    private static String stackTraceOf( final Throwable error )
+    {
+        StringWriter writer = new StringWriter();
+        error.printStackTrace( new PrintWriter( writer ) );
+        return writer.toString();
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public void setId( final String id )
+    {
+        this.id = id;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    public void setState( final State state )
+    {
+        this.state = state;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public void setMessage( final String message )
+    {
+        this.message = message;
+    }
+
+    public int getDownloaded()
+    {
+        return downloaded;
+    }
+
+    public void setDownloaded( final int downloaded )
+    {
+        this.downloaded = downloaded;
+    }
+
+    public int getAvoided()
+    {
+        return avoided;
+    }
+
+    public void setAvoided( final int avoided )
+    {
+        this.avoided = avoided;
+    }
+
+    public int getWarnCount()
+    {
+        return warnCount;
+    }
+
+    public void setWarnCount( final int warnCount )
+    {
+        this.warnCount = warnCount;
+    }
+
+    public int getErrorCount()
+    {
+        return errorCount;
+    }
+
+    public void setErrorCount( final int errorCount )
+    {
+        this.errorCount = errorCount;
+    }
+
+    /**
+     * @return The warnings by path, empty while the job is running
+     */
+    public Map<String, String> getWarns()
+    {
+        return warns;
+    }
+
+    public void setWarns( final Map<String, String> warns )
+    {
+        this.warns = warns;
+    }
+
+    /**
+     * @return The stack trace of each error by path, empty while the job is running
+     */
+    public Map<String, String> getErrors()
+    {
+        return errors;
+    }
+
+    public void setErrors( final Map<String, String> errors )
+    {
+        this.errors = errors;
+    }
+
+    public Map<String, String> getChecksumConflicts()
+    {
+        return checksumConflicts;
+    }
+
+    public void setChecksumConflicts( final Map<String, String> checksumConflicts )
+    {
+        this.checksumConflicts = checksumConflicts;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.daemon;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Long-running Offliner process, which keeps a single {@link Offliner} (and so its connection pools, executor and
+ * buffers) warm between runs, and accepts download jobs over HTTP on the loopback interface:
+ * <ul>
+ *     <li><code>POST /jobs</code> submits a {@link JobRequest}, and answers with the initial {@link JobStatus}</li>
+ *     <li><code>GET /jobs/{id}</code> answers with the current {@link JobStatus} of a job</li>
+ *     <li><code>POST /shutdown</code> stops the daemon once running jobs are finished</li>
+ * </ul>
+ * The port and a random access token are written to the daemon file, which is readable only by the owner, and every
+ * request has to carry the token in a <code>Bearer</code> Authorization header. The file is removed on shutdown, so
+ * its presence tells the CLI that a daemon is (most likely) running. See {@link DaemonClient}.
+ * <p>
+ * A job sent with other {@link JobRequest#getSettings() settings} than the daemon was started with is answered with
+ * <code>409 Conflict</code> and a {@link JobStatus.State#REJECTED} status naming the differences, since the shared
+ * Offliner can't be reconfigured per job.
+ */
+public class OfflinerDaemon
+        implements Closeable
+{
+    public static final String PORT_PROPERTY = "port";
+
+    public static final String TOKEN_PROPERTY = "token";
+
+    static final String JOBS_PATH = "/jobs";
+
+    static final String SHUTDOWN_PATH = "/shutdown";
+
+    /**
+     * Finished jobs are forgotten beyond this many submissions, oldest first.
+     */
+    private static final int MAX_JOBS = 100;
+
+    /**
+     * How long {@link #stopNow()} waits for interrupted jobs to finish, in seconds.
+     */
+    private static final int STOP_NOW_TIMEOUT = 5;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Offliner offliner;
+
+    private final Map<String, String> settings;
+
+    private final File daemonFile;
+
+    private final int port;
+
+    private final String token;
+
+    private final Map<String, Job> jobs = Collections.synchronizedMap( new LinkedHashMap<String, Job>()
+    {
+        @Override
+        protected boolean removeEldestEntry( final Map.Entry<String, Job> eldest )
+        {
+            return size() > MAX_JOBS && eldest.getValue().isFinished();
+        }
+    } );
+
+    private final ExecutorService jobExecutor = Executors.newCachedThreadPool();
+
+    private final CountDownLatch stopped = new CountDownLatch( 1 );
+
+    private final AtomicBoolean stopping = new AtomicBoolean();
+
+    private HttpServer server;
+
+    /**
+     * @param offliner The Offliner to run jobs with. It's shared by all jobs, but not closed by the daemon.
+     * @param settings The settings the Offliner was configured with, see
+     * {@link JobRequest#settingsOf(com.redhat.red.offliner.cli.Options)}
+     * @param daemonFile The file to publish the port and access token in
+     * @param port The port to listen on, or 0 to use any free port
+     */
+    public OfflinerDaemon( final Offliner offliner, final Map<String, String> settings, final File daemonFile,
+                           final int port )
+    {
+        this.offliner = offliner;
+        this.settings = settings;
+        this.daemonFile = daemonFile;
+        this.port = port;
+
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes( bytes );
+        StringBuilder sb = new StringBuilder();
+        for ( byte b : bytes )
+        {
+            sb.append( String.format( "%02x", b ) );
+        }
+        this.token = sb.toString();
+    }
+
+    /**
+     * Start listening, and publish the daemon file.
+     *
+     * @return The port the daemon is listening on
+     */
+    public int start()
+            throws IOException
+    {
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+        server.createContext( JOBS_PATH, this::handleJobs );
+        server.createContext( SHUTDOWN_PATH, this::handleShutdown );
+        server.setExecutor( Executors.newSingleThreadExecutor() );
+        server.start();
+
+        int boundPort = server.getAddress().getPort();
+        writeDaemonFile( boundPort );
+        logger.info( "Offliner daemon listening on {}:{}", server.getAddress().getHostString(), boundPort );
+        return boundPort;
+    }
+
+    private void writeDaemonFile( final int boundPort )
+            throws IOException
+    {
+        Properties props = new Properties();
+        props.setProperty( PORT_PROPERTY, Integer.toString( boundPort ) );
+        props.setProperty( TOKEN_PROPERTY, token );
+
+        File dir = daemonFile.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = new File( dir, daemonFile.getName() + ".tmp" );
+        tmp.delete();
+        tmp.createNewFile();
+        // restrict the token to the user running the daemon, before writing it.
+        tmp.setReadable( false, false );
+        tmp.setReadable( true, true );
+        tmp.setWritable( false, false );
+        tmp.setWritable( true, true );
+        try (OutputStream out = new FileOutputStream( tmp ))
+        {
+            props.store( out, "Offliner daemon" );
+        }
+
+        if ( !tmp.renameTo( daemonFile ) )
+        {
+            daemonFile.delete();
+            if ( !tmp.renameTo( daemonFile ) )
+            {
+                throw new IOException( "Cannot write daemon file: " + daemonFile );
+            }
+        }
+    }
+
+    /**
+     * Block until the daemon is asked to shut down.
+     */
+    public void awaitShutdown()
+            throws InterruptedException
+    {
+        stopped.await();
+    }
+
+    /**
+     * Stop accepting requests, wait for running jobs to finish, and remove the daemon file.
+     */
+    @Override
+    public void close()
+    {
+        stop( false, 1, TimeUnit.HOURS );
+    }
+
+    /**
+     * Stop accepting requests, interrupt running jobs and wait only briefly for them, and remove the daemon file. This
+     * is meant for a JVM shutdown hook, which shouldn't hold up the exit for as long as a job may take.
+     */
+    public void stopNow()
+    {
+        stop( true, STOP_NOW_TIMEOUT, TimeUnit.SECONDS );
+    }
+
+    private void stop( final boolean interrupt, final long timeout, final TimeUnit unit )
+    {
+        // a graceful stop may already be waiting for the jobs, but can still be hurried up by a shutdown hook.
+        if ( stopping.compareAndSet( false, true ) )
+        {
+            daemonFile.delete();
+            if ( server != null )
+            {
+                server.stop( 0 );
+                ( (ExecutorService) server.getExecutor() ).shutdown();
+            }
+        }
+
+        if ( interrupt )
+        {
+            jobExecutor.shutdownNow();
+        }
+        else
+        {
+            jobExecutor.shutdown();
+        }
+        try
+        {
+            if ( !jobExecutor.awaitTermination( timeout, unit ) )
+            {
+                logger.warn( "Offliner daemon stopped with jobs still running." );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        stopped.countDown();
+    }
+
+    private void handleJobs( final HttpExchange exchange )
+            throws IOException
+    {
+        try
+        {
+            if ( !isAuthorized( exchange ) )
+            {
+                send( exchange, 403, null );
+                return;
+            }
+
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            if ( "POST".equals( method ) && ( JOBS_PATH.equals( path ) || ( JOBS_PATH + "/" ).equals( path ) ) )
+            {
+                JobRequest jobRequest = mapper.readValue( exchange.getRequestBody(), JobRequest.class );
+                String conflicts = describeConflicts( jobRequest.getSettings() );
+                if ( conflicts != null )
+                {
+                    logger.info( "Rejecting job with other settings than the daemon's: {}", conflicts );
+                    send( exchange, 409, JobStatus.rejected( conflicts ) );
+                }
+                else
+                {
+                    send( exchange, 202, submit( jobRequest.toOfflinerRequest() ).getStatus() );
+                }
+            }
+            else if ( "GET".equals( method ) && path.startsWith( JOBS_PATH + "/" ) )
+            {
+                Job job = jobs.get( path.substring( JOBS_PATH.length() + 1 ) );
+                if ( job == null )
+                {
+                    send( exchange, 404, null );
+                }
+                else
+                {
+                    send( exchange, 200, job.getStatus() );
+                }
+            }
+            else
+            {
+                send( exchange, 405, null );
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            logger.warn( "Failed to handle daemon request: " + exchange.getRequestURI(), e );
+            send( exchange, 400, null );
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void handleShutdown( final HttpExchange exchange )
+            throws IOException
+    {
+        try
+        {
+            if ( !isAuthorized( exchange ) )
+            {
+                send( exchange, 403, null );
+                return;
+            }
+
+            if ( !"POST".equals( exchange.getRequestMethod() ) )
+            {
+                send( exchange, 405, null );
+                return;
+            }
+
+            send( exchange, 202, null );
+        }
+        finally
+        {
+            exchange.close();
+        }
+
+        // the server can't stop from one of its own exchanges.
+        Thread stopper = new Thread( this::close, "offliner-daemon-shutdown" );
+        stopper.start();
+    }
+
+    /**
+     * @return The settings that differ between the job and the daemon, as "name: job value (daemon: value)", or null
+     * if there are none
+     */
+    private String describeConflicts( final Map<String, String> jobSettings )
+    {
+        Map<String, String> job = jobSettings == null ? Collections.emptyMap() : jobSettings;
+        TreeSet<String> names = new TreeSet<>( settings.keySet() );
+        names.addAll( job.keySet() );
+        String conflicts = names.stream()
+                                .filter( ( name ) -> !Objects.equals( job.get( name ), settings.get( name ) ) )
+                                .map( ( name ) -> name + ": " + job.get( name ) + " (daemon: " + settings.get( name )
+                                        + ")" )
+                                .collect( Collectors.joining( ", " ) );
+        return conflicts.isEmpty() ? null : conflicts;
+    }
+
+    private boolean isAuthorized( final HttpExchange exchange )
+    {
+        return ( "Bearer " + token ).equals( exchange.getRequestHeaders().getFirst( "Authorization" ) );
+    }
+
+    private void send( final HttpExchange exchange, final int status, final Object body )
+            throws IOException
+    {
+        if ( body == null )
+        {
+            exchange.sendResponseHeaders( status, -1 );
+            return;
+        }
+
+        byte[] bytes = mapper.writeValueAsBytes( body );
+        exchange.getResponseHeaders().set( "Content-Type", "application/json" );
+        exchange.sendResponseHeaders( status, bytes.length );
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write( bytes );
+        }
+    }
+
+    private Job submit( final OfflinerRequest request )
+    {
+        Job job = new Job( UUID.randomUUID().toString(), new OfflinerResult( request ) );
+        jobs.put( job.id, job );
+        logger.info( "Starting job {}, downloading into: {}", job.id, request.getDownloadDirectory() );
+
+        jobExecutor.execute( () -> {
+            try
+            {
+                offliner.copyOffline( request, null, null, job.result );
+                job.finish( JobStatus.State.DONE, null );
+            }
+            catch ( Exception e )
+            {
+                logger.error( "Job " + job.id + " failed", e );
+                job.finish( JobStatus.State.FAILED, String.valueOf( e ) );
+                if ( e instanceof InterruptedException )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            logger.info( "Finished job {}: {} downloaded, {} avoided, {} failed", job.id,
+                         job.result.getDownloaded(), job.result.getAvoided(), job.result.getErrors().size() );
+        } );
+
+        return job;
+    }
+
+    private static final class Job
+    {
+        private final String id;
+
+        private final OfflinerResult result;
+
+        private volatile JobStatus.State state = JobStatus.State.RUNNING;
+
+        private volatile String message;
+
+        private Job( final String id, final OfflinerResult result )
+        {
+            this.id = id;
+            this.result = result;
+        }
+
+        private void finish( final JobStatus.State state, final String message )
+        {
+            this.message = message;
+            this.state = state;
+        }
+
+        private boolean isFinished()
+        {
+            return state != JobStatus.State.RUNNING;
+        }
+
+        private JobStatus getStatus()
+        {
+            return JobStatus.of( id, state, message, result );
+        }
+    }
+}
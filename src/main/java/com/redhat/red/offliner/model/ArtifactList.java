@@ -15,14 +15,18 @@
  */
 package com.redhat.red.offliner.model;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Artifact list DTO. It contains artifact paths list along with the list of repositories where to look for the
- * artifacts.
+ * artifacts. An artifact list created empty keeps its paths in a compact {@link PathStore}, so lists of millions of
+ * paths fit in a fraction of the heap a List of Strings would take. A list of paths passed to the constructor is kept
+ * as it is.
  */
 public class ArtifactList
 {
@@ -44,7 +48,7 @@ public class ArtifactList
 
     public ArtifactList()
     {
-        this.paths = new ArrayList<>();
+        this.paths = new PathList();
         this.repositoryUrls = new ArrayList<>();
         this.checksums = new HashMap<String, String>();
     }
@@ -77,7 +81,9 @@ public class ArtifactList
     }
 
     /**
-     * @return the paths
+     * @return the paths. Unless a list was passed to the constructor, they're decoded from a {@link PathStore} as
+     * they're read, and {@link List#contains(Object)} takes constant time. Such a list doesn't accept null paths, and
+     * paths removed from it stay interned in the store until the artifact list is discarded.
      */
     public List<String> getPaths()
     {
@@ -110,4 +116,130 @@ public class ArtifactList
     {
         return checksums;
     }
+
+    /**
+     * List of paths kept in a {@link PathStore}. The store holds each distinct path once, while the list holds the
+     * store index of each element, and a count of its elements per index answers {@link #contains(Object)}.
+     */
+    private static final class PathList
+            extends AbstractList<String>
+    {
+        private final PathStore store = new PathStore();
+
+        private int[] elements = new int[16];
+
+        private int size;
+
+        private int[] counts = new int[16];
+
+        @Override
+        public String get( final int index )
+        {
+            checkIndex( index, size );
+            return store.get( elements[index] );
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public boolean contains( final Object o )
+        {
+            return idOf( o ) >= 0;
+        }
+
+        @Override
+        public int indexOf( final Object o )
+        {
+            final int id = idOf( o );
+            for ( int i = 0; id >= 0 && i < size; i++ )
+            {
+                if ( elements[i] == id )
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String set( final int index, final String path )
+        {
+            checkIndex( index, size );
+            final int id = intern( path );
+            final int old = elements[index];
+            elements[index] = id;
+            counts[old]--;
+            return store.get( old );
+        }
+
+        @Override
+        public void add( final int index, final String path )
+        {
+            checkIndex( index, size + 1 );
+            final int id = intern( path );
+            if ( size == elements.length )
+            {
+                elements = Arrays.copyOf( elements, size * 2 );
+            }
+            System.arraycopy( elements, index, elements, index + 1, size - index );
+            elements[index] = id;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public String remove( final int index )
+        {
+            checkIndex( index, size );
+            final int old = elements[index];
+            System.arraycopy( elements, index + 1, elements, index, size - index - 1 );
+            size--;
+            counts[old]--;
+            modCount++;
+            return store.get( old );
+        }
+
+        @Override
+        public void clear()
+        {
+            size = 0;
+            Arrays.fill( counts, 0 );
+            modCount++;
+        }
+
+        /**
+         * Add the path to the store if it's new, and count one more element of it.
+         */
+        private int intern( final String path )
+        {
+            final int id = store.intern( path );
+            if ( id == counts.length )
+            {
+                counts = Arrays.copyOf( counts, id * 2 );
+            }
+            counts[id]++;
+            return id;
+        }
+
+        /**
+         * @return the store index of the path, or -1 if it isn't an element of the list
+         */
+        private int idOf( final Object o )
+        {
+            final int id = o instanceof String ? store.indexOf( (String) o ) : -1;
+            return id >= 0 && counts[id] > 0 ? id : -1;
+        }
+
+        private static void checkIndex( final int index, final int size )
+        {
+            if ( index < 0 || index >= size )
+            {
+                throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+            }
+        }
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Paths of an artifact list, read one at a time. Unlike {@link ArtifactList}, a stream doesn't have to hold all of
+ * its paths in memory, so a reader can hand them over as it parses its source file, and the downloads of the first
+ * paths can start while the rest are still being read.
+ */
+public interface ArtifactListStream
+        extends Closeable
+{
+    /**
+     * @return the list of repositories where should be artifacts downloaded from. Their order reflects their
+     * priority. They are known before the first path is read, but finding them may take a pass over the source of
+     * its own, so callers that don't need them shouldn't ask.
+     * @throws IOException In case the source of the repositories can't be read
+     */
+    List<String> getRepositoryUrls()
+            throws IOException;
+
+    /**
+     * @return the next path, or null when there are none left
+     * @throws IOException In case the source of the paths can't be read
+     */
+    String nextPath()
+            throws IOException;
+
+    /**
+     * @return the checksum given for the path last returned by {@link #nextPath()}, or null if there isn't one
+     */
+    String getChecksum();
+
+    /**
+     * Stream the paths of an artifact list that is already in memory.
+     */
+    static ArtifactListStream of( final ArtifactList artifactList )
+    {
+        final List<String> paths = artifactList.getPaths();
+        final Map<String, String> checksums =
+                artifactList.getChecksums() == null ? Collections.emptyMap() : artifactList.getChecksums();
+        final Iterator<String> iterator = paths == null ? Collections.emptyIterator() : paths.iterator();
+        final List<String> repositoryUrls = artifactList.getRepositoryUrls();
+
+        return new ArtifactListStream()
+        {
+            private String path;
+
+            @Override
+            public List<String> getRepositoryUrls()
+            {
+                return repositoryUrls;
+            }
+
+            @Override
+            public String nextPath()
+            {
+                path = iterator.hasNext() ? iterator.next() : null;
+                return path;
+            }
+
+            @Override
+            public String getChecksum()
+            {
+                return path == null ? null : checksums.get( path );
+            }
+
+            @Override
+            public void close()
+            {
+            }
+
+            @Override
+            public String toString()
+            {
+                return artifactList.toString();
+            }
+        };
+    }
+}
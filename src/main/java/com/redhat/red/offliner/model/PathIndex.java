@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Index of every path slated for download in a single run, across all of its {@link ArtifactList}s. Each path is
+ * accepted only the first time it is added, so it's downloaded exactly once. Checksums given for the same path by
+ * different lists are merged: a known checksum replaces a missing one, and a longer (stronger) digest replaces a
+ * shorter one. Two different checksums of the same algorithm can't both be right, so they are recorded as a conflict
+ * and the first one is kept.
+ * <p>
+ * The index has to remember every path of the run, so the paths are kept in a compact {@link PathStore} rather than
+ * as Strings, and their checksums in an array alongside it. It grows by a few dozen bytes per path, including the
+ * checksum paths added for each artifact.
+ * <p>
+ * This class is thread-safe.
+ */
+public class PathIndex
+{
+    private final PathStore paths = new PathStore();
+
+    /**
+     * The checksum of each path, by its index in {@link #paths}, or null if none is known.
+     */
+    private String[] checksums = new String[16];
+
+    private final ConcurrentMap<String, String> conflicts = new ConcurrentHashMap<>();
+
+    /**
+     * Add a path (and its expected checksum, if any) to the index.
+     *
+     * @param path The path to download
+     * @param checksum The checksum expected for the path's content, or null
+     * @return true if the path wasn't in the index yet, and should be downloaded by the caller
+     */
+    public synchronized boolean add( final String path, final String checksum )
+    {
+        final String incoming = isBlank( checksum ) ? null : checksum.trim();
+        if ( paths.add( path ) )
+        {
+            final int index = paths.size() - 1;
+            if ( index == checksums.length )
+            {
+                checksums = Arrays.copyOf( checksums, index * 2 );
+            }
+            checksums[index] = incoming;
+            return true;
+        }
+
+        if ( incoming != null )
+        {
+            final int index = paths.indexOf( path );
+            checksums[index] = merge( path, checksums[index], incoming );
+        }
+
+        return false;
+    }
+
+    private String merge( final String path, final String current, final String incoming )
+    {
+        if ( current == null )
+        {
+            return incoming;
+        }
+
+        if ( current.equalsIgnoreCase( incoming ) )
+        {
+            return current;
+        }
+
+        if ( current.length() == incoming.length() )
+        {
+            conflicts.putIfAbsent( path, String.format( "Conflicting checksums for: %s (using: '%s'; ignored: '%s')",
+                                                        path, current, incoming ) );
+            return current;
+        }
+
+        return incoming.length() > current.length() ? incoming : current;
+    }
+
+    public synchronized boolean contains( final String path )
+    {
+        return paths.contains( path );
+    }
+
+    /**
+     * @return the merged checksum expected for the given path, or null if none is known
+     */
+    public synchronized String getChecksum( final String path )
+    {
+        final int index = paths.indexOf( path );
+        return index < 0 ? null : checksums[index];
+    }
+
+    public synchronized int size()
+    {
+        return paths.size();
+    }
+
+    /**
+     * @return the Map of paths that were given conflicting checksums to a description of the conflict
+     */
+    public Map<String, String> getConflicts()
+    {
+        return conflicts;
+    }
+}
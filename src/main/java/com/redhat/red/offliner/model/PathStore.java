@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, insertion-ordered set of repository paths, backing {@link ArtifactList} and {@link PathIndex}. Maven paths share long groupId,
+ * artifactId and version prefixes, and their file names repeat the artifactId and version, so instead of a String per
+ * path, this keeps:
+ * <ul>
+ *     <li>each distinct path segment once, interned</li>
+ *     <li>a trie of directories, each one a parent and a segment</li>
+ *     <li>each path as a single long: its directory, and its file name. A file name that starts with
+ *     {@code <artifactId>-<version>} (the names of its two parent directories) is stored as just the rest of it,
+ *     such as {@code .jar} or {@code -sources.jar}, which most paths share.</li>
+ * </ul>
+ * Paths and directories are indexed in open-addressing tables of ints, so checking membership is O(1) without a
+ * single object per path. Paths are decoded into Strings again when they're read.
+ * <p>
+ * This class is NOT thread-safe.
+ */
+final class PathStore
+{
+    private static final int ROOT = 0;
+
+    /**
+     * Flag on the file name code of a path, marking it as stored without its artifactId and version.
+     */
+    private static final long RELATIVE = 1L << 31;
+
+    private final Map<String, Integer> segmentIds = new HashMap<>();
+
+    private final List<String> segments = new ArrayList<>();
+
+    private int[] dirParents = new int[16];
+
+    private int[] dirSegments = new int[16];
+
+    private int dirCount = 1;
+
+    private final LongIndex dirIndex = new LongIndex();
+
+    private long[] paths = new long[16];
+
+    private int size;
+
+    private final LongIndex pathIndex = new LongIndex();
+
+    /**
+     * Add a path, unless it's already in the store.
+     *
+     * @return true if the path was added
+     */
+    boolean add( final String path )
+    {
+        final int before = size;
+        intern( path );
+        return size > before;
+    }
+
+    /**
+     * Add a path, unless it's already in the store.
+     *
+     * @return the index of the path, whether it was added or not
+     */
+    int intern( final String path )
+    {
+        final long key = encode( path, true );
+        final int index = pathIndex.get( key );
+        if ( index >= 0 )
+        {
+            return index;
+        }
+
+        if ( size == paths.length )
+        {
+            paths = Arrays.copyOf( paths, size * 2 );
+        }
+        paths[size] = key;
+        pathIndex.put( key, size );
+
+        return size++;
+    }
+
+    boolean contains( final String path )
+    {
+        return indexOf( path ) >= 0;
+    }
+
+    /**
+     * @return the index of the path (in the order paths were added), or -1 if it isn't in the store
+     */
+    int indexOf( final String path )
+    {
+        final long key = encode( path, false );
+        return key < 0 ? -1 : pathIndex.get( key );
+    }
+
+    String get( final int index )
+    {
+        if ( index < 0 || index >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+        }
+
+        final long key = paths[index];
+        final int dir = (int) ( key >>> 32 );
+        final int name = (int) ( key & ~RELATIVE & 0xFFFFFFFFL );
+
+        final StringBuilder sb = new StringBuilder( 128 );
+        appendDir( sb, dir );
+        if ( ( key & RELATIVE ) != 0 )
+        {
+            sb.append( segments.get( dirSegments[dirParents[dir]] ) )
+              .append( '-' )
+              .append( segments.get( dirSegments[dir] ) );
+        }
+        sb.append( segments.get( name ) );
+
+        return sb.toString();
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct segments interned. Besides a long per path, the store grows with these and
+     * {@link #dirCount()}, rather than with the length of the paths.
+     */
+    int segmentCount()
+    {
+        return segments.size();
+    }
+
+    /**
+     * @return the number of directories in the trie, including the root
+     */
+    int dirCount()
+    {
+        return dirCount;
+    }
+
+    private void appendDir( final StringBuilder sb, final int dir )
+    {
+        if ( dir == ROOT )
+        {
+            return;
+        }
+
+        appendDir( sb, dirParents[dir] );
+        sb.append( segments.get( dirSegments[dir] ) ).append( '/' );
+    }
+
+    /**
+     * @param create true to intern the path's segments and directories, if they aren't yet
+     * @return the key of the path, or -1 if it can't be in the store because some part of it isn't (when not creating)
+     */
+    private long encode( final String path, final boolean create )
+    {
+        int dir = ROOT;
+        int start = 0;
+        int slash;
+        while ( ( slash = path.indexOf( '/', start ) ) >= 0 )
+        {
+            final int segment = segmentId( path.substring( start, slash ), create );
+            if ( segment < 0 )
+            {
+                return -1;
+            }
+
+            dir = childDir( dir, segment, create );
+            if ( dir < 0 )
+            {
+                return -1;
+            }
+            start = slash + 1;
+        }
+
+        long relative = 0;
+        if ( dir != ROOT && dirParents[dir] != ROOT )
+        {
+            final String artifactId = segments.get( dirSegments[dirParents[dir]] );
+            final String version = segments.get( dirSegments[dir] );
+            final int length = artifactId.length() + 1 + version.length();
+            if ( path.startsWith( artifactId, start ) && path.startsWith( version, start + artifactId.length() + 1 )
+                    && path.length() >= start + length && path.charAt( start + artifactId.length() ) == '-' )
+            {
+                start += length;
+                relative = RELATIVE;
+            }
+        }
+
+        final int name = segmentId( path.substring( start ), create );
+        if ( name < 0 )
+        {
+            return -1;
+        }
+
+        return ( (long) dir << 32 ) | relative | name;
+    }
+
+    private int segmentId( final String segment, final boolean create )
+    {
+        final Integer id = segmentIds.get( segment );
+        if ( id != null )
+        {
+            return id;
+        }
+        if ( !create )
+        {
+            return -1;
+        }
+
+        final int next = segments.size();
+        segments.add( segment );
+        segmentIds.put( segment, next );
+        return next;
+    }
+
+    private int childDir( final int parent, final int segment, final boolean create )
+    {
+        final long key = ( (long) parent << 32 ) | segment;
+        final int dir = dirIndex.get( key );
+        if ( dir >= 0 || !create )
+        {
+            return dir;
+        }
+
+        if ( dirCount == dirParents.length )
+        {
+            dirParents = Arrays.copyOf( dirParents, dirCount * 2 );
+            dirSegments = Arrays.copyOf( dirSegments, dirCount * 2 );
+        }
+        dirParents[dirCount] = parent;
+        dirSegments[dirCount] = segment;
+        dirIndex.put( key, dirCount );
+
+        return dirCount++;
+    }
+
+    /**
+     * Open-addressing hash table from non-negative long keys to non-negative int values, with linear probing. Only
+     * the values are stored; keys are looked up through {@link #keyOf(int)} on the owner's arrays.
+     */
+    private final class LongIndex
+    {
+        private int[] slots = newSlots( 32 );
+
+        private int count;
+
+        private int get( final long key )
+        {
+            final int mask = slots.length - 1;
+            for ( int i = hash( key ) & mask; ; i = ( i + 1 ) & mask )
+            {
+                final int value = slots[i];
+                if ( value < 0 || keyOf( value ) == key )
+                {
+                    return value;
+                }
+            }
+        }
+
+        private void put( final long key, final int value )
+        {
+            // keep the load factor at or below 1/2, so probe sequences stay short.
+            if ( 2 * ( count + 1 ) > slots.length )
+            {
+                final int[] old = slots;
+                slots = newSlots( old.length * 2 );
+                for ( final int v : old )
+                {
+                    if ( v >= 0 )
+                    {
+                        insert( keyOf( v ), v );
+                    }
+                }
+            }
+
+            insert( key, value );
+            count++;
+        }
+
+        private void insert( final long key, final int value )
+        {
+            final int mask = slots.length - 1;
+            int i = hash( key ) & mask;
+            while ( slots[i] >= 0 )
+            {
+                i = ( i + 1 ) & mask;
+            }
+            slots[i] = value;
+        }
+
+        private long keyOf( final int value )
+        {
+            return this == pathIndex ? paths[value] : ( (long) dirParents[value] << 32 ) | dirSegments[value];
+        }
+    }
+
+    private static int[] newSlots( final int length )
+    {
+        final int[] slots = new int[length];
+        Arrays.fill( slots, -1 );
+        return slots;
+    }
+
+    private static int hash( final long key )
+    {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ( h ^ ( h >>> 32 ) );
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.apache.http.NoHttpResponseException;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveLimiterTest
+{
+    private static final String REPO = "http://repo.example.com/";
+
+    private static final long LATENCY = 1000000;
+
+    @Test
+    public void limitGrowsWhileLatencyIsFlat()
+            throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter( 100 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            AdaptiveLimiter.Permit permit = limiter.acquire( REPO );
+            permit.onResponse( 200, LATENCY );
+            permit.release();
+        }
+
+        assertThat( limiter.getLimits().get( REPO ), equalTo( AdaptiveLimiter.INITIAL_LIMIT + 10 ) );
+    }
+
+    @Test
+    public void overloadHalvesLimitOncePerRoundTrip()
+            throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter( 100 );
+        AdaptiveLimiter.Permit first = limiter.acquire( REPO );
+        AdaptiveLimiter.Permit second = limiter.acquire( REPO );
+
+        first.onResponse( 503, LATENCY );
+        // sent before the limit was decreased, so it doesn't count again.
+        second.onFailure( new NoHttpResponseException( "dropped" ) );
+        first.release();
+        second.release();
+
+        assertThat( limiter.getLimits().get( REPO ), equalTo( AdaptiveLimiter.INITIAL_LIMIT / 2 ) );
+
+        AdaptiveLimiter.Permit third = limiter.acquire( REPO );
+        third.onResponse( 429, LATENCY );
+        third.release();
+
+        assertThat( limiter.getLimits().get( REPO ), equalTo( AdaptiveLimiter.INITIAL_LIMIT / 4 ) );
+    }
+
+    @Test
+    public void waitersAreGrantedPermitsAsOthersAreReleased()
+            throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter( 1 );
+        AdaptiveLimiter.Permit permit = limiter.acquire( REPO );
+        CompletableFuture<AdaptiveLimiter.Permit> waiting = limiter.acquireAsync( REPO );
+        CompletableFuture<AdaptiveLimiter.Permit> other = limiter.acquireAsync( "http://other.example.com/" );
+
+        assertThat( "Repository at its limit should make the next request wait", waiting.isDone(), equalTo( false ) );
+        assertThat( "Other repositories should have their own limit", other.isDone(), equalTo( true ) );
+
+        permit.release();
+        // releasing twice must not hand out an extra permit.
+        permit.release();
+
+        assertThat( waiting.isDone(), equalTo( true ) );
+        assertThat( limiter.acquireAsync( REPO ).isDone(), equalTo( false ) );
+    }
+
+    @Test
+    public void tryAcquireDoesNotWait()
+            throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter( 1 );
+        AdaptiveLimiter.Permit permit = limiter.tryAcquire( REPO );
+
+        assertThat( permit != null, equalTo( true ) );
+        assertThat( limiter.tryAcquire( REPO ) == null, equalTo( true ) );
+
+        permit.release();
+
+        assertThat( limiter.tryAcquire( REPO ) != null, equalTo( true ) );
+    }
+
+    @Test
+    public void abandonedRequestCanOnlyShrinkLimit()
+            throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter( 100 );
+        AdaptiveLimiter.Permit permit = limiter.acquire( REPO );
+        permit.onResponse( 200, LATENCY );
+        permit.release();
+        int limit = limiter.getLimits().get( REPO );
+
+        permit = limiter.acquire( REPO );
+        permit.onAbandoned( LATENCY );
+        permit.release();
+
+        assertThat( "Abandoned within the usual latency", limiter.getLimits().get( REPO ), equalTo( limit ) );
+
+        permit = limiter.acquire( REPO );
+        permit.onAbandoned( 10 * LATENCY );
+        permit.release();
+
+        assertThat( "Abandoned well beyond the usual latency", limiter.getLimits().get( REPO ) < limit,
+                    equalTo( true ) );
+    }
+}
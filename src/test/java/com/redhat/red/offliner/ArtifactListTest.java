@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import com.redhat.red.offliner.model.ArtifactList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ArtifactListTest
+{
+    @Test
+    public void pathsAreKeptInOrderAndDecodedExactly()
+    {
+        List<String> paths = Arrays.asList( "org/foo/foo/1.0/foo-1.0.pom", "org/foo/foo/1.0/foo-1.0-sources.jar",
+                                            "org/foo/foo/1.0/foo-1.0", "org/foo/foo/1.0/bar-1.0.jar",
+                                            "org/foo/foo/1.0/foo-1.0.jar", "org/foo/foo/maven-metadata.xml",
+                                            "org/foo/foo/1.0-SNAPSHOT/foo-1.0-20240101.120000-1.jar",
+                                            "org/foo/foo/1.0/foo-1.0.jar.sha1", "top-level.txt", "/leading/slash",
+                                            "trailing/slash/", "double//slash", "", "1.0/1.0-1.0.jar" );
+
+        ArtifactList list = new ArtifactList();
+        paths.forEach( list.getPaths()::add );
+
+        assertThat( list.size(), equalTo( paths.size() ) );
+        assertThat( new ArrayList<>( list.getPaths() ), equalTo( paths ) );
+        for ( String path : paths )
+        {
+            assertThat( path, list.getPaths().contains( path ), equalTo( true ) );
+        }
+        assertThat( list.getPaths().contains( "org/foo/foo/1.0/foo-1.0.war" ), equalTo( false ) );
+        assertThat( list.getPaths().contains( "org/foo/foo/2.0/foo-2.0.jar" ), equalTo( false ) );
+    }
+
+    @Test
+    public void pathsAreOnlyAddedOnce()
+    {
+        ArtifactList list = new ArtifactList();
+        list.addPath( "org/foo/foo/1.0/foo-1.0.jar" );
+        list.addPath( "org/foo/foo/1.0/foo-1.0.pom" );
+        list.addPath( "org/foo/foo/1.0/foo-1.0.jar" );
+
+        assertThat( list.getPaths(), equalTo( Arrays.asList( "org/foo/foo/1.0/foo-1.0.jar",
+                                                             "org/foo/foo/1.0/foo-1.0.pom" ) ) );
+    }
+
+    @Test
+    public void pathsCanBeModifiedAsAList()
+    {
+        String jar = "org/foo/foo/1.0/foo-1.0.jar";
+        String pom = "org/foo/foo/1.0/foo-1.0.pom";
+        String war = "org/foo/foo/1.0/foo-1.0.war";
+
+        ArtifactList list = new ArtifactList();
+        List<String> paths = list.getPaths();
+        assertThat( paths.add( jar ), equalTo( true ) );
+        assertThat( paths.add( pom ), equalTo( true ) );
+        assertThat( "A List keeps duplicates", paths.add( jar ), equalTo( true ) );
+        assertThat( paths, equalTo( Arrays.asList( jar, pom, jar ) ) );
+
+        assertThat( paths.remove( jar ), equalTo( true ) );
+        assertThat( paths, equalTo( Arrays.asList( pom, jar ) ) );
+        assertThat( "The other copy is still there", paths.contains( jar ), equalTo( true ) );
+
+        assertThat( paths.set( 0, war ), equalTo( pom ) );
+        assertThat( paths.contains( pom ), equalTo( false ) );
+        assertThat( paths.indexOf( war ), equalTo( 0 ) );
+
+        paths.add( 1, pom );
+        assertThat( paths, equalTo( Arrays.asList( war, pom, jar ) ) );
+        assertThat( list.size(), equalTo( 3 ) );
+
+        paths.clear();
+        assertThat( paths.isEmpty(), equalTo( true ) );
+        assertThat( paths.contains( jar ), equalTo( false ) );
+
+        list.addPath( jar );
+        assertThat( paths, equalTo( Collections.singletonList( jar ) ) );
+    }
+
+    @Test
+    public void constructorKeepsTheGivenList()
+    {
+        List<String> paths = new ArrayList<>( Arrays.asList( "org/foo/foo/1.0/foo-1.0.jar",
+                                                             "org/foo/foo/1.0/foo-1.0.jar" ) );
+        ArtifactList list = new ArtifactList( paths, Collections.emptyList(), Collections.emptyMap() );
+
+        assertThat( list.getPaths() == paths, equalTo( true ) );
+        assertThat( list.size(), equalTo( 2 ) );
+        assertThat( new ArtifactList( null, null, null ).getPaths(), equalTo( null ) );
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import com.redhat.red.offliner.model.DownloadResult;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.ConnectionClosedException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class AsyncDownloaderTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void requestThatCannotBeSentCompletesWithError()
+            throws Exception
+    {
+        OfflinerConfig config = OfflinerConfig.builder().withConnections( 2 ).build();
+        try (PartFiles partFiles = new PartFiles())
+        {
+            AsyncDownloader downloader =
+                    new AsyncDownloader( config, null, partFiles, new AdaptiveLimiter( 2 ),
+                                         new NegativeLookupCache( 0 ) );
+            // a closed client rejects every request.
+            downloader.close();
+
+            DownloadResult result = downloader.download( new File( temp.newFolder(), "test.jar" ), "test.jar", null,
+                                                         Collections.singletonList( "http://localhost:1/" ),
+                                                         null, null, new RepositoryScoreboard(), false, false )
+                                              .get( 10, TimeUnit.SECONDS );
+
+            assertThat( result.isSuccess(), equalTo( false ) );
+            assertThat( result.getError(), notNullValue() );
+        }
+    }
+
+    @Test
+    public void connectionClosedBeforeTheResponseIsRetried()
+            throws Exception
+    {
+        byte[] content = "retried content".getBytes( StandardCharsets.UTF_8 );
+        AtomicInteger connections = new AtomicInteger();
+        try (ServerSocket server = new ServerSocket( 0 ))
+        {
+            // the first connection is dropped as soon as the request arrives; the next one is answered.
+            Thread serverThread = new Thread( () -> {
+                try
+                {
+                    for ( int i = 0; i < 2; i++ )
+                    {
+                        try (Socket socket = server.accept())
+                        {
+                            connections.incrementAndGet();
+                            BufferedReader in = new BufferedReader(
+                                    new InputStreamReader( socket.getInputStream(), StandardCharsets.US_ASCII ) );
+                            String line;
+                            while ( ( line = in.readLine() ) != null && !line.isEmpty() )
+                            {
+                                // skip the request headers.
+                            }
+                            if ( i > 0 )
+                            {
+                                OutputStream out = socket.getOutputStream();
+                                out.write( ( "HTTP/1.1 200 OK\r\nContent-Length: " + content.length
+                                        + "\r\nConnection: close\r\n\r\n" ).getBytes( StandardCharsets.US_ASCII ) );
+                                out.write( content );
+                                out.flush();
+                            }
+                        }
+                    }
+                }
+                catch ( IOException e )
+                {
+                    // the test fails on the download result.
+                }
+            } );
+            serverThread.setDaemon( true );
+            serverThread.start();
+
+            OfflinerConfig config = OfflinerConfig.builder().withConnections( 2 ).build();
+            File target = new File( temp.newFolder(), "test.jar" );
+            try (PartFiles partFiles = new PartFiles();
+                 AsyncDownloader downloader = new AsyncDownloader( config, null, partFiles, null,
+                                                                   new NegativeLookupCache( 0 ) ))
+            {
+                DownloadResult result = downloader.download( target, "test.jar", null, Collections.singletonList(
+                        "http://localhost:" + server.getLocalPort() + "/" ), null, null, new RepositoryScoreboard(),
+                                                             false, false ).get( 30, TimeUnit.SECONDS );
+
+                assertThat( String.valueOf( result.getError() ), result.isSuccess(), equalTo( true ) );
+            }
+
+            assertThat( connections.get(), equalTo( 2 ) );
+            assertThat( FileUtils.readFileToByteArray( target ), equalTo( content ) );
+        }
+    }
+
+    @Test
+    public void onlyFailuresBeforeTheResponseAreRetriable()
+    {
+        assertThat( AsyncDownloader.isRetriable( new ConnectionClosedException( "closed" ) ), equalTo( true ) );
+        assertThat( AsyncDownloader.isRetriable( new SocketTimeoutException() ), equalTo( true ) );
+        assertThat( AsyncDownloader.isRetriable( new TimeoutException() ), equalTo( true ) );
+        assertThat( AsyncDownloader.isRetriable( new ConnectException() ), equalTo( false ) );
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ChannelCopierTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void copySpansMultipleBuffers()
+            throws Exception
+    {
+        byte[] content = new byte[3 * 1024 + 17];
+        new Random().nextBytes( content );
+        File part = temp.newFile();
+        FileUtils.writeByteArrayToFile( part, "stale content that is longer than nothing".getBytes() );
+
+        // a single small buffer, reused by each call
+        ChannelCopier copier = new ChannelCopier( 1024, 1 );
+
+        ChecksumOutputStream.Checksum checksum =
+                copier.copy( new ByteArrayInputStream( content ), part, false, ChecksumOutputStream.ALL_ALGORITHMS );
+
+        assertThat( FileUtils.readFileToByteArray( part ), equalTo( content ) );
+        assertThat( checksum.getMd5(), equalTo( DigestUtils.md5Hex( content ) ) );
+        assertThat( checksum.getSha1(), equalTo( DigestUtils.sha1Hex( content ) ) );
+        assertThat( checksum.getSha256(), equalTo( DigestUtils.sha256Hex( content ) ) );
+        assertThat( copier.digest( part, ChecksumOutputStream.ALL_ALGORITHMS ).getSha256(),
+                    equalTo( DigestUtils.sha256Hex( content ) ) );
+    }
+
+    @Test
+    public void appendedCopyIsDigestedWithItsPrefix()
+            throws Exception
+    {
+        byte[] content = new byte[5000];
+        new Random().nextBytes( content );
+        File part = temp.newFile();
+        FileUtils.writeByteArrayToFile( part, Arrays.copyOfRange( content, 0, 2000 ) );
+
+        ChannelCopier copier = new ChannelCopier( 1024, 1 );
+
+        ChecksumOutputStream.Checksum checksum =
+                copier.copy( new ByteArrayInputStream( content, 2000, 3000 ), part, true,
+                             ChecksumOutputStream.ALL_ALGORITHMS );
+
+        assertThat( FileUtils.readFileToByteArray( part ), equalTo( content ) );
+        assertThat( checksum.getSha1(), equalTo( DigestUtils.sha1Hex( content ) ) );
+    }
+
+    @Test
+    public void digestCalculatesOnlyTheGivenAlgorithms()
+            throws Exception
+    {
+        byte[] content = new byte[3 * 1024 + 17];
+        new Random().nextBytes( content );
+        File file = temp.newFile();
+        FileUtils.writeByteArrayToFile( file, content );
+
+        ChannelCopier copier = new ChannelCopier( 1024, 1 );
+
+        ChecksumOutputStream.Checksum checksum =
+                copier.digest( file, Collections.singleton( ChecksumOutputStream.SHA_1 ) );
+        assertThat( checksum.getMd5(), nullValue() );
+        assertThat( checksum.getSha1(), equalTo( DigestUtils.sha1Hex( content ) ) );
+        assertThat( checksum.getSha256(), nullValue() );
+    }
+
+    @Test
+    public void onlyLocalFileErrorsAreLocalFileExceptions()
+            throws Exception
+    {
+        ChannelCopier copier = new ChannelCopier( 1024, 1 );
+
+        File unwritable = new File( temp.newFile(), "part" );
+        try
+        {
+            copier.copy( new ByteArrayInputStream( new byte[10] ), unwritable, false,
+                         ChecksumOutputStream.ALL_ALGORITHMS );
+            fail( "Copying into a file under a regular file should fail" );
+        }
+        catch ( LocalFileException e )
+        {
+            // expected: the part file can't be opened.
+        }
+
+        InputStream broken = new InputStream()
+        {
+            @Override
+            public int read()
+                    throws IOException
+            {
+                throw new IOException( "Connection reset" );
+            }
+        };
+        try
+        {
+            copier.copy( broken, temp.newFile(), false, ChecksumOutputStream.ALL_ALGORITHMS );
+            fail( "Copying from a broken stream should fail" );
+        }
+        catch ( IOException e )
+        {
+            assertThat( e instanceof LocalFileException, equalTo( false ) );
+        }
+    }
+}
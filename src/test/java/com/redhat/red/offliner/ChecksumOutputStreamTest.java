@@ -21,9 +21,11 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.Collections;
 
 import static org.apache.commons.io.IOUtils.copy;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class ChecksumOutputStreamTest
 {
@@ -48,4 +50,44 @@ public class ChecksumOutputStreamTest
         assertEquals( checksum.getSha1(), sha1 );
         assertEquals( checksum.getSha256(), sha256 );
     }
+
+    @Test
+    public void onlySelectedAlgorithmsAreCalculated() throws Exception
+    {
+        byte[] content = IOUtils.toByteArray( getClass().getClassLoader().getResourceAsStream( "repo.pom" ) );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ChecksumOutputStream out = new ChecksumOutputStream( baos, Collections.singleton( ChecksumOutputStream.SHA_256 ) );
+        out.write( content );
+
+        ChecksumOutputStream.Checksum checksum = out.getChecksum();
+        assertNull( checksum.getMd5() );
+        assertNull( checksum.getSha1() );
+        assertEquals( DigestUtils.sha256Hex( content ), checksum.getSha256() );
+    }
+
+    @Test
+    public void noAlgorithmsPassesThrough() throws Exception
+    {
+        byte[] content = IOUtils.toByteArray( getClass().getClassLoader().getResourceAsStream( "repo.pom" ) );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ChecksumOutputStream out = new ChecksumOutputStream( baos, ChecksumOutputStream.algorithmsFor( null ) );
+        out.write( content );
+
+        assertEquals( content.length, baos.size() );
+        assertEquals( false, out.getChecksum().isMatch( DigestUtils.sha256Hex( content ) ) );
+    }
+
+    @Test
+    public void algorithmFollowsChecksumLength()
+    {
+        byte[] content = "This is a test".getBytes();
+
+        assertEquals( ChecksumOutputStream.MD5, ChecksumOutputStream.algorithmFor( DigestUtils.md5Hex( content ) ) );
+        assertEquals( ChecksumOutputStream.SHA_1, ChecksumOutputStream.algorithmFor( DigestUtils.sha1Hex( content ) ) );
+        assertEquals( ChecksumOutputStream.SHA_256,
+                      ChecksumOutputStream.algorithmFor( DigestUtils.sha256Hex( content ) ) );
+        assertNull( ChecksumOutputStream.algorithmFor( "abc" ) );
+    }
 }
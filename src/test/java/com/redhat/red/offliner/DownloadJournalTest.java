@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class DownloadJournalTest
+{
+    private static final String PATH = "org/foo/bar/1/bar-1.jar";
+
+    private static final String SHA256 = "88911386c76a1cb0a3869ce4e53d751a02fe9a2ce38daaa54164c6b82a2b8354";
+
+    private static final String OTHER_SHA256 = "99911386c76a1cb0a3869ce4e53d751a02fe9a2ce38daaa54164c6b82a2b8354";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void completedFileIsVerifiedAfterReopen()
+            throws Exception
+    {
+        File dir = temp.newFolder();
+        File target = new File( dir, PATH );
+        FileUtils.writeStringToFile( target, "This is a test" );
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            journal.started( PATH, null );
+            journal.completed( target, PATH, null, null, SHA256 );
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            assertThat( journal.isVerified( target, PATH, null ), equalTo( true ) );
+            assertThat( journal.isVerified( target, PATH, SHA256 ), equalTo( true ) );
+            assertThat( journal.isVerified( target, PATH, OTHER_SHA256 ), equalTo( false ) );
+        }
+    }
+
+    @Test
+    public void changedFileIsNotVerified()
+            throws Exception
+    {
+        File dir = temp.newFolder();
+        File target = new File( dir, PATH );
+        FileUtils.writeStringToFile( target, "This is a test" );
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            journal.completed( target, PATH, null, null, SHA256 );
+        }
+
+        FileUtils.writeStringToFile( target, "This is a different test" );
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            assertThat( journal.isVerified( target, PATH, null ), equalTo( false ) );
+        }
+    }
+
+    @Test
+    public void partFileIsKeptWithItsValidator()
+            throws Exception
+    {
+        File dir = temp.newFolder();
+        File part = new File( dir, PATH + DownloadJournal.PART_SUFFIX );
+        FileUtils.writeStringToFile( part, "This is a" );
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            journal.started( PATH, "\"abc\"" );
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            assertThat( part.exists(), equalTo( true ) );
+            assertThat( journal.getValidator( PATH ), equalTo( "\"abc\"" ) );
+            assertThat( journal.isVerified( new File( dir, PATH ), PATH, null ), equalTo( false ) );
+        }
+
+        // reopen again, to check the validator survives compaction
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            assertThat( journal.getValidator( PATH ), equalTo( "\"abc\"" ) );
+        }
+    }
+
+    @Test
+    public void completedFileKeepsItsValidator()
+            throws Exception
+    {
+        File dir = temp.newFolder();
+        File target = new File( dir, PATH );
+        FileUtils.writeStringToFile( target, "This is a test" );
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            journal.started( PATH, "\"abc\"" );
+            journal.completed( target, PATH, null, null, SHA256, "\"abc\"" );
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            assertThat( journal.getCompletedValidator( PATH ), equalTo( "\"abc\"" ) );
+            assertThat( "A completed file isn't resumable", journal.getValidator( PATH ), equalTo( null ) );
+            assertThat( journal.isVerified( target, PATH, SHA256 ), equalTo( true ) );
+        }
+    }
+
+    @Test
+    public void stalePartFilesAreSwept()
+            throws Exception
+    {
+        File dir = temp.newFolder();
+        long now = System.currentTimeMillis();
+
+        File known = new File( dir, PATH + DownloadJournal.PART_SUFFIX );
+        File expired = new File( dir, "org/foo/bar/2/bar-2.jar" + DownloadJournal.PART_SUFFIX );
+        File unknown = new File( dir, "org/foo/bar/3/bar-3.jar" + DownloadJournal.PART_SUFFIX );
+        File recent = new File( dir, "org/foo/bar/4/bar-4.jar" + DownloadJournal.PART_SUFFIX );
+        for ( File part : new File[] { known, expired, unknown, recent } )
+        {
+            FileUtils.writeStringToFile( part, "This is a" );
+        }
+        expired.setLastModified( now - DownloadJournal.PART_TTL - 60000 );
+        unknown.setLastModified( now - DownloadJournal.UNKNOWN_PART_AGE - 60000 );
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            journal.started( PATH, null );
+            journal.started( "org/foo/bar/2/bar-2.jar", "\"abc\"" );
+            journal.started( "org/foo/bar/5/bar-5.jar", "\"abc\"" );
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open( dir ))
+        {
+            assertThat( "A known part file should be kept", known.exists(), equalTo( true ) );
+            assertThat( "A part file that wasn't resumed in time should be deleted", expired.exists(),
+                        equalTo( false ) );
+            assertThat( journal.getValidator( "org/foo/bar/2/bar-2.jar" ), equalTo( null ) );
+            assertThat( "An old part file the journal doesn't know should be deleted", unknown.exists(),
+                        equalTo( false ) );
+            assertThat( "A recent part file may still be in use", recent.exists(), equalTo( true ) );
+        }
+
+        String lines = FileUtils.readFileToString( new File( dir, DownloadJournal.JOURNAL_FILE ) );
+        assertThat( "Known part should stay in the journal", lines.contains( PATH ), equalTo( true ) );
+        assertThat( "Gone parts should be dropped from the journal", lines.contains( "bar-5.jar" ), equalTo( false ) );
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.redhat.red.offliner.alist.FoloReportArtifactListReader;
+import com.redhat.red.offliner.alist.io.FoloSerializerModule;
+import com.redhat.red.offliner.model.ArtifactList;
+import com.redhat.red.offliner.model.ArtifactListStream;
+import org.apache.commons.io.FileUtils;
+import org.commonjava.indy.folo.dto.TrackedContentDTO;
+import org.commonjava.indy.folo.dto.TrackedContentEntryDTO;
+import org.commonjava.indy.folo.model.TrackingKey;
+import org.commonjava.indy.model.core.AccessChannel;
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.indy.model.core.StoreType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class FoloReportArtifactListReaderTest
+{
+    private static final String REMOTE = "http://remote.example.com/repo/";
+
+    private static final String LOCAL = "http://indy.example.com/api/hosted/local/";
+
+    private static final String SHA256 = "88911386c76a1cb0a3869ce4e53d751a02fe9a2ce38daaa54164c6b82a2b8354";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void onlyDownloadsAreRead()
+            throws Exception
+    {
+        StoreKey key = new StoreKey( StoreType.remote, "test" );
+        TrackedContentEntryDTO remote = entry( key, "org/foo/foo/1/foo-1.jar" );
+        remote.setOriginUrl( REMOTE + remote.getPath() );
+        remote.setSha256( SHA256 );
+        TrackedContentEntryDTO local = entry( key, "org/bar/bar/1/bar-1.pom" );
+        local.setLocalUrl( LOCAL + local.getPath() );
+        TrackedContentEntryDTO metadata = entry( key, "org/foo/foo/maven-metadata.xml" );
+        metadata.setOriginUrl( REMOTE + metadata.getPath() );
+        TrackedContentEntryDTO unknown = entry( key, "org/baz/baz/1/baz-1.jar" );
+        TrackedContentEntryDTO upload = entry( key, "org/up/up/1/up-1.jar" );
+        upload.setLocalUrl( LOCAL + upload.getPath() );
+
+        TrackedContentDTO report = new TrackedContentDTO( new TrackingKey( "test-record" ),
+                                                          Collections.singleton( upload ), new HashSet<>(
+                Arrays.asList( remote, local, metadata, unknown ) ) );
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule( new FoloSerializerModule() );
+        File file = temp.newFile( "folo.json" );
+        FileUtils.write( file, mapper.writeValueAsString( report ) );
+
+        FoloReportArtifactListReader reader = new FoloReportArtifactListReader();
+        ArtifactList list = reader.readPaths( file );
+
+        assertThat( new HashSet<>( list.getPaths() ),
+                    equalTo( new HashSet<>( Arrays.asList( remote.getPath(), local.getPath() ) ) ) );
+        assertThat( new HashSet<>( list.getRepositoryUrls() ),
+                    equalTo( new HashSet<>( Arrays.asList( REMOTE, LOCAL ) ) ) );
+        assertThat( list.getChecksums(), equalTo( Collections.singletonMap( remote.getPath(), SHA256 ) ) );
+
+        try (ArtifactListStream stream = reader.streamPaths( file ))
+        {
+            assertThat( new HashSet<>( stream.getRepositoryUrls() ),
+                        equalTo( new HashSet<>( Arrays.asList( REMOTE, LOCAL ) ) ) );
+
+            int paths = 0;
+            String path;
+            while ( ( path = stream.nextPath() ) != null )
+            {
+                assertThat( stream.getChecksum(), equalTo( path.equals( remote.getPath() ) ? SHA256 : null ) );
+                paths++;
+            }
+            assertThat( paths, equalTo( 2 ) );
+            assertThat( stream.nextPath(), nullValue() );
+        }
+    }
+
+    private static TrackedContentEntryDTO entry( final StoreKey key, final String path )
+    {
+        return new TrackedContentEntryDTO( key, AccessChannel.NATIVE, path );
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LatencyTrackerTest
+{
+    @Test
+    public void percentilesOfRecordedSamples()
+    {
+        LatencyTracker tracker = new LatencyTracker();
+        assertThat( tracker.percentile( 95 ), equalTo( -1L ) );
+
+        for ( long i = 100; i > 0; i-- )
+        {
+            tracker.record( i );
+        }
+
+        assertThat( tracker.size(), equalTo( 100 ) );
+        assertThat( tracker.percentile( 50 ), equalTo( 50L ) );
+        assertThat( tracker.percentile( 95 ), equalTo( 95L ) );
+        assertThat( tracker.percentile( 100 ), equalTo( 100L ) );
+        assertThat( tracker.percentile( 0 ), equalTo( 1L ) );
+    }
+
+    @Test
+    public void oldSamplesAreForgotten()
+    {
+        LatencyTracker tracker = new LatencyTracker();
+        for ( int i = 0; i < LatencyTracker.SAMPLES; i++ )
+        {
+            tracker.record( 1000 );
+        }
+        for ( int i = 0; i < LatencyTracker.SAMPLES; i++ )
+        {
+            tracker.record( 10 );
+        }
+
+        assertThat( tracker.size(), equalTo( LatencyTracker.SAMPLES ) );
+        assertThat( tracker.percentile( 99 ), equalTo( 10L ) );
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import com.redhat.red.offliner.alist.PlaintextArtifactListReader;
+import com.redhat.red.offliner.alist.io.ManifestCompression;
+import com.redhat.red.offliner.model.ArtifactList;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ManifestCompressionTest
+{
+    private static final String MANIFEST = "#header\nrepoUrl=http://example.com/repo/\n---end\n"
+            + "org/foo/foo/1.0/foo-1.0.pom\norg/foo/foo/1.0/foo-1.0.jar\n";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void compressedManifestsAreDetectedAndDecoded()
+            throws Exception
+    {
+        File plain = temp.newFile( "list.txt" );
+        FileUtils.write( plain, MANIFEST, StandardCharsets.UTF_8 );
+        check( plain, ManifestCompression.NONE );
+
+        File gzip = temp.newFile( "list.txt.gz" );
+        try (OutputStream out = new GzipCompressorOutputStream( new FileOutputStream( gzip ) ))
+        {
+            IOUtils.write( MANIFEST, out, StandardCharsets.UTF_8 );
+        }
+        check( gzip, ManifestCompression.GZIP );
+
+        // the compression is detected from the content, not the name.
+        File xz = temp.newFile( "list.bin" );
+        try (OutputStream out = new XZCompressorOutputStream( new FileOutputStream( xz ) ))
+        {
+            IOUtils.write( MANIFEST, out, StandardCharsets.UTF_8 );
+        }
+        check( xz, ManifestCompression.XZ );
+
+        File zstd = temp.newFile( "list.txt.zst" );
+        try (OutputStream out = new ZstdCompressorOutputStream( new FileOutputStream( zstd ) ))
+        {
+            IOUtils.write( MANIFEST, out, StandardCharsets.UTF_8 );
+        }
+        check( zstd, ManifestCompression.ZSTD );
+    }
+
+    @Test
+    public void compressionSuffixIsIgnoredWhenSelectingAReader()
+    {
+        assertThat( ManifestCompression.getUncompressedName( new File( "folo.json.gz" ) ), equalTo( "folo.json" ) );
+        assertThat( ManifestCompression.getUncompressedName( new File( "folo.json.zstd" ) ), equalTo( "folo.json" ) );
+        assertThat( ManifestCompression.getUncompressedName( new File( "list.txt" ) ), equalTo( "list.txt" ) );
+        assertThat( new PlaintextArtifactListReader().supports( new File( "repo.pom.xz" ) ), equalTo( false ) );
+    }
+
+    private static void check( final File file, final ManifestCompression compression )
+            throws Exception
+    {
+        assertThat( ManifestCompression.detect( file ), equalTo( compression ) );
+        try (InputStream in = ManifestCompression.open( file ))
+        {
+            assertThat( IOUtils.toString( in, StandardCharsets.UTF_8 ), equalTo( MANIFEST ) );
+        }
+
+        ArtifactList list = new PlaintextArtifactListReader().readPaths( file );
+        assertThat( list.getPaths(),
+                    equalTo( Arrays.asList( "org/foo/foo/1.0/foo-1.0.pom", "org/foo/foo/1.0/foo-1.0.jar" ) ) );
+        assertThat( OfflinerUtils.parseArgsWithHeader( new String[] { file.getPath() } )[0], equalTo( "--repoUrl" ) );
+    }
+}
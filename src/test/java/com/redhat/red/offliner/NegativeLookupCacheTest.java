@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class NegativeLookupCacheTest
+{
+    private static final String A = "http://a.example.com/";
+
+    private static final String B = "http://b.example.com/";
+
+    private static final List<String> REPOS = Arrays.asList( A, B );
+
+    private static final long TTL = 1000;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong( 1 );
+
+    @Test
+    public void repositoryMissingGavIsTriedLast()
+    {
+        NegativeLookupCache cache = new NegativeLookupCache( TTL, now::get );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar" );
+        // checksums of the same artifact don't count as another miss.
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar.sha1" );
+
+        assertThat( cache.order( REPOS, "org/foo/bar/1.0/bar-1.0.pom" ), equalTo( REPOS ) );
+
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.pom" );
+
+        assertThat( cache.order( REPOS, "org/foo/bar/1.0/bar-1.0-sources.jar" ), equalTo( Arrays.asList( B, A ) ) );
+        assertThat( "Other versions are only affected once the GA is missing",
+                    cache.order( REPOS, "org/foo/bar/2.0/bar-2.0.jar" ), equalTo( REPOS ) );
+    }
+
+    @Test
+    public void repositoryMissingGaIsTriedLast()
+    {
+        NegativeLookupCache cache = new NegativeLookupCache( TTL, now::get );
+        for ( int i = 0; i < NegativeLookupCache.GA_MISSES; i++ )
+        {
+            cache.missed( A, "org/foo/bar/1." + i + "/bar-1." + i + ".jar" );
+            cache.missed( A, "org/foo/bar/1." + i + "/bar-1." + i + ".pom" );
+        }
+
+        assertThat( cache.order( REPOS, "org/foo/bar/2.0/bar-2.0.jar" ), equalTo( Arrays.asList( B, A ) ) );
+        assertThat( cache.order( REPOS, "org/foo/baz/2.0/baz-2.0.jar" ), equalTo( REPOS ) );
+    }
+
+    @Test
+    public void foundAndExpiredMissesAreForgotten()
+    {
+        NegativeLookupCache cache = new NegativeLookupCache( TTL, now::get );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar" );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.pom" );
+        cache.found( A, "org/foo/bar/1.0/bar-1.0-sources.jar" );
+
+        assertThat( cache.order( REPOS, "org/foo/bar/1.0/bar-1.0.jar" ), equalTo( REPOS ) );
+
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar" );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.pom" );
+        now.addAndGet( TTL );
+
+        assertThat( cache.order( REPOS, "org/foo/bar/1.0/bar-1.0.jar" ), equalTo( REPOS ) );
+    }
+
+    @Test
+    public void missesSurviveSaveAndLoad()
+            throws Exception
+    {
+        File file = new File( temp.newFolder(), "negative-cache" );
+        NegativeLookupCache cache = new NegativeLookupCache( TTL, now::get );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar" );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.pom" );
+        cache.save( file );
+
+        NegativeLookupCache loaded = new NegativeLookupCache( TTL, now::get );
+        loaded.load( file );
+
+        assertThat( loaded.order( REPOS, "org/foo/bar/1.0/bar-1.0.jar" ), equalTo( Arrays.asList( B, A ) ) );
+    }
+
+    @Test
+    public void interleavedMissesOfTheSameArtifactCountOnce()
+    {
+        NegativeLookupCache cache = new NegativeLookupCache( TTL, now::get );
+        // as concurrent downloads of an artifact and its checksum files may report them.
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar" );
+        cache.missed( A, "org/foo/baz/1.0/baz-1.0.jar" );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar.sha1" );
+        cache.missed( A, "org/foo/baz/1.0/baz-1.0.jar.md5" );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar.md5" );
+
+        assertThat( cache.order( REPOS, "org/foo/bar/1.0/bar-1.0.pom" ), equalTo( REPOS ) );
+    }
+
+    @Test
+    public void expiredEntriesAreRemoved()
+            throws Exception
+    {
+        NegativeLookupCache cache = new NegativeLookupCache( TTL, now::get );
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar" );
+        cache.missed( B, "org/foo/bar/1.0/bar-1.0.jar" );
+        now.addAndGet( TTL );
+
+        cache.order( REPOS, "org/foo/bar/1.0/bar-1.0.pom" );
+        assertThat( "Expired entries should be removed when looked up", cache.size(), equalTo( 0 ) );
+
+        cache.missed( A, "org/foo/bar/1.0/bar-1.0.jar" );
+        now.addAndGet( TTL );
+        cache.save( new File( temp.newFolder(), "negative-cache" ) );
+        assertThat( "Expired entries should be removed when saved", cache.size(), equalTo( 0 ) );
+
+        for ( int i = 0; i < NegativeLookupCache.SWEEP_INTERVAL; i++ )
+        {
+            cache.missed( A, "org/foo/bar/" + i + "/bar-" + i + ".jar" );
+        }
+        now.addAndGet( TTL );
+        for ( int i = 0; i < NegativeLookupCache.SWEEP_INTERVAL; i++ )
+        {
+            cache.missed( B, "org/foo/baz/1.0/baz-1.0.jar" );
+        }
+        assertThat( "Expired entries should be swept periodically", cache.size(), equalTo( 1 ) );
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PartFilesTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void releasedPartFileIsDeletedUnlessKept()
+            throws Exception
+    {
+        File dir = temp.newFolder();
+        try (PartFiles partFiles = new PartFiles())
+        {
+            File discarded = partFiles.open( new File( dir, "discarded.jar" ) );
+            File kept = partFiles.open( new File( dir, "kept.jar" ) );
+            FileUtils.writeStringToFile( discarded, "This is a" );
+            FileUtils.writeStringToFile( kept, "This is a" );
+            partFiles.keep( kept, true );
+
+            partFiles.release( discarded );
+            partFiles.release( kept );
+
+            assertThat( discarded.exists(), equalTo( false ) );
+            assertThat( kept.exists(), equalTo( true ) );
+        }
+    }
+
+    @Test
+    public void closeCleansUpInFlightPartFiles()
+            throws Exception
+    {
+        File dir = temp.newFolder();
+        File part;
+        try (PartFiles partFiles = new PartFiles())
+        {
+            part = partFiles.open( new File( dir, "in-flight.jar" ) );
+            FileUtils.writeStringToFile( part, "This is a" );
+        }
+
+        assertThat( part.exists(), equalTo( false ) );
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import com.redhat.red.offliner.model.PathIndex;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PathIndexTest
+{
+    private static final String PATH = "org/foo/bar/1/bar-1.jar";
+
+    private static final String SHA256 = "88911386c76a1cb0a3869ce4e53d751a02fe9a2ce38daaa54164c6b82a2b8354";
+
+    private static final String OTHER_SHA256 = "99911386c76a1cb0a3869ce4e53d751a02fe9a2ce38daaa54164c6b82a2b8354";
+
+    private static final String MD5 = "3dd3b2d3a7d2a3c1c9e2f0b3a0a5e3c1";
+
+    @Test
+    public void pathIsOnlyAddedOnce()
+    {
+        PathIndex index = new PathIndex();
+
+        assertThat( index.add( PATH, null ), equalTo( true ) );
+        assertThat( index.add( PATH, null ), equalTo( false ) );
+        assertThat( index.add( PATH, SHA256 ), equalTo( false ) );
+        assertThat( index.size(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void laterChecksumFillsInMissingOne()
+    {
+        PathIndex index = new PathIndex();
+        index.add( PATH, " " );
+
+        assertThat( index.getChecksum( PATH ), nullValue() );
+
+        index.add( PATH, SHA256 );
+
+        assertThat( index.getChecksum( PATH ), equalTo( SHA256 ) );
+        assertThat( index.getConflicts().isEmpty(), equalTo( true ) );
+    }
+
+    @Test
+    public void strongerChecksumWins()
+    {
+        PathIndex index = new PathIndex();
+        index.add( PATH, MD5 );
+        index.add( PATH, SHA256 );
+        index.add( PATH, MD5 );
+
+        assertThat( index.getChecksum( PATH ), equalTo( SHA256 ) );
+        assertThat( index.getConflicts().isEmpty(), equalTo( true ) );
+    }
+
+    @Test
+    public void conflictingChecksumIsFlagged()
+    {
+        PathIndex index = new PathIndex();
+        index.add( PATH, SHA256 );
+        index.add( PATH, SHA256.toUpperCase() );
+
+        assertThat( index.getConflicts().isEmpty(), equalTo( true ) );
+
+        index.add( PATH, OTHER_SHA256 );
+
+        assertThat( index.getChecksum( PATH ), equalTo( SHA256 ) );
+        assertThat( index.getConflicts().containsKey( PATH ), equalTo( true ) );
+    }
+}
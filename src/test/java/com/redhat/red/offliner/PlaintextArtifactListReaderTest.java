@@ -17,6 +17,7 @@ package com.redhat.red.offliner;
 
 import com.redhat.red.offliner.alist.PlaintextArtifactListReader;
 import com.redhat.red.offliner.model.ArtifactList;
+import com.redhat.red.offliner.model.ArtifactListStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.AfterClass;
@@ -29,10 +30,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertNull;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class PlaintextArtifactListReaderTest
@@ -135,4 +138,26 @@ public class PlaintextArtifactListReaderTest
                     equalTo( matcherChecksum ) );
     }
 
+    @Test
+    public void streamPathsSkipsHeaderCommentsAndBlankLines()
+            throws Exception
+    {
+        File manifest = new File( TEMP_PLAINTEXT_DIR, "stream.txt" );
+        FileUtils.writeLines( manifest, Arrays.asList( "#header", "-r http://example.com/repo/", "---end",
+                                                       "", "# a comment", "org/foo/foo.pom",
+                                                       "  " + matcherChecksum + " ,  " + actualPath + " , extra",
+                                                       "org/bar/bar.pom," ) );
+
+        try (ArtifactListStream stream = new PlaintextArtifactListReader().streamPaths( manifest ))
+        {
+            assertThat( stream.nextPath(), equalTo( "org/foo/foo.pom" ) );
+            assertThat( stream.getChecksum(), nullValue() );
+            assertThat( stream.nextPath(), equalTo( actualPath ) );
+            assertThat( stream.getChecksum(), equalTo( matcherChecksum ) );
+            assertThat( stream.nextPath(), equalTo( "org/bar/bar.pom" ) );
+            assertThat( stream.getChecksum(), nullValue() );
+            assertThat( stream.nextPath(), nullValue() );
+        }
+    }
+
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class RepositoryScoreboardTest
+{
+    private static final String A = "http://a.example.com/";
+
+    private static final String B = "http://b.example.com/";
+
+    private static final String C = "http://c.example.com/";
+
+    private static final List<String> REPOS = Arrays.asList( A, B, C );
+
+    private final AtomicLong now = new AtomicLong( 1 );
+
+    @Test
+    public void failingRepositoryIsEjectedThenReadmitted()
+    {
+        RepositoryScoreboard scoreboard = new RepositoryScoreboard( now::get );
+        for ( int i = 1; i < RepositoryScoreboard.FAILURE_THRESHOLD; i++ )
+        {
+            scoreboard.onFailure( A );
+        }
+        assertThat( scoreboard.order( REPOS ), equalTo( REPOS ) );
+
+        scoreboard.onResponse( A, 503, 1 );
+        assertThat( scoreboard.order( REPOS ), equalTo( Arrays.asList( B, C, A ) ) );
+        assertThat( scoreboard.getScores( REPOS ).get( A ).getCircuit(), equalTo( RepositoryScore.Circuit.OPEN ) );
+
+        now.addAndGet( RepositoryScoreboard.OPEN_MILLIS );
+        assertThat( scoreboard.order( REPOS ), equalTo( REPOS ) );
+        assertThat( scoreboard.getScores( REPOS ).get( A ).getCircuit(),
+                    equalTo( RepositoryScore.Circuit.HALF_OPEN ) );
+
+        // failing again while half-open ejects it for twice as long.
+        scoreboard.onFailure( A );
+        now.addAndGet( RepositoryScoreboard.OPEN_MILLIS );
+        assertThat( scoreboard.order( REPOS ), equalTo( Arrays.asList( B, C, A ) ) );
+        now.addAndGet( RepositoryScoreboard.OPEN_MILLIS );
+
+        scoreboard.onResponse( A, 200, 1 );
+        assertThat( scoreboard.getScores( REPOS ).get( A ).getCircuit(), equalTo( RepositoryScore.Circuit.CLOSED ) );
+        for ( int i = 1; i < RepositoryScoreboard.FAILURE_THRESHOLD; i++ )
+        {
+            scoreboard.onFailure( A );
+        }
+        assertThat( "Failures before the last success shouldn't count", scoreboard.order( REPOS ), equalTo( REPOS ) );
+    }
+
+    @Test
+    public void notFoundAndSlowResponsesKeepPriority()
+    {
+        RepositoryScoreboard scoreboard = new RepositoryScoreboard( now::get );
+        for ( int i = 0; i < 2 * RepositoryScoreboard.FAILURE_THRESHOLD; i++ )
+        {
+            scoreboard.onResponse( A, 404, TimeUnit.SECONDS.toNanos( 10 ) );
+            scoreboard.onResponse( B, 200, TimeUnit.MILLISECONDS.toNanos( 1 ) );
+        }
+
+        assertThat( scoreboard.order( REPOS ), equalTo( REPOS ) );
+    }
+
+    @Test
+    public void scoresAreReported()
+    {
+        RepositoryScoreboard scoreboard = new RepositoryScoreboard( now::get );
+        scoreboard.onResponse( A, 200, TimeUnit.MILLISECONDS.toNanos( 10 ) );
+        scoreboard.onTransfer( A, 1000, TimeUnit.MILLISECONDS.toNanos( 500 ) );
+        scoreboard.onResponse( A, 200, TimeUnit.MILLISECONDS.toNanos( 30 ) );
+        scoreboard.onTransfer( A, 1000, TimeUnit.MILLISECONDS.toNanos( 500 ) );
+        scoreboard.onResponse( A, 404, TimeUnit.MILLISECONDS.toNanos( 20 ) );
+        scoreboard.onFailure( A );
+
+        RepositoryScore score = scoreboard.getScores( REPOS ).get( A );
+        assertThat( score.getRequests(), equalTo( 4L ) );
+        assertThat( score.getSuccessRate(), equalTo( 0.5 ) );
+        assertThat( score.getNotFoundRate(), equalTo( 0.25 ) );
+        assertThat( score.getFailures(), equalTo( 1L ) );
+        assertThat( score.getFirstByteP50Millis(), equalTo( 20L ) );
+        assertThat( score.getFirstByteP99Millis(), equalTo( 30L ) );
+        assertThat( score.getThroughput(), equalTo( 2000.0 ) );
+
+        RepositoryScore unused = scoreboard.getScores( REPOS ).get( C );
+        assertThat( unused.getRequests(), equalTo( 0L ) );
+        assertThat( unused.getFirstByteP50Millis(), equalTo( -1L ) );
+    }
+
+    @Test
+    public void requestScoresAreIsolatedButCircuitsAreShared()
+    {
+        RepositoryScoreboard shared = new RepositoryScoreboard( now::get );
+        RepositoryScoreboard first = shared.newRequestScoreboard();
+        RepositoryScoreboard second = shared.newRequestScoreboard();
+
+        first.onResponse( A, 200, 1 );
+        for ( int i = 0; i < RepositoryScoreboard.FAILURE_THRESHOLD; i++ )
+        {
+            second.onFailure( A );
+        }
+
+        assertThat( first.getScores( REPOS ).get( A ).getRequests(), equalTo( 1L ) );
+        assertThat( first.getScores( REPOS ).get( A ).getFailures(), equalTo( 0L ) );
+        assertThat( second.getScores( REPOS ).get( A ).getRequests(),
+                    equalTo( (long) RepositoryScoreboard.FAILURE_THRESHOLD ) );
+        assertThat( shared.getScores( REPOS ).get( A ).getRequests(),
+                    equalTo( RepositoryScoreboard.FAILURE_THRESHOLD + 1L ) );
+
+        // failures from either request eject the repository for both.
+        assertThat( first.order( REPOS ), equalTo( Arrays.asList( B, C, A ) ) );
+        assertThat( first.getScores( REPOS ).get( A ).getCircuit(), equalTo( RepositoryScore.Circuit.OPEN ) );
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class SharedLimitsTest
+{
+    private static final String REPO = "http://repo.example.com/maven2";
+
+    @Test
+    public void lowestLimitAppliesUntilTheLastRequestIsDone()
+    {
+        SharedLimits<String> limits = new SharedLimits<>();
+
+        assertThat( limits.add( REPO, 4 ), equalTo( 4 ) );
+        assertThat( limits.add( REPO, 2 ), equalTo( 2 ) );
+        assertThat( "A higher limit doesn't lift a lower one", limits.add( REPO, 8 ), equalTo( 2 ) );
+
+        assertThat( limits.remove( REPO, 2 ), equalTo( 4 ) );
+        assertThat( limits.remove( REPO, 8 ), equalTo( 4 ) );
+        assertThat( "No limit is left once every request is done", limits.remove( REPO, 4 ), equalTo( -1 ) );
+        assertThat( limits.add( REPO, 6 ), equalTo( 6 ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void limitThatWasNeverAddedCantBeRemoved()
+    {
+        SharedLimits<String> limits = new SharedLimits<>();
+        limits.add( REPO, 4 );
+        limits.remove( REPO, 2 );
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.bench;
+
+import com.redhat.red.offliner.ChecksumOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of {@link ChecksumOutputStream} when calculating every digest (which is what it always did),
+ * only the one needed to verify a SHA-256 checksum, and none at all.
+ * <p>
+ * Run it from the IDE, or with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.redhat.red.offliner.bench.ChecksumOutputStreamBenchmark
+ * </pre>
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ChecksumOutputStreamBenchmark
+{
+    private static final int CONTENT_SIZE = 8 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param( { "all", "sha256", "none" } )
+    public String digests;
+
+    private Set<String> algorithms;
+
+    private byte[] content;
+
+    @Setup
+    public void setup()
+    {
+        content = new byte[CONTENT_SIZE];
+        new Random( 42 ).nextBytes( content );
+
+        switch ( digests )
+        {
+            case "all":
+                algorithms = ChecksumOutputStream.ALL_ALGORITHMS;
+                break;
+            case "sha256":
+                algorithms = Collections.singleton( ChecksumOutputStream.SHA_256 );
+                break;
+            default:
+                algorithms = Collections.emptySet();
+        }
+    }
+
+    /**
+     * Write 8MB through the stream in chunks the size of a typical copy buffer.
+     */
+    @Benchmark
+    @OutputTimeUnit( TimeUnit.SECONDS )
+    public ChecksumOutputStream.Checksum write()
+            throws Exception
+    {
+        ChecksumOutputStream out = new ChecksumOutputStream( NullOutputStream.NULL_OUTPUT_STREAM, algorithms );
+        for ( int off = 0; off < content.length; off += CHUNK_SIZE )
+        {
+            out.write( content, off, CHUNK_SIZE );
+        }
+        return out.getChecksum();
+    }
+
+    public static void main( String[] args )
+            throws Exception
+    {
+        new Runner( new OptionsBuilder().include( ChecksumOutputStreamBenchmark.class.getSimpleName() ).build() ).run();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.bench;
+
+import com.redhat.red.offliner.ChannelCopier;
+import com.redhat.red.offliner.ChecksumOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing a response body to its part file the way downloads used to (copying the stream into a
+ * {@link ChecksumOutputStream} wrapped around a {@link FileOutputStream}) with {@link ChannelCopier}, at a few
+ * buffer sizes. Both calculate the SHA-1 a download is usually verified with. Run with
+ * {@code -prof gc} to compare their allocation rates as well.
+ * <p>
+ * Run it from the IDE, or with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.redhat.red.offliner.bench.ResponseCopyBenchmark
+ * </pre>
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ResponseCopyBenchmark
+{
+    private static final int CONTENT_SIZE = 32 * 1024 * 1024;
+
+    private static final Set<String> ALGORITHMS = Collections.singleton( ChecksumOutputStream.SHA_1 );
+
+    @Param( { "8192", "65536", "262144" } )
+    public int bufferSize;
+
+    private byte[] content;
+
+    private File part;
+
+    private ChannelCopier copier;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        content = new byte[CONTENT_SIZE];
+        new Random( 42 ).nextBytes( content );
+        part = File.createTempFile( "response-copy", ".part" );
+        copier = new ChannelCopier( bufferSize, 1 );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        part.delete();
+    }
+
+    /**
+     * Write 32MB through the stream path. It copies with the fixed buffer of {@link IOUtils#copy}, whatever the
+     * buffer size parameter says.
+     */
+    @Benchmark
+    @OutputTimeUnit( TimeUnit.SECONDS )
+    public ChecksumOutputStream.Checksum stream()
+            throws Exception
+    {
+        try (ChecksumOutputStream out = new ChecksumOutputStream( new FileOutputStream( part ), ALGORITHMS ))
+        {
+            IOUtils.copy( new ByteArrayInputStream( content ), out );
+            return out.getChecksum();
+        }
+    }
+
+    /**
+     * Write 32MB through a {@link java.nio.channels.FileChannel}, from a pooled buffer of the given size.
+     */
+    @Benchmark
+    @OutputTimeUnit( TimeUnit.SECONDS )
+    public ChecksumOutputStream.Checksum channel()
+            throws Exception
+    {
+        return copier.copy( new ByteArrayInputStream( content ), part, false, ALGORITHMS );
+    }
+
+    public static void main( String[] args )
+            throws Exception
+    {
+        new Runner( new OptionsBuilder().include( ResponseCopyBenchmark.class.getSimpleName() ).build() ).run();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.cli.Options;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.commonjava.indy.folo.dto.TrackedContentDTO;
+import org.commonjava.indy.folo.dto.TrackedContentEntryDTO;
+import org.commonjava.indy.folo.model.TrackingKey;
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.indy.model.core.StoreType;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download from a gzipped plaintext artifact list and an xz-compressed Folo report, without decompressing them first.
+ * Every artifact in them (and its checksum files) should be downloaded.
+ */
+public class CompressedManifestFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        TestRepositoryServer server = newRepositoryServer();
+
+        String path = contentGenerator.newArtifactPath( "jar" );
+        byte[] content = contentGenerator.newBinaryContent( 1024 );
+        register( server, path, content );
+
+        File plaintextList = temporaryFolder.newFile( "artifact-list." + getClass().getSimpleName() + ".txt.gz" );
+        try (OutputStream out = new GzipCompressorOutputStream( new FileOutputStream( plaintextList ) ))
+        {
+            IOUtils.write( contentGenerator.newPlaintextEntryWithChecksum( path, content ), out,
+                           StandardCharsets.UTF_8 );
+        }
+
+        byte[] foloContent = contentGenerator.newBinaryContent( 1024 );
+        TrackedContentEntryDTO dto =
+                contentGenerator.newRemoteContentEntry( new StoreKey( StoreType.remote, "test" ), "jar",
+                                                        server.getBaseUri(), foloContent );
+        register( server, dto.getPath(), foloContent );
+
+        TrackedContentDTO record = new TrackedContentDTO( new TrackingKey( "test-record" ), Collections.emptySet(),
+                                                          Collections.singleton( dto ) );
+        File foloRecord = temporaryFolder.newFile( "folo." + getClass().getSimpleName() + ".json.xz" );
+        try (OutputStream out = new XZCompressorOutputStream( new FileOutputStream( foloRecord ) ))
+        {
+            objectMapper.writeValue( out, record );
+        }
+
+        Options opts = new Options();
+        opts.setBaseUrls( Collections.singletonList( server.getBaseUri() ) );
+        opts.setDownloads( temporaryFolder.newFolder() );
+        opts.setLocations( Arrays.asList( plaintextList.getAbsolutePath(), foloRecord.getAbsolutePath() ) );
+
+        OfflinerResult result = run( opts );
+
+        assertThat( "Wrong number of downloads logged. Should have been 6 including checksums.",
+                    result.getDownloaded(), equalTo( 6 ) );
+        assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+    }
+
+    private static void register( final TestRepositoryServer server, final String path, final byte[] content )
+            throws IOException
+    {
+        server.registerContent( path, content );
+        server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+        server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+    }
+}
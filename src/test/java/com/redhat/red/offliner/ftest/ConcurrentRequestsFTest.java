@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Run several requests at the same time through a single {@link Offliner}, each with its own artifact list and download
+ * directory, then run another one once they're done. Each request should get its own result, and the Offliner should
+ * still be usable afterward.
+ */
+public class ConcurrentRequestsFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final int REQUESTS = 3;
+
+    private static final int ARTIFACTS = 5;
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        // We only need one repo server.
+        TestRepositoryServer server = newRepositoryServer();
+
+        List<OfflinerRequest> requests = new ArrayList<>();
+        for ( int i = 0; i <= REQUESTS; i++ )
+        {
+            StringBuilder entries = new StringBuilder();
+            for ( int j = 0; j < ARTIFACTS; j++ )
+            {
+                String path = contentGenerator.newArtifactPath( "jar" );
+                byte[] content = contentGenerator.newBinaryContent( 1024 );
+
+                server.registerContent( path, content );
+                server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+                server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+                entries.append( contentGenerator.newPlaintextEntryWithChecksum( path, content ) ).append( '\n' );
+            }
+
+            File plaintextList = temporaryFolder.newFile( "artifact-list-" + i + ".txt" );
+            FileUtils.write( plaintextList, entries );
+
+            requests.add( OfflinerRequest.builder()
+                                         .withArtifactList( plaintextList.getAbsolutePath() )
+                                         .withDownloadDir( temporaryFolder.newFolder() )
+                                         .withRepoUrl( server.getBaseUri() )
+                                         .build() );
+        }
+
+        try (Offliner offliner = new Offliner(
+                OfflinerConfig.builder().withThreads( 2 ).withConnections( 4 ).build() ))
+        {
+            List<CompletableFuture<OfflinerResult>> running = new ArrayList<>();
+            for ( OfflinerRequest request : requests.subList( 0, REQUESTS ) )
+            {
+                running.add( CompletableFuture.supplyAsync( () -> {
+                    try
+                    {
+                        return offliner.copyOffline( request, null, null );
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                } ) );
+            }
+
+            for ( CompletableFuture<OfflinerResult> result : running )
+            {
+                assertResult( result.get() );
+            }
+
+            // the same instance serves a request after the others are done.
+            assertResult( offliner.copyOffline( requests.get( REQUESTS ), null, null ) );
+        }
+    }
+
+    private void assertResult( final OfflinerResult result )
+    {
+        assertThat( "Wrong number of downloads logged. Should have been " + ARTIFACTS * 3 + " including checksums.",
+                    result.getDownloaded(), equalTo( ARTIFACTS * 3 ) );
+        assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.cli.Options;
+import com.redhat.red.offliner.daemon.DaemonClient;
+import com.redhat.red.offliner.daemon.JobRequest;
+import com.redhat.red.offliner.daemon.JobStatus;
+import com.redhat.red.offliner.daemon.OfflinerDaemon;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Start a daemon, submit a job parsed from command-line options through a {@link DaemonClient}, and wait for it. The
+ * job should download the artifact and its checksums, and the daemon file should be gone once the daemon is asked to
+ * shut down. A job given other connections than the daemon was started with should be rejected.
+ */
+public class DaemonFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        // We only need one repo server.
+        TestRepositoryServer server = newRepositoryServer();
+
+        String path = contentGenerator.newArtifactPath( "jar" );
+        byte[] content = contentGenerator.newBinaryContent( 1024 );
+
+        server.registerContent( path, content );
+        server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+        server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+
+        File plaintextList = temporaryFolder.newFile( "artifact-list.txt" );
+        FileUtils.write( plaintextList, contentGenerator.newPlaintextEntryWithChecksum( path, content ) );
+
+        File downloads = temporaryFolder.newFolder();
+        Options opts = new Options();
+        opts.doParse( new String[] { "-T", "2", "-c", "4", "-r", server.getBaseUri(), "-d",
+                downloads.getAbsolutePath(), plaintextList.getAbsolutePath() } );
+
+        Options otherOpts = new Options();
+        otherOpts.doParse( new String[] { "-T", "2", "-c", "8", "-r", server.getBaseUri(), "-d",
+                downloads.getAbsolutePath(), plaintextList.getAbsolutePath() } );
+
+        Options daemonOpts = new Options();
+        daemonOpts.doParse( new String[] { "-T", "2", "-c", "4" } );
+
+        File daemonFile = new File( temporaryFolder.newFolder(), "daemon.properties" );
+        try (Offliner offliner = new Offliner( OfflinerConfig.builder().fromOptions( daemonOpts ).build() );
+             OfflinerDaemon daemon = new OfflinerDaemon( offliner, JobRequest.settingsOf( daemonOpts ), daemonFile,
+                                                         0 ))
+        {
+            daemon.start();
+
+            try (DaemonClient client = DaemonClient.find( daemonFile ))
+            {
+                assertThat( "Daemon should be found through its file", client, notNullValue() );
+
+                JobStatus rejected = client.submit( JobRequest.fromOptions( otherOpts ) );
+                assertThat( "Job with other connections than the daemon's should be rejected", rejected.getState(),
+                            equalTo( JobStatus.State.REJECTED ) );
+
+                JobStatus status = client.submit( JobRequest.fromOptions( opts ) );
+                status = client.await( status.getId(), null );
+
+                assertThat( "Job should be done: " + status.getMessage(), status.getState(),
+                            equalTo( JobStatus.State.DONE ) );
+                assertThat( "Wrong number of downloads logged. Should have been 3 including checksums.",
+                            status.getDownloaded(), equalTo( 3 ) );
+                assertThat( "Errors should be empty!", status.getErrorCount(), equalTo( 0 ) );
+
+                client.shutdown();
+            }
+
+            daemon.awaitShutdown();
+        }
+
+        File downloaded = new File( downloads, path );
+        assertThat( "File: " + path + " doesn't seem to have been downloaded!", downloaded.exists(), equalTo( true ) );
+        assertThat( "Daemon file should be removed on shutdown", daemonFile.exists(), equalTo( false ) );
+    }
+}
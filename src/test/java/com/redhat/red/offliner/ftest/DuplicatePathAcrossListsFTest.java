@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.cli.Options;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Create two plaintext artifact lists that share a path (one with a checksum, one without), and download both in the
+ * same run. The shared path, and its checksum files, should be requested from the server exactly once, and the
+ * checksum from the first list should still be applied.
+ */
+public class DuplicatePathAcrossListsFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    @Test
+    public void run()
+            throws Exception
+    {
+        TestRepositoryServer server = newRepositoryServer();
+
+        String path = contentGenerator.newArtifactPath( "jar" );
+        byte[] content = contentGenerator.newBinaryContent( 1024 );
+
+        server.registerContent( path, content );
+        server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+        server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+
+        File firstList = temporaryFolder.newFile( "artifact-list-1." + getClass().getSimpleName() + ".txt" );
+        FileUtils.write( firstList, contentGenerator.newPlaintextEntryWithChecksum( path, content ) );
+
+        // the second list repeats the path, and also lists one of the checksum files the first list gets patched with.
+        File secondList = temporaryFolder.newFile( "artifact-list-2." + getClass().getSimpleName() + ".txt" );
+        FileUtils.write( secondList, contentGenerator.newPlaintextEntryWithoutChecksum( path ) + "\n"
+                + contentGenerator.newPlaintextEntryWithoutChecksum( path + Offliner.SHA_SUFFIX ) );
+
+        Options opts = new Options();
+        opts.setBaseUrls( Collections.singletonList( server.getBaseUri() ) );
+
+        File downloads = temporaryFolder.newFolder();
+
+        opts.setDownloads( downloads );
+        opts.setLocations( Arrays.asList( firstList.getAbsolutePath(), secondList.getAbsolutePath() ) );
+
+        OfflinerResult result = run( opts );
+
+        assertThat( "Wrong number of downloads logged. Should have been 3 including checksums.", result.getDownloaded(),
+                    equalTo( 3 ) );
+        assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+        assertThat( "Shared path should have been requested once.",
+                    server.getAccessesFor( "GET", server.formatPath( path ) ), equalTo( 1 ) );
+        assertThat( "Shared checksum path should have been requested once.",
+                    server.getAccessesFor( "GET", server.formatPath( path + Offliner.SHA_SUFFIX ) ), equalTo( 1 ) );
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.commonjava.test.http.expect.ExpectationServer;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download a list of artifacts from two mirrors with hedging enabled, where the first mirror answers quickly, to time
+ * enough responses. Then download another artifact, whose response the first mirror holds back for
+ * {@link #SLOW_MILLIS}. It should be hedged to the second mirror, which should win, so the second run finishes long
+ * before the first mirror would have answered.
+ */
+public class HedgedRequestFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final int FAST_ARTIFACTS = 10;
+
+    private static final long SLOW_MILLIS = 10000;
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        ExpectationServer first = new ExpectationServer();
+        first.start();
+        TestRepositoryServer second = newRepositoryServer();
+
+        StringBuilder entries = new StringBuilder();
+        StringBuilder slowEntries = new StringBuilder();
+        String slowPath = null;
+        byte[] slowContent = null;
+        for ( int i = 0; i <= FAST_ARTIFACTS; i++ )
+        {
+            String path = String.format( "org/test/hedge/lib/1.%d/lib-1.%d.jar", i, i );
+            byte[] content = contentGenerator.newBinaryContent( 1024 );
+            boolean slow = i == FAST_ARTIFACTS;
+            if ( slow )
+            {
+                slowPath = path;
+                slowContent = content;
+            }
+
+            first.expect( "GET", "/" + path, ( req, resp ) -> {
+                if ( slow )
+                {
+                    try
+                    {
+                        Thread.sleep( SLOW_MILLIS );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                resp.setStatus( 200 );
+                resp.setContentLength( content.length );
+                resp.getOutputStream().write( content );
+            } );
+            first.expect( "/" + path + Offliner.SHA_SUFFIX, 200, sha1Hex( content ) );
+            first.expect( "/" + path + Offliner.MD5_SUFFIX, 200, md5Hex( content ) );
+
+            second.registerContent( path, content );
+            second.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+            second.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+
+            ( slow ? slowEntries : entries ).append( contentGenerator.newPlaintextEntryWithChecksum( path, content ) )
+                                            .append( '\n' );
+        }
+
+        File downloads = temporaryFolder.newFolder();
+        long elapsed;
+        try (Offliner offliner = new Offliner( OfflinerConfig.builder()
+                                                             .withThreads( 1 )
+                                                             .withConnections( 4 )
+                                                             .build() ))
+        {
+            OfflinerResult result = offliner.copyOffline( newRequest( entries, downloads, first, second ), null, null );
+
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+            assertThat( "Wrong number of downloads logged. Should have been " + FAST_ARTIFACTS * 3
+                                + " including checksums.", result.getDownloaded(), equalTo( FAST_ARTIFACTS * 3 ) );
+
+            long start = System.currentTimeMillis();
+            result = offliner.copyOffline( newRequest( slowEntries, downloads, first, second ), null, null );
+            elapsed = System.currentTimeMillis() - start;
+
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+            assertThat( "Wrong number of downloads logged. Should have been 3 including checksums.",
+                        result.getDownloaded(), equalTo( 3 ) );
+        }
+        first.stop();
+
+        assertThat( "The slow download should have been hedged to the second mirror",
+                    second.getAccessesFor( "GET", second.formatPath( slowPath ) ), notNullValue() );
+        assertThat( "The run should not have waited for the slow mirror (took " + elapsed + "ms)",
+                    elapsed < SLOW_MILLIS, equalTo( true ) );
+        assertThat( "Wrong content for the hedged download",
+                    FileUtils.readFileToByteArray( new File( downloads, slowPath ) ), equalTo( slowContent ) );
+    }
+
+    private OfflinerRequest newRequest( final CharSequence entries, final File downloads, final ExpectationServer first,
+                                        final TestRepositoryServer second )
+            throws Exception
+    {
+        File plaintextList = temporaryFolder.newFile();
+        FileUtils.write( plaintextList, entries );
+
+        return OfflinerRequest.builder()
+                              .withArtifactList( plaintextList.getAbsolutePath() )
+                              .withDownloadDir( downloads )
+                              .withRepoUrl( first.getBaseUri() )
+                              .withRepoUrl( second.getBaseUri() )
+                              .withHedging( 95 )
+                              .withoutMetadata()
+                              .build();
+    }
+}
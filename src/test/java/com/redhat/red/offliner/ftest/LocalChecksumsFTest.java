@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.cli.Options;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Create a one-path plaintext artifact list + content, and download it with local checksums. The .sha1 and .md5 files
+ * should be written from the digests calculated while downloading, and only the .sha1 should be fetched, to
+ * cross-verify the local digest.
+ */
+public class LocalChecksumsFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        // We only need one repo server.
+        TestRepositoryServer server = newRepositoryServer();
+
+        // Generate some test content
+        String path = contentGenerator.newArtifactPath( "jar" );
+        byte[] content = contentGenerator.newBinaryContent( 1024 );
+
+        server.registerContent( path, content );
+        server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+        server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+
+        // Write the plaintext file we'll use as input.
+        File plaintextList = temporaryFolder.newFile( "artifact-list." + getClass().getSimpleName() + ".txt" );
+        String pathWithChecksum = contentGenerator.newPlaintextEntryWithChecksum( path, content );
+        FileUtils.write( plaintextList, pathWithChecksum );
+
+        Options opts = new Options();
+        opts.setBaseUrls( Collections.singletonList( server.getBaseUri() ) );
+        opts.setLocalChecksums( true );
+        opts.setRemoteChecksumSample( 1 );
+
+        // Capture the downloads here so we can verify the content.
+        File downloads = temporaryFolder.newFolder();
+
+        opts.setDownloads( downloads );
+        opts.setLocations( Collections.singletonList( plaintextList.getAbsolutePath() ) );
+
+        OfflinerResult finishedMain = run( opts );
+
+        assertThat( "The .md5 file should not have been fetched!",
+                    server.getAccessesFor( "GET", server.formatPath( path + Offliner.MD5_SUFFIX ) ), nullValue() );
+        assertThat( "The .sha1 file should have been fetched once, to cross-verify!",
+                    server.getAccessesFor( "GET", server.formatPath( path + Offliner.SHA_SUFFIX ) ), equalTo( 1 ) );
+
+        File downloaded = new File( downloads, path );
+        assertThat( "Wrong number of downloads logged. Should have been just the artifact.",
+                    finishedMain.getDownloaded(), equalTo( 1 ) );
+        assertThat( "Errors should be empty!", finishedMain.getErrors().isEmpty(), equalTo( true ) );
+
+        assertThat( "Downloaded file: " + path + " contains the wrong content!",
+                    FileUtils.readFileToByteArray( downloaded ), equalTo( content ) );
+        assertThat( "Wrong .sha1 file content!",
+                    FileUtils.readFileToString( new File( downloads, path + Offliner.SHA_SUFFIX ) ),
+                    equalTo( sha1Hex( content ) ) );
+        assertThat( "Wrong .md5 file content!",
+                    FileUtils.readFileToString( new File( downloads, path + Offliner.MD5_SUFFIX ) ),
+                    equalTo( md5Hex( content ) ) );
+    }
+}
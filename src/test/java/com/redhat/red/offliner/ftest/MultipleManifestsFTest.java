@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.cli.Options;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.commonjava.indy.folo.dto.TrackedContentDTO;
+import org.commonjava.indy.folo.dto.TrackedContentEntryDTO;
+import org.commonjava.indy.folo.model.TrackingKey;
+import org.commonjava.indy.model.core.StoreKey;
+import org.commonjava.indy.model.core.StoreType;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download from two plaintext artifact lists and a Folo report in the same run, which are all opened concurrently.
+ * Every artifact in them (and its checksum files) should be downloaded.
+ */
+public class MultipleManifestsFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        TestRepositoryServer server = newRepositoryServer();
+
+        File[] plaintextLists = new File[2];
+        for ( int i = 0; i < plaintextLists.length; i++ )
+        {
+            String path = contentGenerator.newArtifactPath( "jar" );
+            byte[] content = contentGenerator.newBinaryContent( 1024 );
+            register( server, path, content );
+
+            plaintextLists[i] = temporaryFolder.newFile( "artifact-list-" + i + "." + getClass().getSimpleName() + ".txt" );
+            FileUtils.write( plaintextLists[i], contentGenerator.newPlaintextEntryWithChecksum( path, content ) );
+        }
+
+        byte[] content = contentGenerator.newBinaryContent( 1024 );
+        TrackedContentEntryDTO dto =
+                contentGenerator.newRemoteContentEntry( new StoreKey( StoreType.remote, "test" ), "jar",
+                                                        server.getBaseUri(), content );
+        register( server, dto.getPath(), content );
+
+        TrackedContentDTO record = new TrackedContentDTO( new TrackingKey( "test-record" ), Collections.emptySet(),
+                                                          Collections.singleton( dto ) );
+        File foloRecord = temporaryFolder.newFile( "folo." + getClass().getSimpleName() + ".json" );
+        FileUtils.write( foloRecord, objectMapper.writeValueAsString( record ) );
+
+        Options opts = new Options();
+        opts.setBaseUrls( Collections.singletonList( server.getBaseUri() ) );
+        opts.setDownloads( temporaryFolder.newFolder() );
+        opts.setLocations( Arrays.asList( plaintextLists[0].getAbsolutePath(), foloRecord.getAbsolutePath(),
+                                          plaintextLists[1].getAbsolutePath() ) );
+
+        OfflinerResult result = run( opts );
+
+        assertThat( "Wrong number of downloads logged. Should have been 9 including checksums.",
+                    result.getDownloaded(), equalTo( 9 ) );
+        assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+    }
+
+    private static void register( final TestRepositoryServer server, final String path, final byte[] content )
+            throws IOException
+    {
+        server.registerContent( path, content );
+        server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+        server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.commonjava.test.http.expect.ExpectationServer;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download several versions of an artifact from two repositories, one at a time, where the first repository has none
+ * of them. Once the first repository has returned 404 for enough versions of the GA, later versions should be fetched
+ * from the second repository without asking the first one at all. The negative lookups should be written to the
+ * cache file.
+ */
+public class NegativeLookupCacheFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final int VERSIONS = 5;
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        // without expectations, this one returns 404 for everything.
+        ExpectationServer empty = new ExpectationServer();
+        empty.start();
+        TestRepositoryServer server = newRepositoryServer();
+
+        StringBuilder entries = new StringBuilder();
+        String[] jars = new String[VERSIONS];
+        for ( int i = 0; i < VERSIONS; i++ )
+        {
+            String base = String.format( "org/test/negative/lib/1.%d/lib-1.%d", i, i );
+            jars[i] = base + ".jar";
+            for ( String path : new String[] { base + ".pom", jars[i] } )
+            {
+                byte[] content = contentGenerator.newBinaryContent( 1024 );
+                server.registerContent( path, content );
+                server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+                server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+                entries.append( contentGenerator.newPlaintextEntryWithChecksum( path, content ) ).append( '\n' );
+            }
+        }
+
+        File plaintextList = temporaryFolder.newFile( "artifact-list.txt" );
+        FileUtils.write( plaintextList, entries );
+
+        File cacheFile = new File( temporaryFolder.newFolder(), "negative-cache" );
+        OfflinerRequest request = OfflinerRequest.builder()
+                                                 .withArtifactList( plaintextList.getAbsolutePath() )
+                                                 .withDownloadDir( temporaryFolder.newFolder() )
+                                                 .withRepoUrl( empty.getBaseUri() )
+                                                 .withRepoUrl( server.getBaseUri() )
+                                                 .withoutMetadata()
+                                                 .build();
+
+        // a single thread, so the downloads happen in list order.
+        try (Offliner offliner = new Offliner( OfflinerConfig.builder()
+                                                             .withThreads( 1 )
+                                                             .withConnections( 4 )
+                                                             .withNegativeCacheFile( cacheFile )
+                                                             .build() ))
+        {
+            OfflinerResult result = offliner.copyOffline( request, null, null );
+
+            assertThat( "Wrong number of downloads logged. Should have been " + VERSIONS * 6
+                                + " including checksums.", result.getDownloaded(), equalTo( VERSIONS * 6 ) );
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+        }
+
+        Integer firstAccesses = empty.getAccessesFor( "GET", empty.formatPath( jars[0] ) );
+        Integer lastAccesses = empty.getAccessesFor( "GET", empty.formatPath( jars[VERSIONS - 1] ) );
+        empty.stop();
+
+        assertThat( "First version should have been looked up in the empty repository", firstAccesses,
+                    notNullValue() );
+        assertThat( "Last version should not have been looked up in the empty repository", lastAccesses,
+                    nullValue() );
+        assertThat( "Negative lookups should be saved", cacheFile.length() > 0, equalTo( true ) );
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.cli.Options;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.PoolStats;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Map;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download several artifacts from a repository limited to a single connection by --repo-connections, using more
+ * threads than that. The downloads should all succeed, and once the request is done, the pool statistics of the
+ * repository's route should show the limit lifted again, with no connections left leased.
+ */
+public class RepoConnectionLimitFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final int ARTIFACTS = 5;
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        // We only need one repo server.
+        TestRepositoryServer server = newRepositoryServer();
+
+        StringBuilder entries = new StringBuilder();
+        for ( int i = 0; i < ARTIFACTS; i++ )
+        {
+            String path = contentGenerator.newArtifactPath( "jar" );
+            byte[] content = contentGenerator.newBinaryContent( 1024 );
+
+            server.registerContent( path, content );
+            server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+            server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+            entries.append( contentGenerator.newPlaintextEntryWithChecksum( path, content ) ).append( '\n' );
+        }
+
+        File plaintextList = temporaryFolder.newFile( "artifact-list.txt" );
+        FileUtils.write( plaintextList, entries );
+
+        Options opts = new Options();
+        opts.doParse( new String[] { "-r", server.getBaseUri(), "-C", server.getBaseUri() + "=1", "-d",
+                temporaryFolder.newFolder().getAbsolutePath(), plaintextList.getAbsolutePath() } );
+
+        try (Offliner offliner = new Offliner(
+                OfflinerConfig.builder().withThreads( 4 ).withConnections( 8 ).build() ))
+        {
+            OfflinerResult result =
+                    offliner.copyOffline( OfflinerRequest.builder().fromOptions( opts ).build(), null, null );
+
+            assertThat( "Wrong number of downloads logged. Should have been " + ARTIFACTS * 3
+                                + " including checksums.", result.getDownloaded(), equalTo( ARTIFACTS * 3 ) );
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+
+            URI uri = URI.create( server.getBaseUri() );
+            PoolStats stats = null;
+            for ( Map.Entry<HttpRoute, PoolStats> e : offliner.getRouteStats().entrySet() )
+            {
+                if ( e.getKey().getTargetHost().getPort() == uri.getPort() )
+                {
+                    stats = e.getValue();
+                }
+            }
+
+            assertThat( "No pool statistics for the repository route", stats, notNullValue() );
+            assertThat( "Route limit should be lifted after the request", stats.getMax(), equalTo( 8 ) );
+            assertThat( "No connections should be left leased", stats.getLeased(), equalTo( 0 ) );
+        }
+    }
+}
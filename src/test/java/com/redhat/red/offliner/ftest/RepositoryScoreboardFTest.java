@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.RepositoryScore;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download a list of artifacts from two repositories, one at a time, where the first repository answers every request
+ * with a server error. After a few failures it should be ejected, so the remaining downloads go straight to the
+ * second repository. The scores of both repositories should be exported in the {@link OfflinerResult}.
+ */
+public class RepositoryScoreboardFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final int ARTIFACTS = 10;
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        // nothing is registered, so this one answers 500 for everything.
+        TestRepositoryServer failing = newRepositoryServer();
+        TestRepositoryServer server = newRepositoryServer();
+
+        StringBuilder entries = new StringBuilder();
+        for ( int i = 0; i < ARTIFACTS; i++ )
+        {
+            String path = String.format( "org/test/score/lib%d/1.0/lib%d-1.0.jar", i, i );
+            byte[] content = contentGenerator.newBinaryContent( 1024 );
+            server.registerContent( path, content );
+            server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+            server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+            entries.append( contentGenerator.newPlaintextEntryWithChecksum( path, content ) ).append( '\n' );
+        }
+
+        File plaintextList = temporaryFolder.newFile( "artifact-list.txt" );
+        FileUtils.write( plaintextList, entries );
+
+        OfflinerRequest request = OfflinerRequest.builder()
+                                                 .withArtifactList( plaintextList.getAbsolutePath() )
+                                                 .withDownloadDir( temporaryFolder.newFolder() )
+                                                 .withRepoUrl( failing.getBaseUri() )
+                                                 .withRepoUrl( server.getBaseUri() )
+                                                 .withoutMetadata()
+                                                 .build();
+
+        // a single thread, so the first repository is ejected before most of the downloads start.
+        try (Offliner offliner = new Offliner( OfflinerConfig.builder()
+                                                             .withThreads( 1 )
+                                                             .withConnections( 4 )
+                                                             .build() ))
+        {
+            OfflinerResult result = offliner.copyOffline( request, null, null );
+
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+            assertThat( "Wrong number of downloads logged. Should have been " + ARTIFACTS * 3
+                                + " including checksums.", result.getDownloaded(), equalTo( ARTIFACTS * 3 ) );
+
+            RepositoryScore failed = result.getRepositoryScores().get( failing.getBaseUri() );
+            RepositoryScore healthy = result.getRepositoryScores().get( server.getBaseUri() );
+
+            assertThat( "The failing repository should have been ejected", failed.getCircuit(),
+                        equalTo( RepositoryScore.Circuit.OPEN ) );
+            assertThat( "The failing repository should only be tried until it's ejected",
+                        failed.getRequests() < ARTIFACTS * 3, equalTo( true ) );
+            assertThat( healthy.getSuccesses(), equalTo( (long) ARTIFACTS * 3 ) );
+            assertThat( healthy.getSuccessRate(), equalTo( 1.0 ) );
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.cli.Options;
+import org.apache.commons.io.FileUtils;
+import org.commonjava.test.http.expect.ExpectationServer;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Create a one-path plaintext artifact list + content, and leave the first half of the content in a part file in the
+ * download directory, as if an earlier run was interrupted. The test server supports range requests, so the download
+ * should continue from the end of the part file, and still verify against the checksum of the whole content.
+ */
+public class ResumePartialDownloadFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        ExpectationServer server = new ExpectationServer().start();
+
+        // Generate some test content
+        String path = contentGenerator.newArtifactPath( "jar" );
+        byte[] content = contentGenerator.newBinaryContent( 4096 );
+        int half = content.length / 2;
+
+        AtomicReference<String> range = new AtomicReference<>();
+        server.expect( "GET", "/" + path, ( request, response ) -> {
+            String header = request.getHeader( "Range" );
+            range.set( header );
+
+            response.setHeader( "Accept-Ranges", "bytes" );
+            if ( header == null )
+            {
+                response.setStatus( 200 );
+                response.getOutputStream().write( content );
+            }
+            else
+            {
+                int from = Integer.parseInt( header.substring( "bytes=".length(), header.indexOf( '-' ) ) );
+                response.setStatus( 206 );
+                response.setHeader( "Content-Range",
+                                    "bytes " + from + "-" + ( content.length - 1 ) + "/" + content.length );
+                response.getOutputStream().write( content, from, content.length - from );
+            }
+        } );
+
+        server.expect( "/" + path + Offliner.SHA_SUFFIX, 200, sha1Hex( content ) );
+        server.expect( "/" + path + Offliner.MD5_SUFFIX, 200, md5Hex( content ) );
+
+        // Write the plaintext file we'll use as input.
+        File plaintextList = temporaryFolder.newFile( "artifact-list." + getClass().getSimpleName() + ".txt" );
+        String pathWithChecksum = contentGenerator.newPlaintextEntryWithChecksum( path, content );
+        FileUtils.write( plaintextList, pathWithChecksum );
+
+        Options opts = new Options();
+        opts.setBaseUrls( Collections.singletonList( server.getBaseUri() ) );
+
+        // Capture the downloads here so we can verify the content.
+        File downloads = temporaryFolder.newFolder();
+
+        // Leave the first half of the content behind, as an interrupted run would.
+        File part = new File( downloads, path + ".part" );
+        FileUtils.writeByteArrayToFile( part, Arrays.copyOf( content, half ) );
+
+        opts.setDownloads( downloads );
+        opts.setLocations( Collections.singletonList( plaintextList.getAbsolutePath() ) );
+
+        OfflinerResult finishedMain = run( opts );
+
+        assertThat( "Wrong number of downloads logged. Should have been 3 including checksums.",
+                    finishedMain.getDownloaded(), equalTo( 3 ) );
+        assertThat( "Errors should be empty!", finishedMain.getErrors().isEmpty(), equalTo( true ) );
+        assertThat( "Download should have been resumed from the end of the part file!", range.get(),
+                    equalTo( "bytes=" + half + "-" ) );
+
+        File downloaded = new File( downloads, path );
+        assertThat( "Downloaded file: " + path + " contains the wrong content!",
+                    FileUtils.readFileToByteArray( downloaded ), equalTo( content ) );
+        assertThat( "Part file should be gone!", part.exists(), equalTo( false ) );
+    }
+}
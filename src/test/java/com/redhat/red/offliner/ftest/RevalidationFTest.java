@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHeaders;
+import org.commonjava.test.http.expect.ExpectationHandler;
+import org.commonjava.test.http.expect.ExpectationServer;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download three artifacts without checksums, then change the content of one of them in the repository and run
+ * again with revalidation. The artifact with an unchanged ETag and the one with an unchanged Last-Modified date should
+ * be confirmed current with a 304, without sending their content again, while the changed one should be replaced.
+ */
+public class RevalidationFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        ExpectationServer server = new ExpectationServer();
+        server.start();
+
+        String unchanged = "org/test/revalidate/unchanged/1.0/unchanged-1.0.jar";
+        String changed = "org/test/revalidate/changed/1.0/changed-1.0.jar";
+        String dated = "org/test/revalidate/dated/1.0/dated-1.0.jar";
+
+        AtomicInteger notModified = new AtomicInteger();
+        AtomicReference<byte[]> changedContent = new AtomicReference<>( contentGenerator.newBinaryContent( 1024 ) );
+        AtomicReference<String> changedEtag = new AtomicReference<>( "\"v1\"" );
+
+        expect( server, unchanged, handler( new AtomicReference<>( contentGenerator.newBinaryContent( 1024 ) ),
+                                            new AtomicReference<>( "\"v1\"" ), notModified ) );
+        expect( server, changed, handler( changedContent, changedEtag, notModified ) );
+        expect( server, dated, handler( new AtomicReference<>( contentGenerator.newBinaryContent( 1024 ) ),
+                                        new AtomicReference<>(), notModified ) );
+
+        File plaintextList = temporaryFolder.newFile( "artifact-list.txt" );
+        FileUtils.write( plaintextList, String.join( "\n", contentGenerator.newPlaintextEntryWithoutChecksum( unchanged ),
+                                                     contentGenerator.newPlaintextEntryWithoutChecksum( changed ),
+                                                     contentGenerator.newPlaintextEntryWithoutChecksum( dated ) ) );
+
+        File downloads = temporaryFolder.newFolder();
+        OfflinerRequest.Builder builder = OfflinerRequest.builder()
+                                                         .withArtifactList( plaintextList.getAbsolutePath() )
+                                                         .withDownloadDir( downloads )
+                                                         .withRepoUrl( server.getBaseUri() )
+                                                         .withoutMetadata()
+                                                         .withJournal();
+
+        byte[] newContent = contentGenerator.newBinaryContent( 2048 );
+        try (Offliner offliner = new Offliner( OfflinerConfig.builder().withThreads( 2 ).withConnections( 4 ).build() ))
+        {
+            OfflinerResult result = offliner.copyOffline( builder.build(), null, null );
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+
+            changedContent.set( newContent );
+            changedEtag.set( "\"v2\"" );
+
+            result = offliner.copyOffline( builder.withRevalidation().build(), null, null );
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+            assertThat( "Unchanged artifacts should be avoided", result.getAvoided(), equalTo( 2 ) );
+        }
+        server.stop();
+
+        assertThat( "Unchanged artifacts should be confirmed with a 304", notModified.get(), equalTo( 2 ) );
+        assertThat( "The changed artifact should be replaced",
+                    FileUtils.readFileToByteArray( new File( downloads, changed ) ), equalTo( newContent ) );
+    }
+
+    private void expect( final ExpectationServer server, final String path, final ExpectationHandler handler )
+            throws Exception
+    {
+        server.expect( "GET", "/" + path, handler );
+        // the checksum files are patched in, but this test doesn't care about them.
+        server.expect( "/" + path + Offliner.SHA_SUFFIX, 200, sha1Hex( path ) );
+        server.expect( "/" + path + Offliner.MD5_SUFFIX, 200, md5Hex( path ) );
+    }
+
+    /**
+     * Serve the current content, with the current ETag if there is one, or else a fixed Last-Modified date. Answer
+     * 304 if the request's conditional header says the client already has it.
+     */
+    private static ExpectationHandler handler( final AtomicReference<byte[]> content,
+                                               final AtomicReference<String> etag, final AtomicInteger notModified )
+    {
+        return ( request, response ) -> {
+            String current = etag.get();
+            boolean fresh = current == null ?
+                    LAST_MODIFIED.equals( request.getHeader( HttpHeaders.IF_MODIFIED_SINCE ) ) :
+                    current.equals( request.getHeader( HttpHeaders.IF_NONE_MATCH ) );
+            if ( fresh )
+            {
+                notModified.incrementAndGet();
+                response.setStatus( 304 );
+                return;
+            }
+
+            if ( current == null )
+            {
+                response.setHeader( HttpHeaders.LAST_MODIFIED, LAST_MODIFIED );
+            }
+            else
+            {
+                response.setHeader( HttpHeaders.ETAG, current );
+            }
+            response.setStatus( 200 );
+            response.setContentLength( content.get().length );
+            response.getOutputStream().write( content.get() );
+        };
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.cli.Options;
+import org.apache.commons.io.FileUtils;
+import org.commonjava.test.http.expect.ExpectationServer;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Create a one-path plaintext artifact list + content larger than the segment threshold, served by a test server that
+ * supports range requests. The content should be fetched as several concurrent byte ranges, assembled in order, and
+ * verified against the checksum of the whole content.
+ */
+public class SegmentedDownloadFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        ExpectationServer server = new ExpectationServer().start();
+
+        // Generate some test content
+        String path = contentGenerator.newArtifactPath( "zip" );
+        byte[] content = contentGenerator.newBinaryContent( 3 * MB + 17 );
+
+        AtomicInteger rangeRequests = new AtomicInteger();
+        server.expect( "GET", "/" + path, ( request, response ) -> {
+            String header = request.getHeader( "Range" );
+            response.setHeader( "Accept-Ranges", "bytes" );
+            if ( header == null )
+            {
+                response.setStatus( 200 );
+                response.setContentLength( content.length );
+                response.getOutputStream().write( content );
+            }
+            else
+            {
+                rangeRequests.incrementAndGet();
+                String[] range = header.substring( "bytes=".length() ).split( "-" );
+                int from = Integer.parseInt( range[0] );
+                int to = range.length > 1 ? Integer.parseInt( range[1] ) : content.length - 1;
+
+                response.setStatus( 206 );
+                response.setHeader( "Content-Range", "bytes " + from + "-" + to + "/" + content.length );
+                response.setContentLength( to - from + 1 );
+                response.getOutputStream().write( content, from, to - from + 1 );
+            }
+        } );
+
+        server.expect( "/" + path + Offliner.SHA_SUFFIX, 200, sha1Hex( content ) );
+        server.expect( "/" + path + Offliner.MD5_SUFFIX, 200, md5Hex( content ) );
+
+        // Write the plaintext file we'll use as input.
+        File plaintextList = temporaryFolder.newFile( "artifact-list." + getClass().getSimpleName() + ".txt" );
+        String pathWithChecksum = contentGenerator.newPlaintextEntryWithChecksum( path, content );
+        FileUtils.write( plaintextList, pathWithChecksum );
+
+        Options opts = new Options();
+        opts.setBaseUrls( Collections.singletonList( server.getBaseUri() ) );
+        opts.setSegments( 4 );
+        opts.setSegmentThreshold( 1 );
+
+        // Capture the downloads here so we can verify the content.
+        File downloads = temporaryFolder.newFolder();
+
+        opts.setDownloads( downloads );
+        opts.setLocations( Collections.singletonList( plaintextList.getAbsolutePath() ) );
+
+        OfflinerResult finishedMain = run( opts );
+
+        assertThat( "Wrong number of downloads logged. Should have been 3 including checksums.",
+                    finishedMain.getDownloaded(), equalTo( 3 ) );
+        assertThat( "Errors should be empty!", finishedMain.getErrors().isEmpty(), equalTo( true ) );
+        assertThat( "Every segment but the first should have been fetched with a range request!",
+                    rangeRequests.get(), equalTo( 3 ) );
+
+        File downloaded = new File( downloads, path );
+        assertThat( "Downloaded file: " + path + " contains the wrong content!",
+                    FileUtils.readFileToByteArray( downloaded ), equalTo( content ) );
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import com.redhat.red.offliner.ftest.fixture.TestRepositoryServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download a list many times longer than the submission window (twice the threads). Every download should succeed,
+ * and the window should be filled, but never exceeded.
+ */
+public class SubmissionWindowFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final int THREADS = 2;
+
+    private static final int ARTIFACTS = 50;
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        // We only need one repo server.
+        TestRepositoryServer server = newRepositoryServer();
+
+        StringBuilder entries = new StringBuilder();
+        for ( int i = 0; i < ARTIFACTS; i++ )
+        {
+            String path = contentGenerator.newArtifactPath( "jar" );
+            byte[] content = contentGenerator.newBinaryContent( 1024 );
+
+            server.registerContent( path, content );
+            server.registerContent( path + Offliner.SHA_SUFFIX, sha1Hex( content ) );
+            server.registerContent( path + Offliner.MD5_SUFFIX, md5Hex( content ) );
+            entries.append( contentGenerator.newPlaintextEntryWithChecksum( path, content ) ).append( '\n' );
+        }
+
+        File plaintextList = temporaryFolder.newFile( "artifact-list.txt" );
+        FileUtils.write( plaintextList, entries );
+
+        try (Offliner offliner = new Offliner(
+                OfflinerConfig.builder().withThreads( THREADS ).withConnections( 4 * THREADS ).build() ))
+        {
+            OfflinerResult result = offliner.copyOffline( OfflinerRequest.builder()
+                                                                         .withArtifactList(
+                                                                                 plaintextList.getAbsolutePath() )
+                                                                         .withDownloadDir( temporaryFolder.newFolder() )
+                                                                         .withRepoUrl( server.getBaseUri() )
+                                                                         .withoutMetadata()
+                                                                         .build(), null, null );
+
+            assertThat( "Wrong number of downloads logged. Should have been " + ARTIFACTS * 3
+                                + " including checksums.", result.getDownloaded(), equalTo( ARTIFACTS * 3 ) );
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+
+            assertThat( "Wrong submission window", offliner.getSubmissionWindow(), equalTo( 2 * THREADS ) );
+            assertThat( "Outstanding downloads should fill the submission window, and never exceed it",
+                        offliner.getMaxOutstanding(), equalTo( offliner.getSubmissionWindow() ) );
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.ftest;
+
+import com.redhat.red.offliner.Offliner;
+import com.redhat.red.offliner.OfflinerConfig;
+import com.redhat.red.offliner.OfflinerRequest;
+import com.redhat.red.offliner.OfflinerResult;
+import org.apache.commons.io.FileUtils;
+import org.commonjava.test.http.expect.ExpectationServer;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Download a list of artifacts with virtual threads requested, from a repository that holds each response back for a
+ * moment so downloads overlap. On a JVM with virtual threads, they should be used, and no more than --connections
+ * downloads should reach the repository at once. On an older one, the Offliner should fall back to its fixed thread
+ * pool, and the downloads should succeed all the same.
+ */
+public class VirtualThreadsFTest
+        extends AbstractOfflinerFunctionalTest
+{
+    private static final int ARTIFACTS = 10;
+
+    private static final int CONNECTIONS = 2;
+
+    private static final long RESPONSE_DELAY_MILLIS = 100;
+
+    /**
+     * In general, we should only have one test method per functional test. This allows for the best parallelism when we
+     * execute the tests, especially if the setup takes some time.
+     *
+     * @throws Exception In case anything (anything at all) goes wrong!
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        ExpectationServer server = new ExpectationServer();
+        server.start();
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        StringBuilder entries = new StringBuilder();
+        for ( int i = 0; i < ARTIFACTS; i++ )
+        {
+            String path = String.format( "org/test/virtual/lib/1.%d/lib-1.%d.jar", i, i );
+            byte[] content = contentGenerator.newBinaryContent( 1024 );
+
+            server.expect( "GET", "/" + path, ( req, resp ) -> {
+                maxInFlight.accumulateAndGet( inFlight.incrementAndGet(), Math::max );
+                try
+                {
+                    Thread.sleep( RESPONSE_DELAY_MILLIS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    inFlight.decrementAndGet();
+                }
+                resp.setStatus( 200 );
+                resp.setContentLength( content.length );
+                resp.getOutputStream().write( content );
+            } );
+            server.expect( "/" + path + Offliner.SHA_SUFFIX, 200, sha1Hex( content ) );
+            server.expect( "/" + path + Offliner.MD5_SUFFIX, 200, md5Hex( content ) );
+
+            entries.append( contentGenerator.newPlaintextEntryWithChecksum( path, content ) ).append( '\n' );
+        }
+
+        File plaintextList = temporaryFolder.newFile( "artifact-list.txt" );
+        FileUtils.write( plaintextList, entries );
+
+        try (Offliner offliner = new Offliner( OfflinerConfig.builder()
+                                                             .withVirtualThreads( true )
+                                                             .withThreads( 4 * CONNECTIONS )
+                                                             .withConnections( CONNECTIONS )
+                                                             .build() ))
+        {
+            assertThat( "Virtual threads should be used if, and only if, the JVM supports them",
+                        offliner.isVirtualThreads(), equalTo( isVirtualThreadsSupported() ) );
+
+            OfflinerResult result = offliner.copyOffline( OfflinerRequest.builder()
+                                                                         .withArtifactList(
+                                                                                 plaintextList.getAbsolutePath() )
+                                                                         .withDownloadDir( temporaryFolder.newFolder() )
+                                                                         .withRepoUrl( server.getBaseUri() )
+                                                                         .withoutMetadata()
+                                                                         .build(), null, null );
+
+            assertThat( "Errors should be empty!", result.getErrors().isEmpty(), equalTo( true ) );
+            assertThat( "Wrong number of downloads logged. Should have been " + ARTIFACTS * 3
+                                + " including checksums.", result.getDownloaded(), equalTo( ARTIFACTS * 3 ) );
+        }
+        finally
+        {
+            server.stop();
+        }
+
+        assertThat( "More downloads reached the repository at once (" + maxInFlight.get() + ") than --connections",
+                    maxInFlight.get() <= CONNECTIONS, equalTo( true ) );
+    }
+
+    private static boolean isVirtualThreadsSupported()
+    {
+        try
+        {
+            Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+            return true;
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.red.offliner.model;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PathStoreTest
+{
+    private static final String[] FILES = { ".jar", ".pom", "-sources.jar" };
+
+    private static final String[] CHECKSUMS = { "", ".sha1", ".md5" };
+
+    @Test
+    public void storeGrowsWithSegmentsAndDirectoriesNotPaths()
+    {
+        PathStore store = new PathStore();
+        int count = 0;
+        for ( int a = 0; a < 1000; a++ )
+        {
+            for ( int v = 0; v < 10; v++ )
+            {
+                for ( String file : FILES )
+                {
+                    for ( String checksum : CHECKSUMS )
+                    {
+                        assertThat( store.add( path( a, v, file + checksum ) ), equalTo( true ) );
+                        count++;
+                    }
+                }
+            }
+        }
+
+        assertThat( store.size(), equalTo( count ) );
+        // org, example, 100 groups, 1000 artifactIds, 10 versions, and the 9 file names without artifactId-version.
+        assertThat( store.segmentCount(), equalTo( 2 + 100 + 1000 + 10 + 9 ) );
+        // the root, org, example, 100 groups, 1000 artifacts and 10000 versions.
+        assertThat( store.dirCount(), equalTo( 1 + 2 + 100 + 1000 + 10000 ) );
+
+        assertThat( store.get( 0 ), equalTo( path( 0, 0, ".jar" ) ) );
+        assertThat( store.get( count - 1 ), equalTo( path( 999, 9, "-sources.jar.md5" ) ) );
+        assertThat( store.indexOf( path( 500, 5, ".pom.sha1" ) ), equalTo( ( 500 * 10 + 5 ) * 9 + 4 ) );
+    }
+
+    @Test
+    public void fileNamesThatDontRepeatTheirDirectoriesAreStoredWhole()
+    {
+        PathStore store = new PathStore();
+        store.add( "org/foo/bar/1/bar-1.jar" );
+        store.add( "org/foo/bar/1/other-1.jar" );
+        store.add( "org/foo/bar/maven-metadata.xml" );
+
+        assertThat( store.get( 0 ), equalTo( "org/foo/bar/1/bar-1.jar" ) );
+        assertThat( store.get( 1 ), equalTo( "org/foo/bar/1/other-1.jar" ) );
+        assertThat( store.get( 2 ), equalTo( "org/foo/bar/maven-metadata.xml" ) );
+        assertThat( store.contains( "org/foo/bar/1/bar-1.pom" ), equalTo( false ) );
+    }
+
+    private static String path( final int artifact, final int version, final String file )
+    {
+        return "org/example/group" + ( artifact % 100 ) + "/artifact" + artifact + "/1." + version + "/artifact"
+                + artifact + "-1." + version + file;
+    }
+}